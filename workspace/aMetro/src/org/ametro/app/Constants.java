@@ -83,9 +83,10 @@ public class Constants {
 
     public static final String NO_MEDIA_TAG = ".nomedia";
     public static final String MAP_FILE_TYPE = ".ametro";
+    public static final String BINARY_MAP_FILE_TYPE = ".ametrob";
     public static final String PMZ_FILE_TYPE = ".pmz";
 
-    public static final String IMPORT_FILE_TYPE = ".import.ametro";
+    public static final String IMPORT_FILE_TYPE = ".import.ametrob";
     public static final String DOWNLOAD_FILE_TYPE = ".download.ametro";
     
 	public static final File ROOT_PATH = new File(Environment.getExternalStorageDirectory(), "ametro");
@@ -126,6 +127,7 @@ public class Constants {
 
 	public static final String PMETRO_EXTENSION = ".pmz";
 	public static final String AMETRO_EXTENSION = ".ametro";
+	public static final String AMETRO_BINARY_EXTENSION = ".ametrob";
 	
 	public static final String EXTRA_TIMESTAMP = "EXTRA_TIMESTAMP";
 	public static final String EXTRA_SYSTEM_MAP_NAME = "EXTRA_SYSTEM_MAP_NAME";
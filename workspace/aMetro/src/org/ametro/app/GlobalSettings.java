@@ -22,6 +22,7 @@
 package org.ametro.app;
 
 
+import static org.ametro.app.Constants.BINARY_MAP_FILE_TYPE;
 import static org.ametro.app.Constants.DOWNLOAD_FILE_TYPE;
 import static org.ametro.app.Constants.IMPORT_FILE_TYPE;
 import static org.ametro.app.Constants.LOCAL_CATALOG_PATH;
@@ -49,6 +50,7 @@ import java.io.File;
 import java.util.Locale;
 
 import org.ametro.R;
+import org.ametro.catalog.Catalog;
 import org.ametro.catalog.storage.CatalogStorage;
 import org.ametro.util.StringUtil;
 
@@ -66,7 +68,7 @@ public class GlobalSettings {
 		public String ViewName;
 		
 		public String getSystemMapName() {
-			return FilePath==null ? null : FilePath.substring(FilePath.lastIndexOf('/')+1);
+			return FilePath==null ? null : Catalog.getSystemName(FilePath.substring(FilePath.lastIndexOf('/')+1));
 		}
 		
 		public MapPath(String path){
@@ -138,7 +140,14 @@ public class GlobalSettings {
 	}
 	
     public static String getLocalCatalogMapFileName(String systemName) {
-        return new File(LOCAL_CATALOG_PATH, systemName).getAbsolutePath().toLowerCase();
+        // imported maps are stored in binary format, downloaded ones as is
+        final String binaryFileName = getLocalCatalogMapFileName(systemName, true);
+        return new File(binaryFileName).exists() ? binaryFileName : getLocalCatalogMapFileName(systemName, false);
+    }
+
+    public static String getLocalCatalogMapFileName(String systemName, boolean binary) {
+        final String fileName = binary ? systemName.replace(MAP_FILE_TYPE, BINARY_MAP_FILE_TYPE) : systemName;
+        return new File(LOCAL_CATALOG_PATH, fileName).getAbsolutePath().toLowerCase();
     }
 
     public static String getTemporaryImportMapFile(String systemName) {
@@ -149,10 +149,7 @@ public class Catalog {
 		String iso2 = null;
 
 		
-		String systemName = fileName;
-		if(fileName.endsWith(Constants.PMETRO_EXTENSION)){
-			systemName += Constants.AMETRO_EXTENSION;
-		}
+		String systemName = getSystemName(fileName);
 
 		// try to suggest map city/country from directories
 		CatalogMapSuggestion suggestion = CatalogMapSuggestion.create(ApplicationEx.getInstance(), file, null, null);
@@ -192,6 +189,17 @@ public class Catalog {
 		return map;
 	}
 	
+	// pMetro maps and binary maps are listed with system name of .ametro file
+	public static String getSystemName(String fileName) {
+		if(fileName.endsWith(Constants.PMETRO_EXTENSION)){
+			return fileName + Constants.AMETRO_EXTENSION;
+		}
+		if(fileName.endsWith(Constants.AMETRO_BINARY_EXTENSION)){
+			return fileName.substring(0, fileName.length() - Constants.AMETRO_BINARY_EXTENSION.length()) + Constants.AMETRO_EXTENSION;
+		}
+		return fileName;
+	}
+
 	public static CatalogMap extractCatalogMap(Catalog catalog, File file, final String fileName, Model model) {
 		final String[] locales = model.locales;
 		final int len = locales.length;
@@ -220,10 +228,7 @@ public class Catalog {
 			index++;
 		}
 		
-		String systemName = fileName;
-		if(fileName.endsWith(Constants.PMETRO_EXTENSION)){
-			systemName += Constants.AMETRO_EXTENSION;
-		}
+		String systemName = getSystemName(fileName);
 	
 		CatalogMap map = new CatalogMap(
 				 catalog,
@@ -45,6 +45,7 @@ import org.ametro.catalog.storage.tasks.LoadBaseCatalogTask;
 import org.ametro.catalog.storage.tasks.LoadFileCatalogTask;
 import org.ametro.catalog.storage.tasks.LoadWebCatalogTask;
 import org.ametro.catalog.storage.tasks.UpdateMapTask;
+import org.ametro.model.storage.ModelBuilder;
 import org.ametro.service.CatalogTaskQueueService;
 import org.ametro.ui.MapDetailsActivity;
 import org.ametro.ui.TaskFailedList;
@@ -262,7 +263,7 @@ public class CatalogStorage implements Runnable, ICatalogStorageTaskListener { /
 				if(map!=null ){
 					try {
 						Log.w(Constants.LOG_TAG_MAIN, "Delete local map " + map.getAbsoluteUrl());
-						if(FileUtil.delete(map.getAbsoluteUrl())){
+						if(ModelBuilder.deleteModel(map.getAbsoluteUrl())){
 							mCatalogs[LOCAL].deleteMap(map);
 							mCatalogs[LOCAL].setTimestamp(System.currentTimeMillis());
 							requestCatalogSave(LOCAL);
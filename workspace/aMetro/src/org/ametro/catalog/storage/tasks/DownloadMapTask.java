@@ -112,8 +112,9 @@ public class DownloadMapTask extends UpdateMapTask implements IDownloadListener
 
 	public void onDone(Object context, File file) throws IOException {
 		final File onlineFile = new File(GlobalSettings.getTemporaryDownloadMapFile(mSystemName));
-		final File localFile = new File(GlobalSettings.getLocalCatalogMapFileName(mSystemName));
-		FileUtil.delete(localFile);
+		final File localFile = new File(GlobalSettings.getLocalCatalogMapFileName(mSystemName, false));
+		ModelBuilder.deleteModel(localFile.getAbsolutePath());
+		ModelBuilder.deleteModel(GlobalSettings.getLocalCatalogMapFileName(mSystemName, true));
 		FileUtil.move(onlineFile, localFile);
 		Model model = ModelBuilder.loadModelDescription(localFile.getAbsolutePath());
 		CatalogMap localMap = Catalog.extractCatalogMap(mLocalCatalog, localFile, localFile.getName().toLowerCase(), model);
@@ -58,7 +58,8 @@ public class ImportMapTask extends UpdateMapTask {
 		}
 		final String absoluteFilePath = map.getAbsoluteUrl();
 		final File importFile = new File(GlobalSettings.getTemporaryImportMapFile(mSystemName));
-		final File localFile = new File(GlobalSettings.getLocalCatalogMapFileName(mSystemName));
+		// imported map is stored in binary format, it is loaded without parsing
+		final File localFile = new File(GlobalSettings.getLocalCatalogMapFileName(mSystemName, true));
 		
 		update(0,100,mSystemName);
 		Model model = ModelBuilder.loadModel(absoluteFilePath);
@@ -67,7 +68,8 @@ public class ImportMapTask extends UpdateMapTask {
 		FileUtil.touchDirectory(Constants.TEMP_CATALOG_PATH);
 		FileUtil.touchDirectory(Constants.LOCAL_CATALOG_PATH);
 		ModelBuilder.saveModel(importFile.getAbsolutePath(), model);
-		FileUtil.delete(localFile);
+		ModelBuilder.deleteModel(localFile.getAbsolutePath());
+		ModelBuilder.deleteModel(GlobalSettings.getLocalCatalogMapFileName(mSystemName, false));
 		FileUtil.move(importFile, localFile);
 		CatalogMap localMap = Catalog.extractCatalogMap(localCatalog, localFile, localFile.getName().toLowerCase(), model);
 		localCatalog.appendMap(localMap);
@@ -74,7 +74,7 @@ public class LoadFileCatalogTask extends LoadBaseCatalogTask {
 				final String fileName = file.getName().toLowerCase();
 				update(progress, total, fileName);
 				try{
-					if( fileName.endsWith(Constants.PMETRO_EXTENSION)|| fileName.endsWith(Constants.AMETRO_EXTENSION)){
+					if( fileName.endsWith(Constants.PMETRO_EXTENSION)|| fileName.endsWith(Constants.AMETRO_EXTENSION) || fileName.endsWith(Constants.AMETRO_BINARY_EXTENSION)){
 						Model model = ModelBuilder.loadModelDescription(file.getAbsolutePath());
 						if(model!=null){
 					    	maps.add(Catalog.extractCatalogMap(catalog,file, fileName, model));
@@ -21,9 +21,12 @@
 package org.ametro.model;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Locale;
 
 import org.ametro.model.ext.ModelLocation;
+import org.ametro.model.route.RouteGraph;
+import org.ametro.model.route.RouteMatrix;
 import org.ametro.model.storage.ModelBuilder;
 import org.ametro.util.StringUtil;
 
@@ -59,6 +62,7 @@ public class Model {
 	public TransportTransfer[] transfers;
 	public TransportStation[] stations;
 	public TransportStationInfo[] stationInfos;
+	public RouteMatrix routeMatrix; // all pairs delays, loaded on demand, see getRouteMatrix()
 
 	public String[] viewSystemNames;
 	public int[] viewNames;
@@ -73,6 +77,9 @@ public class Model {
 
 	/****************** VOLATILE FIELDS ********************/
 	public String fileSystemName;
+	public HashMap<String, RouteGraph> routeGraphs; // cached routing graphs, see RouteGraph.getGraph()
+	public boolean routeMatrixRequested;
+	private SchemeViewCache viewCache; // decoded views, see getViewCache()
 	/********************** GETTERS ************************/
 	
 	public String getCountryName(){
@@ -170,6 +177,7 @@ public class Model {
 		}
 		localeCurrent = newLocale;
 		texts = newTexts;
+		RouteGraph.invalidate(this);
 	}
 
 	public void setLocaleTexts(Locale locale, String[] texts){
@@ -233,10 +241,26 @@ public class Model {
 	}
 	
 	
+	public synchronized RouteMatrix getRouteMatrix() {
+		if(routeMatrix==null && !routeMatrixRequested){
+			routeMatrixRequested = true;
+			routeMatrix = ModelBuilder.loadRouteMatrix(fileSystemName, this);
+		}
+		return routeMatrix;
+	}
+
+	public synchronized SchemeViewCache getViewCache() {
+		if(viewCache==null){
+			viewCache = new SchemeViewCache(this);
+		}
+		return viewCache;
+	}
+
+	// returns decoded view or null, least recently used views are dropped, see loadView()
 	public SchemeView getView(String name) {
 		final Integer id = getViewId(name);
 		if(id!=null){
-			return views[id];
+			return getViewCache().getView(id);
 		}
 		return null;
 	}
@@ -244,11 +268,7 @@ public class Model {
 	public SchemeView loadView(String name) {
 		final Integer id = getViewId(name);
 		if(id!=null){
-			SchemeView v = views[id];
-			if(v==null){
-				v = ModelBuilder.loadModelView(fileSystemName, this, name);
-			}
-			return v;
+			return getViewCache().loadView(id);
 		}
 		return null;
 	}
@@ -0,0 +1,252 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ametro.model;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.ametro.model.ext.ModelSpline;
+import org.ametro.model.storage.ModelBuilder;
+
+/**
+ * Decoded scheme views of the model in least recently used order.
+ * Views are weighted by estimated size of their stations, segments and splines,
+ * least recently used views are dropped from model when weight goes over the limit
+ * and loaded again on next request. Limit is soft: current view is never dropped.
+ * Most likely next view is loaded in background while it fits into the limit,
+ * request of that view waits for it. Views are published to model by the cache only.
+ * Views are never dropped from models which storage cannot load views one by one.
+ */
+public class SchemeViewCache {
+
+	private static final long MAX_BYTES = 2 * 1024 * 1024;
+
+	// estimated heap size of decoded objects
+	private static final int LINE_BYTES = 64;
+	private static final int STATION_BYTES = 112;
+	private static final int SEGMENT_BYTES = 56;
+	private static final int SPLINE_POINT_BYTES = 24;
+	private static final int TRANSFER_BYTES = 40;
+
+	private static final String PREFETCH_THREAD_NAME = "SchemeViewPrefetch";
+
+	private static ExecutorService mPrefetchExecutor;
+
+	private final Model mModel;
+	private final boolean mIsReloadable;
+
+	private final LinkedHashMap<Integer, Long> mViews = new LinkedHashMap<Integer, Long>(8, 0.75f, true); // view id to weight
+	private long mBytes;
+
+	private int mCurrentId = -1;
+	private int mPreviousId = -1;
+	private Future<?> mPrefetch;
+	private int mPrefetchId = -1; // view decoded by prefetch now
+
+	private int mHits;
+	private int mMisses;
+	private int mPrefetchHits;
+	private final HashSet<Integer> mPrefetchedIds = new HashSet<Integer>(); // prefetched views not requested yet
+
+	public SchemeViewCache(Model model) {
+		mModel = model;
+		mIsReloadable = ModelBuilder.isViewLoadingSupported(model.fileSystemName);
+	}
+
+	/** returns view if it is decoded, view becomes most recently used **/
+	public synchronized SchemeView getView(int id) {
+		final SchemeView view = mModel.views[id];
+		if (view != null) {
+			put(id, view);
+		}
+		return view;
+	}
+
+	/** returns view, view is decoded if it was never loaded or was dropped, view becomes current one **/
+	public synchronized SchemeView loadView(int id) {
+		waitPrefetch(id);
+		SchemeView view = mModel.views[id];
+		if (view == null) {
+			mMisses++;
+			view = ModelBuilder.loadModelView(mModel.fileSystemName, mModel, mModel.viewSystemNames[id]);
+			if (view != null) {
+				mModel.views[id] = view;
+			}
+		} else {
+			mHits++;
+			if (mPrefetchedIds.contains(id)) {
+				mPrefetchHits++;
+			}
+		}
+		mPrefetchedIds.remove(id);
+		if (view != null) {
+			if (id != mCurrentId) {
+				mPreviousId = mCurrentId;
+				mCurrentId = id;
+			}
+			put(id, view);
+			prefetch(getPredictedId());
+		}
+		return view;
+	}
+
+	public synchronized long getBytes() {
+		return mBytes;
+	}
+
+	public synchronized int getHits() {
+		return mHits;
+	}
+
+	public synchronized int getMisses() {
+		return mMisses;
+	}
+
+	public synchronized int getPrefetchHits() {
+		return mPrefetchHits;
+	}
+
+	// view being prefetched is not decoded twice, lock is released while waiting
+	private void waitPrefetch(int id) {
+		while (mPrefetchId == id) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return; // view is decoded by caller then, prefetch drops its copy
+			}
+		}
+	}
+
+	private void put(int id, SchemeView view) {
+		if (mViews.get(id) == null) {
+			final long bytes = getBytes(view);
+			mViews.put(id, bytes);
+			mBytes += bytes;
+		}
+		trim(id);
+	}
+
+	// drops least recently used views except current and requested ones
+	private void trim(int keepId) {
+		if (!mIsReloadable) {
+			return;
+		}
+		final Iterator<Map.Entry<Integer, Long>> views = mViews.entrySet().iterator();
+		while (mBytes > MAX_BYTES && views.hasNext()) {
+			final Map.Entry<Integer, Long> entry = views.next();
+			final int id = entry.getKey();
+			if (id != keepId && id != mCurrentId) {
+				views.remove();
+				mBytes -= entry.getValue();
+				mPrefetchedIds.remove(id);
+				mModel.views[id] = null;
+			}
+		}
+	}
+
+	// user goes back to previous view most often, otherwise to next main view of another transport
+	private int getPredictedId() {
+		final SchemeView[] views = mModel.views;
+		if (mPreviousId != -1) {
+			return views[mPreviousId] == null ? mPreviousId : -1;
+		}
+		final int len = views.length;
+		for (int i = 1; i < len; i++) {
+			final int id = (mCurrentId + i) % len;
+			if (mModel.viewIsMain[id]) {
+				return views[id] == null ? id : -1;
+			}
+		}
+		return -1;
+	}
+
+	private void prefetch(final int id) {
+		if (id == -1 || !mIsReloadable || (mPrefetch != null && !mPrefetch.isDone())) {
+			return;
+		}
+		mPrefetch = getPrefetchExecutor().submit(new Runnable() {
+			public void run() {
+				synchronized (SchemeViewCache.this) {
+					if (mModel.views[id] != null) {
+						return;
+					}
+					mPrefetchId = id;
+				}
+				// decoded without lock, so requests of loaded views are not blocked
+				SchemeView view = null;
+				try {
+					view = ModelBuilder.loadModelView(mModel.fileSystemName, mModel, mModel.viewSystemNames[id]);
+				} finally {
+					synchronized (SchemeViewCache.this) {
+						mPrefetchId = -1;
+						SchemeViewCache.this.notifyAll();
+						// view is published only while it fits, prefetch never drops views user has opened
+						if (view != null && mModel.views[id] == null) {
+							final long bytes = getBytes(view);
+							if (mBytes + bytes <= MAX_BYTES) {
+								mModel.views[id] = view;
+								mViews.put(id, bytes);
+								mBytes += bytes;
+								mPrefetchedIds.add(id);
+							}
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private static long getBytes(SchemeView view) {
+		long bytes = (long) view.lines.length * LINE_BYTES
+				+ (long) view.stations.length * STATION_BYTES
+				+ (long) view.segments.length * SEGMENT_BYTES
+				+ (long) view.transfers.length * TRANSFER_BYTES;
+		for (SegmentView segment : view.segments) {
+			final ModelSpline spline = segment.spline;
+			if (spline != null && spline.points != null) {
+				bytes += spline.points.length * SPLINE_POINT_BYTES;
+			}
+		}
+		return bytes;
+	}
+
+	private static synchronized ExecutorService getPrefetchExecutor() {
+		if (mPrefetchExecutor == null) {
+			mPrefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, PREFETCH_THREAD_NAME);
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		return mPrefetchExecutor;
+	}
+
+}
@@ -0,0 +1,330 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ametro.model.route;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+import org.ametro.util.DijkstraHeap;
+
+/**
+ * K shortest loopless paths (Yen's algorithm).
+ * Shortest path tree to the target is built once on the reversed graph and
+ * serves as exact A* heuristic for every spur search, so spur searches settle
+ * only the stations around the removed edges.
+ */
+public class AlternativeRouteSearch {
+
+	private final RouteGraph mGraph;
+	private final DijkstraHeap.CompactGraph mG;
+	private final int mFrom;
+	private final int mTo;
+
+	private final long[] mDistanceToTarget;
+	private final int[] mTargetTree; // next edge on the shortest path to target
+
+	private final long[] mDistance;
+	private final long[] mEstimate;
+	private final int[] mPredEdge;
+	private final int[] mVisitStamp;
+	private final int[] mNodeBanStamp;
+	private final int[] mEdgeBanStamp;
+	private int mStamp;
+
+	private final DijkstraHeap.IndexedHeap mHeap;
+
+	private static class Path implements Comparable<Path> {
+		final int[] nodes;
+		final int[] edges;
+		final long length;
+
+		Path(int[] nodes, int[] edges, long length) {
+			this.nodes = nodes;
+			this.edges = edges;
+			this.length = length;
+		}
+
+		public int compareTo(Path another) {
+			return length < another.length ? -1 : (length > another.length ? 1 : 0);
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Path && Arrays.equals(edges, ((Path) o).edges);
+		}
+
+		public int hashCode() {
+			return Arrays.hashCode(edges);
+		}
+	}
+
+	// returns up to count routes ordered by length, or null if target is unreachable
+	// search stops when timeBudget (in milliseconds) is exhausted, the shortest route is always returned
+	public static TransportRoute[] findRoutes(RouteGraph graph, int from, int to, int count, long timeBudget) {
+		if (from == to || count <= 0) {
+			return null;
+		}
+		final long deadline = System.currentTimeMillis() + timeBudget;
+		AlternativeRouteSearch search = new AlternativeRouteSearch(graph, from, to);
+		ArrayList<Path> paths = search.findPaths(count, deadline);
+		if (paths.size() == 0) {
+			return null;
+		}
+		final TransportRoute[] routes = new TransportRoute[paths.size()];
+		for (int i = 0; i < routes.length; i++) {
+			routes[i] = search.createRoute(paths.get(i));
+		}
+		return routes;
+	}
+
+	private AlternativeRouteSearch(RouteGraph graph, int from, int to) {
+		final int n = graph.count;
+		final int m = graph.graph.getEdgeCount();
+		mGraph = graph;
+		mG = graph.graph;
+		mFrom = from;
+		mTo = to;
+		mDistanceToTarget = new long[n];
+		mTargetTree = new int[n];
+		mDistance = new long[n];
+		mEstimate = new long[n];
+		mPredEdge = new int[n];
+		mVisitStamp = new int[n];
+		mNodeBanStamp = new int[n];
+		mEdgeBanStamp = new int[m];
+		mHeap = new DijkstraHeap.IndexedHeap(n);
+		buildTargetTree();
+	}
+
+	private void buildTargetTree() {
+		final DijkstraHeap.CompactGraph r = mGraph.getReverseGraph();
+		final int[] pred = new int[r.n];
+		DijkstraHeap.dijkstra(r, mTo, mDistanceToTarget, pred);
+		final int[] tree = mTargetTree;
+		for (int v = 0; v < r.n; v++) {
+			// pred[v] is the next station toward target, find forward edge v -> pred[v]
+			tree[v] = pred[v] != -1 ? mG.findEdge(v, pred[v]) : -1;
+		}
+	}
+
+	private ArrayList<Path> findPaths(int count, long deadline) {
+		final ArrayList<Path> result = new ArrayList<Path>();
+		final Path shortest = createTreePath(mFrom);
+		if (shortest == null) {
+			return result;
+		}
+		result.add(shortest);
+
+		final PriorityQueue<Path> candidates = new PriorityQueue<Path>();
+		final HashSet<Path> known = new HashSet<Path>();
+		known.add(shortest);
+
+		while (result.size() < count) {
+			final Path last = result.get(result.size() - 1);
+			final int spurs = last.edges.length;
+			long rootLength = 0;
+			for (int i = 0; i < spurs; i++) {
+				if (System.currentTimeMillis() > deadline) {
+					return result;
+				}
+				mStamp++;
+				// remove next edges of known paths that share the same root
+				for (Path p : result) {
+					if (p.edges.length > i && isSameRoot(p, last, i)) {
+						mEdgeBanStamp[p.edges[i]] = mStamp;
+					}
+				}
+				// remove root stations to keep path loopless
+				for (int j = 0; j < i; j++) {
+					mNodeBanStamp[last.nodes[j]] = mStamp;
+				}
+				final Path spur = findSpurPath(last.nodes[i]);
+				if (spur != null) {
+					final Path candidate = join(last, i, rootLength, spur);
+					if (known.add(candidate)) {
+						candidates.add(candidate);
+					}
+				}
+				rootLength += mG.costs[last.edges[i]];
+			}
+			if (candidates.isEmpty()) {
+				break;
+			}
+			result.add(candidates.poll());
+		}
+		return result;
+	}
+
+	private static boolean isSameRoot(Path a, Path b, int length) {
+		for (int j = 0; j < length; j++) {
+			if (a.edges[j] != b.edges[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Path join(Path root, int spurIndex, long rootLength, Path spur) {
+		final int[] nodes = new int[spurIndex + spur.nodes.length];
+		final int[] edges = new int[spurIndex + spur.edges.length];
+		System.arraycopy(root.nodes, 0, nodes, 0, spurIndex);
+		System.arraycopy(spur.nodes, 0, nodes, spurIndex, spur.nodes.length);
+		System.arraycopy(root.edges, 0, edges, 0, spurIndex);
+		System.arraycopy(spur.edges, 0, edges, spurIndex, spur.edges.length);
+		return new Path(nodes, edges, rootLength + spur.length);
+	}
+
+	// follows shortest path tree from station to target
+	private Path createTreePath(int from) {
+		if (from != mTo && mTargetTree[from] == -1) {
+			return null;
+		}
+		int len = 0;
+		for (int v = from; v != mTo; v = mG.targets[mTargetTree[v]]) {
+			len++;
+		}
+		final int[] nodes = new int[len + 1];
+		final int[] edges = new int[len];
+		int v = from;
+		for (int i = 0; i < len; i++) {
+			nodes[i] = v;
+			edges[i] = mTargetTree[v];
+			v = mG.targets[edges[i]];
+		}
+		nodes[len] = mTo;
+		return new Path(nodes, edges, mDistanceToTarget[from]);
+	}
+
+	private boolean isTreePathAllowed(int from) {
+		for (int v = from; v != mTo; ) {
+			final int edge = mTargetTree[v];
+			if (mEdgeBanStamp[edge] == mStamp) {
+				return false;
+			}
+			v = mG.targets[edge];
+			if (mNodeBanStamp[v] == mStamp) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// A* search with distance to target as heuristic, honours banned stations and edges
+	private Path findSpurPath(int from) {
+		if (mTargetTree[from] != -1 && isTreePathAllowed(from)) {
+			return createTreePath(from);
+		}
+		final int stamp = mStamp;
+		final int[] offsets = mG.offsets;
+		final int[] targets = mG.targets;
+		final int[] costs = mG.costs;
+		final long[] h = mDistanceToTarget;
+		final long[] dist = mDistance;
+		final long[] estimate = mEstimate;
+		final int[] predEdge = mPredEdge;
+		final int[] visit = mVisitStamp;
+		final DijkstraHeap.IndexedHeap q = mHeap;
+
+		visit[from] = stamp;
+		dist[from] = 0;
+		estimate[from] = h[from];
+		predEdge[from] = -1;
+		q.reset(estimate);
+		q.update(from);
+		boolean found = false;
+		while (!q.isEmpty()) {
+			final int v = q.poll();
+			if (v == mTo) {
+				found = true;
+				break;
+			}
+			final long vdist = dist[v];
+			final int end = offsets[v + 1];
+			for (int i = offsets[v]; i < end; i++) {
+				final int t = targets[i];
+				if (mEdgeBanStamp[i] == stamp || mNodeBanStamp[t] == stamp || h[t] >= DijkstraHeap.INF) {
+					continue;
+				}
+				final long ndist = vdist + costs[i];
+				if (visit[t] != stamp || dist[t] > ndist) {
+					visit[t] = stamp;
+					dist[t] = ndist;
+					estimate[t] = ndist + h[t];
+					predEdge[t] = i;
+					q.update(t);
+				}
+			}
+		}
+		q.reset(null);
+		if (!found) {
+			return null;
+		}
+		int len = 0;
+		for (int v = mTo; v != from; v = findSource(predEdge[v])) {
+			len++;
+		}
+		final int[] nodes = new int[len + 1];
+		final int[] edges = new int[len];
+		int v = mTo;
+		for (int i = len; i > 0; i--) {
+			nodes[i] = v;
+			edges[i - 1] = predEdge[v];
+			v = findSource(predEdge[v]);
+		}
+		nodes[0] = from;
+		return new Path(nodes, edges, dist[mTo]);
+	}
+
+	private int findSource(int edge) {
+		// binary search of the row that owns the edge
+		final int[] offsets = mG.offsets;
+		int lo = 0;
+		int hi = mG.n - 1;
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (offsets[mid] <= edge) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+	private TransportRoute createRoute(Path path) {
+		final ArrayList<Integer> stations = new ArrayList<Integer>();
+		final ArrayList<Long> delays = new ArrayList<Long>();
+		final ArrayList<Integer> edges = new ArrayList<Integer>();
+		long delay = path.length;
+		for (int i = path.nodes.length - 1; i >= 0; i--) {
+			stations.add(path.nodes[i]);
+			delays.add(delay);
+			if (i > 0) {
+				final int edge = path.edges[i - 1];
+				edges.add(edge);
+				delay -= mG.costs[edge];
+			}
+		}
+		return RouteBuilder.createRoute(mGraph, stations, delays, edges);
+	}
+
+}
@@ -0,0 +1,215 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ametro.model.route;
+
+import org.ametro.util.DijkstraHeap;
+
+/**
+ * Bidirectional A* search between two stations.
+ * Both searches run on edge costs reduced by the average potential
+ * p(v) = h(v,to) - h(from,v), where h is the travel time from all pairs matrix
+ * of the model when matrix is exact, otherwise the geographic lower bound of travel time.
+ * Stations the matrix shows unreachable from start or to end are never visited.
+ * Costs are doubled to keep reduced costs integer and non negative.
+ * Without both of them potential is zero and search is a bidirectional Dijkstra.
+ */
+/*package*/ class BidirectionalRouteSearch {
+
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+	private static final long UNREACHABLE = Long.MIN_VALUE;
+
+	private final DijkstraHeap.CompactGraph mForward;
+	private final DijkstraHeap.CompactGraph mReverse;
+	private final GeoHeuristic mHeuristic;
+	private final RouteMatrix mMatrix;
+
+	private final long[] mDistF;
+	private final long[] mDistR;
+	private final int[] mPredF; // edge of forward graph
+	private final int[] mPredR; // edge of reverse graph
+	private final int[] mStampF;
+	private final int[] mStampR;
+	private final long[] mPotential;
+	private final int[] mPotentialStamp;
+	private final DijkstraHeap.IndexedHeap mHeapF;
+	private final DijkstraHeap.IndexedHeap mHeapR;
+	private int mStamp;
+
+	private int mFrom;
+	private int mTo;
+
+	/*package*/ BidirectionalRouteSearch(RouteGraph graph) {
+		final int n = graph.count;
+		mForward = graph.graph;
+		mReverse = graph.getReverseGraph();
+		final RouteMatrix matrix = graph.getRouteMatrix();
+		mMatrix = matrix != null && matrix.isExact() ? matrix : null;
+		mHeuristic = mMatrix == null ? graph.getGeoHeuristic() : null;
+		mDistF = new long[n];
+		mDistR = new long[n];
+		mPredF = new int[n];
+		mPredR = new int[n];
+		mStampF = new int[n];
+		mStampR = new int[n];
+		mPotential = new long[n];
+		mPotentialStamp = new int[n];
+		mHeapF = new DijkstraHeap.IndexedHeap(n);
+		mHeapR = new DijkstraHeap.IndexedHeap(n);
+	}
+
+	// returns UNREACHABLE for stations which cannot be on path between start and end
+	private long getPotential(int v) {
+		if (mHeuristic == null && mMatrix == null) {
+			return 0;
+		}
+		if (mPotentialStamp[v] != mStamp) {
+			mPotentialStamp[v] = mStamp;
+			if (mMatrix != null) {
+				final long toEnd = mMatrix.getDelay(v, mTo);
+				final long fromStart = mMatrix.getDelay(mFrom, v);
+				mPotential[v] = toEnd == -1 || fromStart == -1 ? UNREACHABLE : toEnd - fromStart;
+			} else {
+				mPotential[v] = mHeuristic.estimate(v, mTo) - mHeuristic.estimate(mFrom, v);
+			}
+		}
+		return mPotential[v];
+	}
+
+	// returns shortest path between stations or null if there is no path
+	/*package*/ RouteGraph.Leg findLeg(int from, int to) {
+		mStamp++;
+		mFrom = from;
+		mTo = to;
+		final int stamp = mStamp;
+		final long[] distF = mDistF;
+		final long[] distR = mDistR;
+		final int[] stampF = mStampF;
+		final int[] stampR = mStampR;
+		final DijkstraHeap.IndexedHeap heapF = mHeapF;
+		final DijkstraHeap.IndexedHeap heapR = mHeapR;
+
+		stampF[from] = stamp;
+		distF[from] = 0;
+		mPredF[from] = -1;
+		stampR[to] = stamp;
+		distR[to] = 0;
+		mPredR[to] = -1;
+		heapF.reset(distF);
+		heapR.reset(distR);
+		heapF.update(from);
+		heapR.update(to);
+
+		long best = DijkstraHeap.INF;
+		int meeting = from == to ? from : UNKNOWN;
+		if (meeting != UNKNOWN) {
+			best = 0;
+		}
+		while (!heapF.isEmpty() && !heapR.isEmpty()) {
+			if (distF[heapF.peek()] + distR[heapR.peek()] >= best) {
+				break;
+			}
+			final boolean forward = distF[heapF.peek()] <= distR[heapR.peek()];
+			final int v = forward ? heapF.poll() : heapR.poll();
+			final DijkstraHeap.CompactGraph g = forward ? mForward : mReverse;
+			final long[] dist = forward ? distF : distR;
+			final long[] otherDist = forward ? distR : distF;
+			final int[] visit = forward ? stampF : stampR;
+			final int[] otherVisit = forward ? stampR : stampF;
+			final int[] pred = forward ? mPredF : mPredR;
+			final DijkstraHeap.IndexedHeap heap = forward ? heapF : heapR;
+			final long pv = getPotential(v);
+			final long vdist = dist[v];
+			final int end = g.offsets[v + 1];
+			for (int i = g.offsets[v]; i < end; i++) {
+				final int t = g.targets[i];
+				final long pt = getPotential(t);
+				if (pt == UNREACHABLE) {
+					continue;
+				}
+				// forward edge v->t costs 2c - p(v) + p(t), reverse edge t->v costs 2c + p(v) - p(t)
+				final long cost = 2L * g.costs[i] + (forward ? pt - pv : pv - pt);
+				final long ndist = vdist + cost;
+				if (visit[t] != stamp || dist[t] > ndist) {
+					visit[t] = stamp;
+					dist[t] = ndist;
+					pred[t] = i;
+					heap.update(t);
+				}
+				if (otherVisit[t] == stamp && dist[t] + otherDist[t] < best) {
+					best = dist[t] + otherDist[t];
+					meeting = t;
+				}
+			}
+		}
+		heapF.reset(null);
+		heapR.reset(null);
+		if (meeting == UNKNOWN) {
+			return null;
+		}
+		return createLeg(from, to, meeting);
+	}
+
+	private RouteGraph.Leg createLeg(int from, int to, int meeting) {
+		final DijkstraHeap.CompactGraph g = mForward;
+		int len = 0;
+		for (int v = meeting; v != from; v = mReverse.targets[findReverseEdge(mPredF[v])]) {
+			len++;
+		}
+		final int head = len;
+		for (int v = meeting; v != to; v = mForward.targets[mReverse.ids[mPredR[v]]]) {
+			len++;
+		}
+		final int[] stations = new int[len + 1];
+		final int[] edges = new int[len];
+		final long[] delays = new long[len + 1];
+		int v = meeting;
+		for (int i = head; i > 0; i--) {
+			stations[i] = v;
+			edges[i - 1] = mPredF[v];
+			v = mReverse.targets[findReverseEdge(mPredF[v])];
+		}
+		stations[0] = from;
+		v = meeting;
+		for (int i = head; i < len; i++) {
+			final int edge = mReverse.ids[mPredR[v]];
+			edges[i] = edge;
+			v = g.targets[edge];
+			stations[i + 1] = v;
+		}
+		for (int i = 0; i < len; i++) {
+			delays[i + 1] = delays[i] + g.costs[edges[i]];
+		}
+		return new RouteGraph.Leg(stations, edges, delays);
+	}
+
+	// forward edge s->t is found in reversed graph as t->s, returns its index
+	private int findReverseEdge(int forwardEdge) {
+		final int t = mForward.targets[forwardEdge];
+		final int end = mReverse.offsets[t + 1];
+		for (int i = mReverse.offsets[t]; i < end; i++) {
+			if (mReverse.ids[i] == forwardEdge) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,474 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ametro.model.route;
+
+import java.util.Arrays;
+
+import org.ametro.util.DijkstraHeap;
+
+/**
+ * Contraction hierarchy of the routing graph.
+ * Stations are contracted one by one in the order of edge difference,
+ * shortcuts are added where no witness path exists. Query is a bidirectional
+ * Dijkstra that follows only edges to higher ranked stations on both sides,
+ * shortcuts of the found path are unpacked into edges of the routing graph.
+ */
+/*package*/ class ContractionHierarchy {
+
+	private static final int WITNESS_SETTLE_LIMIT = 64;
+
+	// all edges: original ones keep index of routing graph edge in mEdgeA and -1 in mEdgeB,
+	// shortcuts keep two halves in mEdgeA and mEdgeB
+	private int[] mEdgeFrom;
+	private int[] mEdgeTo;
+	private int[] mEdgeCost;
+	private int[] mEdgeA;
+	private int[] mEdgeB;
+	private int mEdgeCount;
+
+	private final int mCount;
+	private final DijkstraHeap.CompactGraph mRoutingGraph;
+
+	// upward search graphs, ids of edges are indexes in edge table
+	private DijkstraHeap.CompactGraph mUpForward;
+	private DijkstraHeap.CompactGraph mUpBackward;
+
+	/*package*/ ContractionHierarchy(DijkstraHeap.CompactGraph graph) {
+		mRoutingGraph = graph;
+		mCount = graph.n;
+		final int m = graph.getEdgeCount();
+		mEdgeFrom = new int[m * 2 + 16];
+		mEdgeTo = new int[m * 2 + 16];
+		mEdgeCost = new int[m * 2 + 16];
+		mEdgeA = new int[m * 2 + 16];
+		mEdgeB = new int[m * 2 + 16];
+		for (int v = 0; v < mCount; v++) {
+			final int end = graph.offsets[v + 1];
+			for (int i = graph.offsets[v]; i < end; i++) {
+				if (graph.targets[i] != v) {
+					addEdge(v, graph.targets[i], graph.costs[i], i, -1);
+				}
+			}
+		}
+		new Builder().contract();
+	}
+
+	private int addEdge(int from, int to, int cost, int a, int b) {
+		if (mEdgeCount == mEdgeFrom.length) {
+			final int size = mEdgeCount * 2;
+			mEdgeFrom = grow(mEdgeFrom, size);
+			mEdgeTo = grow(mEdgeTo, size);
+			mEdgeCost = grow(mEdgeCost, size);
+			mEdgeA = grow(mEdgeA, size);
+			mEdgeB = grow(mEdgeB, size);
+		}
+		final int id = mEdgeCount++;
+		mEdgeFrom[id] = from;
+		mEdgeTo[id] = to;
+		mEdgeCost[id] = cost;
+		mEdgeA[id] = a;
+		mEdgeB[id] = b;
+		return id;
+	}
+
+	// copies values into array of given size, Arrays.copyOf is missing before API 9
+	private static int[] grow(int[] values, int size) {
+		final int[] result = new int[size];
+		System.arraycopy(values, 0, result, 0, Math.min(values.length, size));
+		return result;
+	}
+
+	/*package*/ int getShortcutCount() {
+		return mEdgeCount - mRoutingGraph.getEdgeCount();
+	}
+
+	private class Builder {
+
+		private final int[][] mOut = new int[mCount][];
+		private final int[][] mIn = new int[mCount][];
+		private final int[] mOutSize = new int[mCount];
+		private final int[] mInSize = new int[mCount];
+		private final boolean[] mContracted = new boolean[mCount];
+		private final int[] mDeletedNeighbors = new int[mCount];
+
+		private final long[] mDist = new long[mCount];
+		private final int[] mStamp = new int[mCount];
+		private int mCurrentStamp;
+		private final DijkstraHeap.IndexedHeap mHeap = new DijkstraHeap.IndexedHeap(mCount);
+
+		private int[] mShortcutFrom = new int[16];
+		private int[] mShortcutTo = new int[16];
+		private int[] mShortcutCost = new int[16];
+		private int[] mShortcutA = new int[16];
+		private int[] mShortcutB = new int[16];
+		private int mShortcutCount;
+
+		Builder() {
+			for (int v = 0; v < mCount; v++) {
+				mOut[v] = new int[4];
+				mIn[v] = new int[4];
+			}
+			for (int e = 0; e < mEdgeCount; e++) {
+				link(e);
+			}
+		}
+
+		private void link(int e) {
+			final int from = mEdgeFrom[e];
+			final int to = mEdgeTo[e];
+			if (mOutSize[from] == mOut[from].length) {
+				mOut[from] = grow(mOut[from], mOutSize[from] * 2);
+			}
+			mOut[from][mOutSize[from]++] = e;
+			if (mInSize[to] == mIn[to].length) {
+				mIn[to] = grow(mIn[to], mInSize[to] * 2);
+			}
+			mIn[to][mInSize[to]++] = e;
+		}
+
+		void contract() {
+			final int n = mCount;
+			final long[] priority = new long[n];
+			final DijkstraHeap.IndexedHeap queue = new DijkstraHeap.IndexedHeap(n);
+			queue.reset(priority);
+			for (int v = 0; v < n; v++) {
+				priority[v] = computePriority(v);
+				queue.update(v);
+			}
+			final int[] rank = new int[n];
+			int order = 0;
+			while (!queue.isEmpty()) {
+				final int v = queue.poll();
+				// lazy update: priority of neighbours may be outdated
+				final long current = computePriority(v);
+				if (!queue.isEmpty() && current > priority[queue.peek()]) {
+					priority[v] = current;
+					queue.update(v);
+					continue;
+				}
+				findShortcuts(v);
+				for (int i = 0; i < mShortcutCount; i++) {
+					link(addEdge(mShortcutFrom[i], mShortcutTo[i], mShortcutCost[i], mShortcutA[i], mShortcutB[i]));
+				}
+				mContracted[v] = true;
+				rank[v] = order++;
+				for (int i = 0; i < mOutSize[v]; i++) {
+					mDeletedNeighbors[mEdgeTo[mOut[v][i]]]++;
+				}
+				for (int i = 0; i < mInSize[v]; i++) {
+					mDeletedNeighbors[mEdgeFrom[mIn[v][i]]]++;
+				}
+			}
+			buildSearchGraphs(rank);
+		}
+
+		private long computePriority(int v) {
+			findShortcuts(v);
+			int degree = 0;
+			for (int i = 0; i < mOutSize[v]; i++) {
+				if (!mContracted[mEdgeTo[mOut[v][i]]]) {
+					degree++;
+				}
+			}
+			for (int i = 0; i < mInSize[v]; i++) {
+				if (!mContracted[mEdgeFrom[mIn[v][i]]]) {
+					degree++;
+				}
+			}
+			// keep priority non negative for heap of longs
+			return (long) mShortcutCount - degree + mDeletedNeighbors[v] + mCount;
+		}
+
+		// fills shortcut buffer with shortcuts required to contract the station
+		private void findShortcuts(int v) {
+			mShortcutCount = 0;
+			final int[] in = mIn[v];
+			final int[] out = mOut[v];
+			for (int i = 0; i < mInSize[v]; i++) {
+				final int inEdge = in[i];
+				final int u = mEdgeFrom[inEdge];
+				if (mContracted[u]) {
+					continue;
+				}
+				long maxCost = 0;
+				for (int j = 0; j < mOutSize[v]; j++) {
+					final int w = mEdgeTo[out[j]];
+					if (w != u && !mContracted[w]) {
+						maxCost = Math.max(maxCost, (long) mEdgeCost[inEdge] + mEdgeCost[out[j]]);
+					}
+				}
+				if (maxCost == 0) {
+					continue;
+				}
+				witnessSearch(u, v, maxCost);
+				for (int j = 0; j < mOutSize[v]; j++) {
+					final int outEdge = out[j];
+					final int w = mEdgeTo[outEdge];
+					if (w == u || mContracted[w]) {
+						continue;
+					}
+					final long cost = (long) mEdgeCost[inEdge] + mEdgeCost[outEdge];
+					if (mStamp[w] == mCurrentStamp && mDist[w] <= cost) {
+						continue; // witness path exists
+					}
+					addShortcut(u, w, (int) cost, inEdge, outEdge);
+				}
+			}
+		}
+
+		private void addShortcut(int from, int to, int cost, int a, int b) {
+			// keep only the cheapest shortcut between the pair of stations
+			for (int i = 0; i < mShortcutCount; i++) {
+				if (mShortcutFrom[i] == from && mShortcutTo[i] == to) {
+					if (mShortcutCost[i] > cost) {
+						mShortcutCost[i] = cost;
+						mShortcutA[i] = a;
+						mShortcutB[i] = b;
+					}
+					return;
+				}
+			}
+			if (mShortcutCount == mShortcutFrom.length) {
+				final int size = mShortcutCount * 2;
+				mShortcutFrom = grow(mShortcutFrom, size);
+				mShortcutTo = grow(mShortcutTo, size);
+				mShortcutCost = grow(mShortcutCost, size);
+				mShortcutA = grow(mShortcutA, size);
+				mShortcutB = grow(mShortcutB, size);
+			}
+			final int i = mShortcutCount++;
+			mShortcutFrom[i] = from;
+			mShortcutTo[i] = to;
+			mShortcutCost[i] = cost;
+			mShortcutA[i] = a;
+			mShortcutB[i] = b;
+		}
+
+		// limited Dijkstra from u over uncontracted stations except v
+		private void witnessSearch(int u, int v, long maxCost) {
+			final int stamp = ++mCurrentStamp;
+			final long[] dist = mDist;
+			final DijkstraHeap.IndexedHeap heap = mHeap;
+			heap.reset(dist);
+			mStamp[u] = stamp;
+			dist[u] = 0;
+			heap.update(u);
+			int settled = 0;
+			while (!heap.isEmpty() && settled++ < WITNESS_SETTLE_LIMIT) {
+				final int x = heap.poll();
+				final long xdist = dist[x];
+				if (xdist > maxCost) {
+					break;
+				}
+				final int[] out = mOut[x];
+				for (int i = 0; i < mOutSize[x]; i++) {
+					final int e = out[i];
+					final int y = mEdgeTo[e];
+					if (y == v || mContracted[y]) {
+						continue;
+					}
+					final long ndist = xdist + mEdgeCost[e];
+					if (mStamp[y] != stamp || dist[y] > ndist) {
+						mStamp[y] = stamp;
+						dist[y] = ndist;
+						heap.update(y);
+					}
+				}
+			}
+			heap.reset(null);
+		}
+	}
+
+	private void buildSearchGraphs(int[] rank) {
+		final int n = mCount;
+		final int[] upOffsets = new int[n + 1];
+		final int[] downOffsets = new int[n + 1];
+		for (int e = 0; e < mEdgeCount; e++) {
+			final int from = mEdgeFrom[e];
+			final int to = mEdgeTo[e];
+			if (rank[to] > rank[from]) {
+				upOffsets[from + 1]++;
+			} else {
+				downOffsets[to + 1]++;
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			upOffsets[v + 1] += upOffsets[v];
+			downOffsets[v + 1] += downOffsets[v];
+		}
+		final int[] upTargets = new int[upOffsets[n]];
+		final int[] upCosts = new int[upOffsets[n]];
+		final int[] upIds = new int[upOffsets[n]];
+		final int[] downTargets = new int[downOffsets[n]];
+		final int[] downCosts = new int[downOffsets[n]];
+		final int[] downIds = new int[downOffsets[n]];
+		final int[] upNext = grow(upOffsets, n);
+		final int[] downNext = grow(downOffsets, n);
+		for (int e = 0; e < mEdgeCount; e++) {
+			final int from = mEdgeFrom[e];
+			final int to = mEdgeTo[e];
+			if (rank[to] > rank[from]) {
+				final int i = upNext[from]++;
+				upTargets[i] = to;
+				upCosts[i] = mEdgeCost[e];
+				upIds[i] = e;
+			} else {
+				// backward search walks edge from its target to its source
+				final int i = downNext[to]++;
+				downTargets[i] = from;
+				downCosts[i] = mEdgeCost[e];
+				downIds[i] = e;
+			}
+		}
+		mUpForward = new DijkstraHeap.CompactGraph(n, upOffsets, upTargets, upCosts, upIds);
+		mUpBackward = new DijkstraHeap.CompactGraph(n, downOffsets, downTargets, downCosts, downIds);
+	}
+
+	/*package*/ Query createQuery() {
+		return new Query();
+	}
+
+	/*package*/ class Query {
+
+		private final long[] mDistF = new long[mCount];
+		private final long[] mDistR = new long[mCount];
+		private final int[] mPredF = new int[mCount]; // edge table ids
+		private final int[] mPredR = new int[mCount];
+		private final int[] mStampF = new int[mCount];
+		private final int[] mStampR = new int[mCount];
+		private final DijkstraHeap.IndexedHeap mHeapF = new DijkstraHeap.IndexedHeap(mCount);
+		private final DijkstraHeap.IndexedHeap mHeapR = new DijkstraHeap.IndexedHeap(mCount);
+		private int mStamp;
+		private int[] mStack = new int[64];
+
+		/*package*/ RouteGraph.Leg findLeg(int from, int to) {
+			final int stamp = ++mStamp;
+			mStampF[from] = stamp;
+			mDistF[from] = 0;
+			mPredF[from] = -1;
+			mStampR[to] = stamp;
+			mDistR[to] = 0;
+			mPredR[to] = -1;
+			mHeapF.reset(mDistF);
+			mHeapR.reset(mDistR);
+			mHeapF.update(from);
+			mHeapR.update(to);
+			long best = from == to ? 0 : DijkstraHeap.INF;
+			int meeting = from == to ? from : -1;
+			while (!mHeapF.isEmpty() || !mHeapR.isEmpty()) {
+				final long topF = mHeapF.isEmpty() ? DijkstraHeap.INF : mDistF[mHeapF.peek()];
+				final long topR = mHeapR.isEmpty() ? DijkstraHeap.INF : mDistR[mHeapR.peek()];
+				if (Math.min(topF, topR) >= best) {
+					break;
+				}
+				final boolean forward = topF <= topR;
+				final DijkstraHeap.CompactGraph g = forward ? mUpForward : mUpBackward;
+				final DijkstraHeap.IndexedHeap heap = forward ? mHeapF : mHeapR;
+				final long[] dist = forward ? mDistF : mDistR;
+				final long[] otherDist = forward ? mDistR : mDistF;
+				final int[] visit = forward ? mStampF : mStampR;
+				final int[] otherVisit = forward ? mStampR : mStampF;
+				final int[] pred = forward ? mPredF : mPredR;
+				final int v = heap.poll();
+				if (otherVisit[v] == stamp && dist[v] + otherDist[v] < best) {
+					best = dist[v] + otherDist[v];
+					meeting = v;
+				}
+				final long vdist = dist[v];
+				final int end = g.offsets[v + 1];
+				for (int i = g.offsets[v]; i < end; i++) {
+					final int t = g.targets[i];
+					final long ndist = vdist + g.costs[i];
+					if (visit[t] != stamp || dist[t] > ndist) {
+						visit[t] = stamp;
+						dist[t] = ndist;
+						pred[t] = g.ids[i];
+						heap.update(t);
+					}
+				}
+			}
+			mHeapF.reset(null);
+			mHeapR.reset(null);
+			if (meeting == -1) {
+				return null;
+			}
+			return createLeg(from, to, meeting);
+		}
+
+		private RouteGraph.Leg createLeg(int from, int to, int meeting) {
+			// collect hierarchy edges from start to end
+			int count = 0;
+			for (int v = meeting; v != from; v = mEdgeFrom[mPredF[v]]) {
+				count++;
+			}
+			int total = count;
+			for (int v = meeting; v != to; v = mEdgeTo[mPredR[v]]) {
+				total++;
+			}
+			final int[] path = new int[total];
+			int i = count;
+			for (int v = meeting; v != from; v = mEdgeFrom[mPredF[v]]) {
+				path[--i] = mPredF[v];
+			}
+			i = count;
+			for (int v = meeting; v != to; v = mEdgeTo[mPredR[v]]) {
+				path[i++] = mPredR[v];
+			}
+			// unpack shortcuts into routing graph edges
+			int len = 0;
+			int[] edges = new int[total * 2 + 4];
+			for (int e : path) {
+				int top = 0;
+				mStack = push(mStack, top++, e);
+				while (top > 0) {
+					final int x = mStack[--top];
+					if (mEdgeB[x] == -1) {
+						if (len == edges.length) {
+							edges = grow(edges, len * 2);
+						}
+						edges[len++] = mEdgeA[x];
+					} else {
+						mStack = push(mStack, top++, mEdgeB[x]);
+						mStack = push(mStack, top++, mEdgeA[x]);
+					}
+				}
+			}
+			final DijkstraHeap.CompactGraph g = mRoutingGraph;
+			final int[] stations = new int[len + 1];
+			final long[] delays = new long[len + 1];
+			stations[0] = from;
+			for (int j = 0; j < len; j++) {
+				stations[j + 1] = g.targets[edges[j]];
+				delays[j + 1] = delays[j] + g.costs[edges[j]];
+			}
+			return new RouteGraph.Leg(stations, grow(edges, len), delays);
+		}
+
+		private int[] push(int[] stack, int index, int value) {
+			if (index == stack.length) {
+				stack = grow(stack, index * 2);
+			}
+			stack[index] = value;
+			return stack;
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ametro.model.route;
+
+import org.ametro.model.TransportStation;
+import org.ametro.model.ext.ModelLocation;
+import org.ametro.util.DijkstraHeap;
+
+/**
+ * Lower bound of travel time between stations: great-circle distance divided by
+ * the maximal speed over all edges of routing graph. The bound never exceeds
+ * the cost of any edge, so it is consistent and safe for A* search.
+ */
+/*package*/ class GeoHeuristic {
+
+	private static final double EARTH_RADIUS = 6371000; // meters
+
+	private final double[] mLatitudes; // radians
+	private final double[] mLongitudes; // radians
+	private final double[] mCosLatitudes;
+	private final double mSecondsPerMeter;
+
+	private GeoHeuristic(double[] latitudes, double[] longitudes, double maxSpeed) {
+		final int count = latitudes.length;
+		mLatitudes = latitudes;
+		mLongitudes = longitudes;
+		mCosLatitudes = new double[count];
+		for (int i = 0; i < count; i++) {
+			mCosLatitudes[i] = Math.cos(latitudes[i]);
+		}
+		mSecondsPerMeter = 1.0 / maxSpeed;
+	}
+
+	// returns lower bound of travel time in seconds
+	public long estimate(int from, int to) {
+		return (long) Math.floor(getDistance(from, to) * mSecondsPerMeter);
+	}
+
+	private double getDistance(int from, int to) {
+		final double dlat = mLatitudes[to] - mLatitudes[from];
+		final double dlon = mLongitudes[to] - mLongitudes[from];
+		final double sinLat = Math.sin(dlat / 2);
+		final double sinLon = Math.sin(dlon / 2);
+		final double a = sinLat * sinLat + mCosLatitudes[from] * mCosLatitudes[to] * sinLon * sinLon;
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	// returns null when some of connected stations have no location
+	/*package*/ static GeoHeuristic create(RouteGraph graph) {
+		final TransportStation[] stations = graph.model.stations;
+		final DijkstraHeap.CompactGraph g = graph.graph;
+		final int count = graph.count;
+		final double[] latitudes = new double[count];
+		final double[] longitudes = new double[count];
+		for (int v = 0; v < count; v++) {
+			final ModelLocation location = stations[v].location;
+			if (location != null) {
+				latitudes[v] = Math.toRadians(location.latitude);
+				longitudes[v] = Math.toRadians(location.longtitude);
+			} else if (g.offsets[v] != g.offsets[v + 1]) {
+				return null;
+			}
+		}
+		final GeoHeuristic heuristic = new GeoHeuristic(latitudes, longitudes, 1);
+		double maxSpeed = 0;
+		for (int v = 0; v < count; v++) {
+			final int end = g.offsets[v + 1];
+			for (int i = g.offsets[v]; i < end; i++) {
+				final int t = g.targets[i];
+				if (stations[t].location == null) {
+					return null;
+				}
+				maxSpeed = Math.max(maxSpeed, heuristic.getDistance(v, t) / g.costs[i]);
+			}
+		}
+		if (maxSpeed <= 0) {
+			return null;
+		}
+		// keep bound strictly below edge costs despite of rounding errors
+		return new GeoHeuristic(latitudes, longitudes, maxSpeed * 1.001);
+	}
+
+}
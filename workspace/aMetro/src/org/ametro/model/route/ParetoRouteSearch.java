@@ -0,0 +1,131 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ametro.model.route;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.ametro.util.DijkstraHeap;
+
+/**
+ * Multi-criteria search over (travel time, transfer count).
+ * Each station keeps at most MAX_TRANSFERS+1 labels, one per transfer count,
+ * the last label collects all paths with MAX_TRANSFERS or more transfers.
+ * Labels are settled in travel time order, so a label is dominated as soon
+ * as the station already has a settled label with fewer transfers.
+ */
+public class ParetoRouteSearch {
+
+	public static final int MAX_TRANSFERS = 6;
+
+	private static final int LABELS = MAX_TRANSFERS + 1;
+
+	// returns non-dominated routes ordered by length, or null if target is unreachable
+	public static TransportRoute[] findRoutes(RouteGraph graph, int from, int to) {
+		if (from == to) {
+			return null;
+		}
+		final DijkstraHeap.CompactGraph g = graph.graph;
+		final int[] offsets = g.offsets;
+		final int[] targets = g.targets;
+		final int[] costs = g.costs;
+		final int[] ids = g.ids;
+
+		final int states = graph.count * LABELS;
+		final long[] prio = new long[states];
+		final int[] pred = new int[states];
+		final int[] predEdge = new int[states];
+		final int[] minTransfers = new int[graph.count];
+		Arrays.fill(prio, DijkstraHeap.INF);
+		Arrays.fill(minTransfers, LABELS);
+
+		// labels of target station in the order of settling
+		final int[] front = new int[LABELS];
+		int frontSize = 0;
+
+		final DijkstraHeap.IndexedHeap q = DijkstraHeap.IndexedHeap.obtain(states);
+		final int start = from * LABELS;
+		prio[start] = 0;
+		pred[start] = -1;
+		predEdge[start] = -1;
+		q.reset(prio);
+		q.update(start);
+		while (!q.isEmpty()) {
+			final int state = q.poll();
+			final int v = state / LABELS;
+			final int k = state % LABELS;
+			if (k >= minTransfers[v] || k >= minTransfers[to]) {
+				continue; // dominated by settled label of this station or of target
+			}
+			minTransfers[v] = k;
+			if (v == to) {
+				front[frontSize++] = state;
+				if (k == 0) {
+					break;
+				}
+				continue;
+			}
+			final long vprio = prio[state];
+			final int end = offsets[v + 1];
+			for (int i = offsets[v]; i < end; i++) {
+				final int t = targets[i];
+				int nk = k;
+				if (RouteGraph.isTransferEdgeId(ids[i]) && nk < MAX_TRANSFERS) {
+					nk++;
+				}
+				if (nk >= minTransfers[t]) {
+					continue;
+				}
+				final int nstate = t * LABELS + nk;
+				final long nprio = vprio + costs[i];
+				if (prio[nstate] > nprio) {
+					prio[nstate] = nprio;
+					pred[nstate] = state;
+					predEdge[nstate] = i;
+					q.update(nstate);
+				}
+			}
+		}
+		q.reset(null);
+
+		if (frontSize == 0) {
+			return null;
+		}
+		final TransportRoute[] routes = new TransportRoute[frontSize];
+		for (int i = 0; i < frontSize; i++) {
+			ArrayList<Integer> stations = new ArrayList<Integer>();
+			ArrayList<Integer> edges = new ArrayList<Integer>();
+			ArrayList<Long> delays = new ArrayList<Long>();
+			int state = front[i];
+			while (state != -1) {
+				stations.add(state / LABELS);
+				delays.add(prio[state]);
+				if (predEdge[state] != -1) {
+					edges.add(predEdge[state]);
+				}
+				state = pred[state];
+			}
+			routes[i] = RouteBuilder.createRoute(graph, stations, delays, edges);
+		}
+		return routes;
+	}
+
+}
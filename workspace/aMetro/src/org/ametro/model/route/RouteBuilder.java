@@ -21,37 +21,145 @@
 package org.ametro.model.route;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.ametro.model.SchemeView;
 import org.ametro.model.Model;
-import org.ametro.model.TransportLine;
-import org.ametro.model.TransportSegment;
-import org.ametro.model.TransportStation;
-import org.ametro.model.TransportTransfer;
 import org.ametro.util.CollectionUtil;
-import org.ametro.util.DijkstraHeap;
 
 public class RouteBuilder {
 
 	public final static int ROUTE_OPTION_SHORTEST = 1;
 	public final static int ROUTE_OPTION_SIMPLEST = 2;
 	public final static int ROUTE_OPTION_ALL = ROUTE_OPTION_SHORTEST | ROUTE_OPTION_SIMPLEST;
+	public final static int ROUTE_OPTION_ALTERNATIVE = 4;
+
+	public final static int ALTERNATIVE_ROUTE_COUNT = 3;
+	public final static long ALTERNATIVE_ROUTE_TIME_BUDGET = 300; // milliseconds
+
+	private static final String BATCH_THREAD_NAME = "RouteBuilder";
+	private static ExecutorService mBatchExecutor;
 	
 	public static RouteContainer createRoutes(Model model, RouteParameters parameters)
 	{
 		TransportRoute[] routes = findRoutes(model, parameters);// new TransportRoute[0];
+		if((parameters.flags & ROUTE_OPTION_ALTERNATIVE)!=0){
+			routes = merge(routes, findAlternativeRoutes(model, parameters, ALTERNATIVE_ROUTE_COUNT, ALTERNATIVE_ROUTE_TIME_BUDGET));
+		}
 		RouteContainer set = new RouteContainer(parameters, routes);
 		return set;
 	}
+
+	// solves all routes on the bounded pool of threads, results are in the order of parameters
+	// workers share routing graphs of the model and keep search buffers per thread
+	public static RouteContainer[] createRoutes(final Model model, List<RouteParameters> parameters) throws InterruptedException
+	{
+		final int count = parameters.size();
+		final ArrayList<Callable<RouteContainer>> tasks = new ArrayList<Callable<RouteContainer>>(count);
+		for(final RouteParameters p : parameters){
+			RouteGraph.getGraph(model, p); // build graphs before workers start
+			tasks.add(new Callable<RouteContainer>() {
+				public RouteContainer call() {
+					return createRoutes(model, p);
+				}
+			});
+		}
+		final List<Future<RouteContainer>> futures = getBatchExecutor().invokeAll(tasks);
+		final RouteContainer[] res = new RouteContainer[count];
+		for(int i = 0; i < count; i++){
+			try {
+				res[i] = futures.get(i).get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return res;
+	}
+
+	private static synchronized ExecutorService getBatchExecutor(){
+		if(mBatchExecutor==null){
+			final int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+			mBatchExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, BATCH_THREAD_NAME);
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		return mBatchExecutor;
+	}
+
+	public static RouteContainer createAlternativeRoutes(Model model, RouteParameters parameters, int count, long timeBudget)
+	{
+		TransportRoute[] routes = findAlternativeRoutes(model, parameters, count, timeBudget);
+		return new RouteContainer(parameters, routes);
+	}
 	
 	public static RouteView createRouteView(Model model, SchemeView view, TransportRoute route)
 	{
 		return new RouteView(view, route);
 	}
 
+	private static TransportRoute[] findAlternativeRoutes(Model model, RouteParameters parameters, int count, long timeBudget) {
+		if(hasIncludedStations(parameters)){
+			return null; // alternatives are not searched for routes with via stations
+		}
+		final RouteGraph graph = RouteGraph.getGraph(model, parameters);
+		return AlternativeRouteSearch.findRoutes(graph, parameters.from, parameters.to, count, timeBudget);
+	}
+
+	// joins two route sets, drops duplicates and orders result by length
+	private static TransportRoute[] merge(TransportRoute[] left, TransportRoute[] right) {
+		if(left==null || right==null){
+			return left!=null ? left : right;
+		}
+		ArrayList<TransportRoute> res = new ArrayList<TransportRoute>();
+		res.addAll(Arrays.asList(left));
+		for(TransportRoute route : right){
+			boolean found = false;
+			for(TransportRoute other : left){
+				if(Arrays.equals(route.segments, other.segments) && Arrays.equals(route.transfers, other.transfers)){
+					found = true;
+					break;
+				}
+			}
+			if(!found){
+				res.add(route);
+			}
+		}
+		Collections.sort(res, new Comparator<TransportRoute>() {
+			public int compare(TransportRoute a, TransportRoute b) {
+				return a.length < b.length ? -1 : (a.length > b.length ? 1 : 0);
+			}
+		});
+		return (TransportRoute[]) res.toArray(new TransportRoute[res.size()]);
+	}
+
 	private static TransportRoute[] findRoutes(Model model, RouteParameters parameters) {
+		final int flags = parameters.flags;
+		if((flags & ROUTE_OPTION_SIMPLEST)!=0 && !hasIncludedStations(parameters)){
+			final RouteGraph graph = RouteGraph.getGraph(model, parameters);
+			TransportRoute[] routes = ParetoRouteSearch.findRoutes(graph, parameters.from, parameters.to);
+			if(routes==null){
+				return null;
+			}
+			if((flags & ROUTE_OPTION_SHORTEST)==0){
+				// routes are ordered by length, so simplest one is the last
+				return new TransportRoute[]{ routes[routes.length-1] };
+			}
+			return routes;
+		}
 		TransportRoute route = findRoute(model, parameters);
 		if(route!=null && route.steps>0){
 			TransportRoute[] routes = new TransportRoute[1];
@@ -61,131 +169,91 @@ public class RouteBuilder {
 		return null;
 	}
 
+	// shortest route through all included stations in the given order, route is chained from memoized legs
 	public static TransportRoute findRoute(Model model, RouteParameters parameters) {
-		
-		final int from = parameters.from;
-		final int to = parameters.to;
-		final int delayMode = parameters.delay;
-//		final int[] include = parameters.include;
-//		final int[] exclude = parameters.exclude;
-//		final int flags = parameters.flags;
-		final int count = model.stations.length;
-		
-		HashSet<Integer> checkedTransports = null;
-		if(parameters.transports!=null){
-			checkedTransports = new HashSet<Integer>();
-			for(int transportId : parameters.transports){
-				checkedTransports.add(transportId);
-			}
-		}
-		
-		DijkstraHeap.Graph g = new DijkstraHeap.Graph(count);
-		
-		for (TransportSegment seg : model.segments) {
-			if(checkedTransports==null || checkedTransports.contains(seg.mapId)){
-				Integer delay = seg.delay;
-				if (delay != null && delay != 0) {
-					g.addEdge(seg.stationFromId,seg.stationToId, (int)delay);
-				}
-			}
-		}
-		
-		for(TransportTransfer tr : model.transfers){
-			if(checkedTransports==null || (checkedTransports.contains(tr.mapFromId) && checkedTransports.contains(tr.mapToId))){
-				Integer delay = tr.delay;
-				if (delay != null && delay != 0) {
-					if(delayMode!=-1 ){
-						final TransportLine line = model.lines[tr.lineToId];
-						final Integer[] lineDelays = line.delays; 
-						if(lineDelays!=null && delayMode < lineDelays.length){
-							final Integer lineDelay = lineDelays[delayMode];
-							if(lineDelay!=null){
-								delay+=lineDelay; // add line waiting delay to transfer delay
-							}
-						}
-					}
-					g.addEdge(tr.stationFromId,tr.stationToId, delay);
-					g.addEdge(tr.stationToId, tr.stationFromId, delay);
-				}
-			}
-		}
-		
-	    long[] distances = new long[count];
-	    int[] pred = new int[count];
-	    DijkstraHeap.dijkstra(g, from, distances, pred);
+		final RouteGraph graph = RouteGraph.getGraph(model, parameters);
+		final int[] include = parameters.include;
+		final int waypoints = include!=null ? include.length : 0;
 		
 	    ArrayList<Integer> stations = new ArrayList<Integer>();
-	    ArrayList<Integer> segments = new ArrayList<Integer>();
-	    ArrayList<Integer> transfers = new ArrayList<Integer>();
+	    ArrayList<Integer> edges = new ArrayList<Integer>();
 	    ArrayList<Long> delays = new ArrayList<Long>();
-	    //HashMap<Integer, Long> stationToDelay = new HashMap<Integer, Long>();
+	    stations.add(parameters.from);
+	    delays.add(0L);
 	    
+	    int legFrom = parameters.from;
+	    long legStart = 0;
+	    for(int i = 0; i <= waypoints; i++){
+	    	final int legTo = i < waypoints ? include[i] : parameters.to;
+	    	if(legTo == legFrom){
+	    		continue;
+	    	}
+	    	final RouteGraph.Leg leg = graph.getLeg(legFrom, legTo);
+	    	if(leg == null){
+	    		return null;
+	    	}
+	    	final int len = leg.edges.length;
+	    	for(int j = 0; j < len; j++){
+	    		edges.add(leg.edges[j]);
+	    		stations.add(leg.stations[j+1]);
+	    		delays.add(legStart + leg.delays[j+1]);
+	    	}
+	    	legStart += leg.delays[len];
+	    	legFrom = legTo;
+	    }
+	    if(edges.size()==0){
+	    	return null;
+	    }
+	    Collections.reverse(stations);
+	    Collections.reverse(edges);
+	    Collections.reverse(delays);
+	    return createRoute(graph, stations, delays, edges);
+	}	
+	
+	private static boolean hasIncludedStations(RouteParameters parameters) {
+		return parameters.include!=null && parameters.include.length>0;
+	}
+	
+	// input: stations, delays and edges of compact graph from the end of route to the start
+	/*package*/ static TransportRoute createRoute(RouteGraph graph, ArrayList<Integer> stations, ArrayList<Long> delays, ArrayList<Integer> edges) {
+		final Model model = graph.model;
+		final int[] ids = graph.graph.ids;
 		
-	    int _to = to;
-	    int _from = pred[_to];
-	    stations.add(_to);
-	    delays.add(distances[_to]);
-	    long length = distances[_to];
-	    int steps = 0;
-	    while( _from!=-1 ){
-	    	TransportSegment seg = model.getTransportSegment(_from, _to);
-	    	if(seg!=null){
-	    		segments.add(seg.id);
-	    	}else{
-	    		TransportTransfer transfer = model.getTransportTransfer(_from, _to);
-	    		if(transfer!=null){
-	    			transfers.add(transfer.id);
+	    ArrayList<Integer> segments = new ArrayList<Integer>();
+	    ArrayList<Integer> transfers = new ArrayList<Integer>();
+	    for(int edge : edges){
+	    	if(edge!=-1){
+	    		final int id = ids[edge];
+	    		if(RouteGraph.isTransferEdgeId(id)){
+	    			transfers.add(RouteGraph.getTransferId(id));
 	    		}else{
-	    			transfer = model.getTransportTransfer(_to, _from);
-	    			if(transfer!=null){
-		    			transfers.add(transfer.id);
-		    		}
+	    			segments.add(id);
 	    		}
 	    	}
-	    	_to = _from;
-	    	_from = pred[_to];
-	    	
-		    stations.add(_to);
-		    delays.add(distances[_to]);
-	    	
-		    steps++;
 	    }
 	    
-	    
-	    if(length!=-1){
-		    TransportRoute route = new TransportRoute();
-		    route.from = from;
-		    route.to = to;
-	    	route.transfers =CollectionUtil.toArray(transfers);
-	    	route.segments = CollectionUtil.toArray(segments);
-    		Collections.reverse(stations);
-    		route.stations = CollectionUtil.toArray(stations);
-    		Collections.reverse(delays);
-    		route.delays = CollectionUtil.toArray(delays);
-    		route.length = length;
-    		route.steps = steps;
-	    	 //mStationDelays = stationToDelay;
+		Collections.reverse(stations);
+		Collections.reverse(delays);
+		
+	    TransportRoute route = new TransportRoute();
+	    route.from = stations.get(0);
+	    route.to = stations.get(stations.size()-1);
+    	route.transfers = CollectionUtil.toArray(transfers);
+    	route.segments = CollectionUtil.toArray(segments);
+		route.stations = CollectionUtil.toArray(stations);
+		route.delays = CollectionUtil.toArray(delays);
+		route.length = route.delays[route.delays.length-1];
+		route.steps = edges.size();
 
-			if(delayMode!=-1 ){
-				final TransportStation station = model.stations[from];
-				final TransportLine line = model.lines[station.lineId];
-				final Integer[] lineDelays = line.delays; 
-				if(lineDelays!=null && delayMode < lineDelays.length){
-					final Integer lineDelay = lineDelays[delayMode];
-					route.length+=lineDelay;
-					if(lineDelay!=null){
-						final int len = route.delays.length;
-						for(int i=0;i<len;i++){
-							route.delays[i] += lineDelay; // add start line delay to all steps 
-						}
-					}
-				}
+		final int lineDelay = RouteGraph.getLineDelay(model, model.stations[route.from].lineId, graph.delayMode);
+		if(lineDelay!=0){
+			route.length+=lineDelay;
+			final int len = route.delays.length;
+			for(int i=0;i<len;i++){
+				route.delays[i] += lineDelay; // add start line delay to all steps 
 			}
-    		
-    		
-    		return route;
-	    }
-    	return null;
-	}	
+		}
+		return route;
+	}
 	
 }
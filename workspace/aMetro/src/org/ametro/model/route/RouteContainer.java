@@ -45,5 +45,13 @@ public class RouteContainer {
 	public TransportRoute getDefaultRoute() {
 		return hasRoutes() ? routes[0] : null;
 	}
+
+	public int getRouteCount() {
+		return routes!=null ? routes.length : 0;
+	}
+
+	public TransportRoute getRoute(int index) {
+		return routes[index];
+	}
 	
 }
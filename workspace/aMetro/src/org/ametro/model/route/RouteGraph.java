@@ -0,0 +1,295 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ametro.model.route;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ametro.model.Model;
+import org.ametro.model.TransportLine;
+import org.ametro.model.TransportSegment;
+import org.ametro.model.TransportTransfer;
+import org.ametro.util.DijkstraHeap;
+
+/**
+ * Routing graph of the model for the one set of checked transports, excluded stations and delay mode.
+ * Graphs are built on first request and cached in model until model or locale reloads.
+ */
+public class RouteGraph {
+
+	private static final int LEG_CACHE_SIZE = 64;
+
+	// contraction hierarchy pays off only on large multi-map graphs
+	private static final int CONTRACTION_MIN_STATIONS = 1500;
+
+	// shortest path between two stations, arrays are ordered from leg start to leg end
+	/*package*/ static class Leg {
+		final int[] stations;
+		final int[] edges;
+		final long[] delays; // delay from leg start
+
+		Leg(int[] stations, int[] edges, long[] delays) {
+			this.stations = stations;
+			this.edges = edges;
+			this.delays = delays;
+		}
+	}
+
+	/*package*/ final Model model;
+	/*package*/ final int count;
+	/*package*/ final int delayMode;
+	/*package*/ final DijkstraHeap.CompactGraph graph;
+
+	private DijkstraHeap.CompactGraph mReverseGraph;
+	private GeoHeuristic mGeoHeuristic;
+	private boolean mGeoHeuristicCreated;
+	private RouteMatrix mRouteMatrix;
+	private boolean mRouteMatrixRequested;
+	private ContractionHierarchy mHierarchy;
+
+	private final ThreadLocal<BidirectionalRouteSearch> mSearch = new ThreadLocal<BidirectionalRouteSearch>();
+	private final ThreadLocal<ContractionHierarchy.Query> mHierarchyQuery = new ThreadLocal<ContractionHierarchy.Query>();
+
+	@SuppressWarnings("serial")
+	private final LinkedHashMap<Long, Leg> mLegs = new LinkedHashMap<Long, Leg>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Long, Leg> eldest) {
+			return size() > LEG_CACHE_SIZE;
+		}
+	};
+
+	private RouteGraph(Model model, int delayMode, DijkstraHeap.CompactGraph graph) {
+		this.model = model;
+		this.count = graph.n;
+		this.delayMode = delayMode;
+		this.graph = graph;
+	}
+
+	// reversed graph, ids of edges are indexes of edges in forward graph
+	/*package*/ synchronized DijkstraHeap.CompactGraph getReverseGraph() {
+		if (mReverseGraph == null) {
+			mReverseGraph = graph.reverse();
+		}
+		return mReverseGraph;
+	}
+
+	// returns memoized shortest path between stations or null if there is no path
+	/*package*/ Leg getLeg(int from, int to) {
+		final Long key = Model.getSegmentKey(from, to);
+		synchronized (mLegs) {
+			Leg leg = mLegs.get(key);
+			if (leg != null || mLegs.containsKey(key)) {
+				return leg;
+			}
+		}
+		final Leg leg = createLeg(from, to);
+		synchronized (mLegs) {
+			mLegs.put(key, leg);
+		}
+		return leg;
+	}
+
+	private Leg createLeg(int from, int to) {
+		final RouteMatrix matrix = getRouteMatrix();
+		if (matrix != null && matrix.getDelay(from, to) == -1) {
+			return null; // stations are not connected even by all transports
+		}
+		if (count >= CONTRACTION_MIN_STATIONS) {
+			ContractionHierarchy.Query query = mHierarchyQuery.get();
+			if (query == null) {
+				query = getContractionHierarchy().createQuery();
+				mHierarchyQuery.set(query);
+			}
+			return query.findLeg(from, to);
+		}
+		BidirectionalRouteSearch search = mSearch.get();
+		if (search == null) {
+			search = new BidirectionalRouteSearch(this);
+			mSearch.set(search);
+		}
+		return search.findLeg(from, to);
+	}
+
+	// contraction hierarchy is built once on first request
+	/*package*/ synchronized ContractionHierarchy getContractionHierarchy() {
+		if (mHierarchy == null) {
+			mHierarchy = new ContractionHierarchy(graph);
+		}
+		return mHierarchy;
+	}
+
+	// geographic lower bound of travel time, null when stations have no locations
+	/*package*/ synchronized GeoHeuristic getGeoHeuristic() {
+		if (!mGeoHeuristicCreated) {
+			mGeoHeuristic = GeoHeuristic.create(this);
+			mGeoHeuristicCreated = true;
+		}
+		return mGeoHeuristic;
+	}
+
+	// all pairs delays of the model, null when model has no matrix.
+	// Graph of every edge without line waiting delays is the cheapest graph of the model,
+	// so its delays never exceed delays of this graph
+	/*package*/ synchronized RouteMatrix getRouteMatrix() {
+		if (!mRouteMatrixRequested) {
+			final RouteMatrix matrix = model.getRouteMatrix();
+			mRouteMatrix = matrix != null && matrix.getCount() == count ? matrix : null;
+			mRouteMatrixRequested = true;
+		}
+		return mRouteMatrix;
+	}
+
+	public static RouteGraph getGraph(Model model, RouteParameters parameters) {
+		return getGraph(model, parameters.transports, parameters.exclude, parameters.delay);
+	}
+
+	public static RouteGraph getGraph(Model model, int[] transports, int delayMode) {
+		return getGraph(model, transports, null, delayMode);
+	}
+
+	public static RouteGraph getGraph(Model model, int[] transports, int[] exclude, int delayMode) {
+		final String key = getKey(transports, exclude, delayMode);
+		synchronized (model) {
+			HashMap<String, RouteGraph> graphs = model.routeGraphs;
+			if (graphs == null) {
+				graphs = new HashMap<String, RouteGraph>();
+				model.routeGraphs = graphs;
+			}
+			RouteGraph graph = graphs.get(key);
+			if (graph == null) {
+				graph = createGraph(model, transports, exclude, delayMode);
+				graphs.put(key, graph);
+			}
+			return graph;
+		}
+	}
+
+	public static void invalidate(Model model) {
+		synchronized (model) {
+			model.routeGraphs = null;
+		}
+	}
+
+	private static String getKey(int[] transports, int[] exclude, int delayMode) {
+		final StringBuilder key = new StringBuilder();
+		appendKey(key, transports);
+		key.append(';');
+		if (exclude != null && exclude.length > 0) {
+			appendKey(key, exclude);
+		}
+		key.append(';').append(delayMode);
+		return key.toString();
+	}
+
+	private static void appendKey(StringBuilder key, int[] ids) {
+		if (ids != null) {
+			final int[] sorted = ids.clone();
+			Arrays.sort(sorted);
+			for (int id : sorted) {
+				key.append(id).append(',');
+			}
+		} else {
+			key.append('*');
+		}
+	}
+
+	private static RouteGraph createGraph(Model model, int[] transports, int[] exclude, int delayMode) {
+		final int count = model.stations.length;
+
+		boolean[] excludedStations = null;
+		if (exclude != null && exclude.length > 0) {
+			excludedStations = new boolean[count];
+			for (int stationId : exclude) {
+				if (stationId >= 0 && stationId < count) {
+					excludedStations[stationId] = true;
+				}
+			}
+		}
+
+		boolean[] checkedTransports = null;
+		if (transports != null) {
+			checkedTransports = new boolean[model.maps.length];
+			for (int transportId : transports) {
+				if (transportId >= 0 && transportId < checkedTransports.length) {
+					checkedTransports[transportId] = true;
+				}
+			}
+		}
+
+		DijkstraHeap.Graph g = new DijkstraHeap.Graph(count);
+
+		for (TransportSegment seg : model.segments) {
+			if (excludedStations != null && (excludedStations[seg.stationFromId] || excludedStations[seg.stationToId])) {
+				continue;
+			}
+			if (checkedTransports == null || checkedTransports[seg.mapId]) {
+				final int delay = seg.delay != null ? seg.delay : 0;
+				if (delay != 0) {
+					g.addEdge(seg.stationFromId, seg.stationToId, delay, seg.id);
+				}
+			}
+		}
+
+		for (TransportTransfer tr : model.transfers) {
+			if (excludedStations != null && (excludedStations[tr.stationFromId] || excludedStations[tr.stationToId])) {
+				continue;
+			}
+			if (checkedTransports == null || (checkedTransports[tr.mapFromId] && checkedTransports[tr.mapToId])) {
+				int delay = tr.delay != null ? tr.delay : 0;
+				if (delay != 0) {
+					delay += getLineDelay(model, tr.lineToId, delayMode); // add line waiting delay to transfer delay
+					g.addEdge(tr.stationFromId, tr.stationToId, delay, toTransferEdgeId(tr.id));
+					g.addEdge(tr.stationToId, tr.stationFromId, delay, toTransferEdgeId(tr.id));
+				}
+			}
+		}
+		return new RouteGraph(model, delayMode, new DijkstraHeap.CompactGraph(g));
+	}
+
+	// edge ids keep segment id as is and transfer id as negative value
+	/*package*/ static int toTransferEdgeId(int transferId) {
+		return -1 - transferId;
+	}
+
+	/*package*/ static boolean isTransferEdgeId(int edgeId) {
+		return edgeId < 0;
+	}
+
+	/*package*/ static int getTransferId(int edgeId) {
+		return -1 - edgeId;
+	}
+
+	/*package*/ static int getLineDelay(Model model, int lineId, int delayMode) {
+		if (delayMode != -1) {
+			final TransportLine line = model.lines[lineId];
+			final Integer[] lineDelays = line.delays;
+			if (lineDelays != null && delayMode < lineDelays.length) {
+				final Integer lineDelay = lineDelays[delayMode];
+				if (lineDelay != null) {
+					return lineDelay;
+				}
+			}
+		}
+		return 0;
+	}
+
+}
@@ -0,0 +1,285 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ametro.model.route;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.ametro.model.Model;
+import org.ametro.util.DijkstraHeap;
+
+/**
+ * All pairs travel time matrix of the model for all transports without line waiting delays.
+ * Delays are quantized into unsigned 16-bit values, row per source station.
+ * File format: magic, version, station count, reserved, then for each row
+ * its quantum (seconds) as two values followed by count values.
+ * Matrix is written row by row while it is calculated, so it is never held in the Java heap.
+ */
+public class RouteMatrix {
+
+	private static final int MAGIC = 0x414D524D; // AMRM
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 16;
+	private static final int ROW_HEADER = 2; // quantum of row
+
+	private static final int UNREACHABLE = 0xFFFF;
+	private static final int MAX_VALUE = UNREACHABLE - 1;
+
+	private static final int ROWS_PER_WORKER = 2; // calculated rows waiting to be written
+
+	private final int mCount;
+	private final ByteBuffer mBuffer;
+	private final ShortBuffer mData;
+	private Boolean mExact;
+
+	private RouteMatrix(int count, ByteBuffer buffer) {
+		mCount = count;
+		mBuffer = buffer;
+		buffer.position(HEADER_SIZE);
+		mData = buffer.slice().asShortBuffer();
+		buffer.position(0);
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	// returns delay in seconds or -1 if station is unreachable
+	public long getDelay(int from, int to) {
+		final int row = from * (mCount + ROW_HEADER);
+		final int value = mData.get(row + ROW_HEADER + to) & 0xFFFF;
+		return value == UNREACHABLE ? -1 : (long) value * getQuantum(row);
+	}
+
+	// fills delays from station to all stations, -1 for unreachable ones
+	public long[] getDelays(int from, long[] delays) {
+		final int count = mCount;
+		final int row = from * (count + ROW_HEADER);
+		final int offset = row + ROW_HEADER;
+		final ShortBuffer data = mData;
+		final long quantum = getQuantum(row);
+		for (int i = 0; i < count; i++) {
+			final int value = data.get(offset + i) & 0xFFFF;
+			delays[i] = value == UNREACHABLE ? -1 : value * quantum;
+		}
+		return delays;
+	}
+
+	/** returns true when all delays are stored in seconds without rounding **/
+	public synchronized boolean isExact() {
+		if (mExact == null) {
+			boolean exact = true;
+			final int stride = mCount + ROW_HEADER;
+			for (int from = 0; from < mCount && exact; from++) {
+				exact = getQuantum(from * stride) == 1;
+			}
+			mExact = exact;
+		}
+		return mExact;
+	}
+
+	private int getQuantum(int row) {
+		return ((mData.get(row) & 0xFFFF) << 16) | (mData.get(row + 1) & 0xFFFF);
+	}
+
+	// copies matrix into stream in file format
+	public void write(OutputStream stream) throws IOException {
+		final ByteBuffer data = mBuffer.duplicate();
+		data.position(0);
+		data.limit(getSize(mCount));
+		final byte[] buffer = new byte[8192];
+		while (data.hasRemaining()) {
+			final int len = Math.min(buffer.length, data.remaining());
+			data.get(buffer, 0, len);
+			stream.write(buffer, 0, len);
+		}
+		stream.flush();
+	}
+
+	// size of matrix file for the number of stations
+	public static int getSize(int count) {
+		return HEADER_SIZE + count * (count + ROW_HEADER) * 2;
+	}
+
+	// maps matrix file into memory, data stays off the Java heap
+	public static RouteMatrix map(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close(); // mapping stays valid after channel is closed
+		}
+	}
+
+	// uses matrix written by write() in place, buffer is not copied
+	public static RouteMatrix wrap(ByteBuffer buffer) throws IOException {
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported route matrix format");
+		}
+		final int count = buffer.getInt(8);
+		if (buffer.limit() != getSize(count)) {
+			throw new IOException("Route matrix is truncated");
+		}
+		return new RouteMatrix(count, buffer);
+	}
+
+	// writes loaded matrix of the model, or calculates it while writing
+	public static void write(Model model, OutputStream stream) throws IOException {
+		if (model.routeMatrix != null) {
+			model.routeMatrix.write(stream);
+		} else {
+			write(RouteGraph.getGraph(model, null, -1), stream, Runtime.getRuntime().availableProcessors());
+		}
+	}
+
+	// runs one shortest path search per source station on the pool of threads, rows are written in order of stations
+	public static void write(RouteGraph graph, OutputStream stream, int threads) throws IOException {
+		final DijkstraHeap.CompactGraph g = graph.graph;
+		final int count = g.n;
+		final DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(count);
+		out.writeInt(0);
+
+		final int workers = Math.max(1, Math.min(threads, count));
+		final RowQueue rows = new RowQueue(count, workers * ROWS_PER_WORKER);
+		final ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			for (int i = 0; i < workers; i++) {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							final long[] prio = new long[count];
+							final int[] pred = new int[count];
+							final DijkstraHeap.IndexedHeap heap = new DijkstraHeap.IndexedHeap(count);
+							int from;
+							while ((from = rows.nextSource()) != -1) {
+								DijkstraHeap.dijkstra(g, from, prio, pred, heap);
+								rows.put(from, createRow(prio, count));
+							}
+						} catch (InterruptedException e) {
+							// writer has stopped
+						} catch (Throwable e) {
+							rows.fail(e);
+						}
+					}
+				});
+			}
+			final byte[] buffer = new byte[(count + ROW_HEADER) * 2];
+			for (int from = 0; from < count; from++) {
+				final short[] row = rows.take(from);
+				for (int i = 0; i < row.length; i++) {
+					buffer[i * 2] = (byte) (row[i] >> 8);
+					buffer[i * 2 + 1] = (byte) row[i];
+				}
+				out.write(buffer, 0, buffer.length);
+			}
+			out.flush();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Route matrix calculation interrupted");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// quantum of row is 1 second, or coarser only when some route of the row exceeds the 16-bit range
+	private static short[] createRow(long[] prio, int count) {
+		long max = 0;
+		for (int to = 0; to < count; to++) {
+			if (prio[to] < DijkstraHeap.INF) {
+				max = Math.max(max, prio[to]);
+			}
+		}
+		final int quantum = (int) Math.max(1, (max + MAX_VALUE - 1) / MAX_VALUE);
+		final short[] row = new short[count + ROW_HEADER];
+		row[0] = (short) (quantum >>> 16);
+		row[1] = (short) quantum;
+		for (int to = 0; to < count; to++) {
+			final long delay = prio[to];
+			if (delay >= DijkstraHeap.INF) {
+				row[ROW_HEADER + to] = (short) UNREACHABLE;
+			} else {
+				row[ROW_HEADER + to] = (short) Math.min(MAX_VALUE, (delay + quantum / 2) / quantum);
+			}
+		}
+		return row;
+	}
+
+	// rows calculated by workers, sources are handed out only a few rows ahead of the writer
+	private static class RowQueue {
+		private final int mCount;
+		private final short[][] mRows;
+		private int mNextSource;
+		private int mNextRow;
+		private Throwable mError;
+
+		RowQueue(int count, int window) {
+			mCount = count;
+			mRows = new short[window][];
+		}
+
+		synchronized int nextSource() throws InterruptedException {
+			while (mError == null && mNextSource < mCount && mNextSource >= mNextRow + mRows.length) {
+				wait();
+			}
+			return mError == null && mNextSource < mCount ? mNextSource++ : -1;
+		}
+
+		synchronized void put(int from, short[] row) {
+			mRows[from % mRows.length] = row;
+			notifyAll();
+		}
+
+		synchronized short[] take(int from) throws InterruptedException, IOException {
+			final int index = from % mRows.length;
+			while (mRows[index] == null) {
+				if (mError != null) {
+					final IOException ex = new IOException("Route matrix calculation failed");
+					ex.initCause(mError);
+					throw ex;
+				}
+				wait();
+			}
+			final short[] row = mRows[index];
+			mRows[index] = null;
+			mNextRow = from + 1;
+			notifyAll();
+			return row;
+		}
+
+		synchronized void fail(Throwable error) {
+			mError = error;
+			notifyAll();
+		}
+	}
+
+}
@@ -41,6 +41,10 @@ public class TransportRoute {
 	public Long getDelay(int index) {
 		return delays[index];
 	}
+
+	public int getTransferCount() {
+		return transfers.length;
+	}
 	
 	
 }
@@ -0,0 +1,95 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ametro.model.route;
+
+import java.util.Arrays;
+
+import org.ametro.model.Model;
+import org.ametro.util.DijkstraHeap;
+
+/**
+ * Travel time from one station to all stations of the model.
+ * Search stops at the time bound, so only the neighbourhood of the station is explored.
+ */
+public class TravelTimeSearch {
+
+	public static final long UNREACHABLE = -1;
+
+	private static final ThreadLocal<long[]> mThreadDelays = new ThreadLocal<long[]>();
+
+	// returns delays in seconds indexed by station id, UNREACHABLE for stations out of time bound
+	// returned array is pooled per thread and is valid until next search on the same thread
+	public static long[] findDelays(Model model, int[] transports, int delayMode, int from, long maxDelay) {
+		return findDelays(RouteGraph.getGraph(model, transports, delayMode), from, maxDelay);
+	}
+
+	public static long[] findDelays(RouteGraph graph, int from, long maxDelay) {
+		final int count = graph.count;
+		long[] delays = mThreadDelays.get();
+		if (delays == null || delays.length < count) {
+			delays = new long[count];
+			mThreadDelays.set(delays);
+		}
+		// waiting for the first train is paid once by every route from the station
+		final long lineDelay = RouteGraph.getLineDelay(graph.model, graph.model.stations[from].lineId, graph.delayMode);
+		final long bound = maxDelay - lineDelay;
+
+		final DijkstraHeap.CompactGraph g = graph.graph;
+		final int[] offsets = g.offsets;
+		final int[] targets = g.targets;
+		final int[] costs = g.costs;
+		final DijkstraHeap.IndexedHeap q = DijkstraHeap.IndexedHeap.obtain(count);
+		Arrays.fill(delays, 0, count, DijkstraHeap.INF);
+		delays[from] = 0;
+		q.reset(delays);
+		q.update(from);
+		while (!q.isEmpty()) {
+			final int v = q.poll();
+			final long vdelay = delays[v];
+			if (vdelay > bound) {
+				break;
+			}
+			final int end = offsets[v + 1];
+			for (int i = offsets[v]; i < end; i++) {
+				final int t = targets[i];
+				final long ndelay = vdelay + costs[i];
+				if (delays[t] > ndelay) {
+					delays[t] = ndelay;
+					q.update(t);
+				}
+			}
+		}
+		// stations left in queue are not settled
+		for (int v = 0; v < count; v++) {
+			if (v == from) {
+				continue;
+			}
+			if (delays[v] > bound || q.contains(v)) {
+				delays[v] = UNREACHABLE;
+			} else {
+				delays[v] += lineDelay;
+			}
+		}
+		q.reset(null);
+		return delays;
+	}
+
+}
@@ -0,0 +1,1218 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ametro.model.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+import org.ametro.app.Constants;
+import org.ametro.model.LineView;
+import org.ametro.model.MapLayerContainer;
+import org.ametro.model.Model;
+import org.ametro.model.SchemeView;
+import org.ametro.model.SegmentView;
+import org.ametro.model.StationView;
+import org.ametro.model.TransferView;
+import org.ametro.model.TransportLine;
+import org.ametro.model.TransportMap;
+import org.ametro.model.TransportSegment;
+import org.ametro.model.TransportStation;
+import org.ametro.model.TransportStationInfo;
+import org.ametro.model.TransportTransfer;
+import org.ametro.model.ext.ModelLocation;
+import org.ametro.model.ext.ModelPoint;
+import org.ametro.model.ext.ModelRect;
+import org.ametro.model.ext.ModelSpline;
+import org.ametro.model.route.RouteMatrix;
+
+/**
+ * Column oriented binary model storage, file is mapped into memory on load.
+ * File format: magic, format version, model version, section count, then
+ * offset and length of every section. Tables are stored as a row count and
+ * one fixed width big endian array per column, variable length columns as an
+ * array of lengths (-1 for null) followed by total length and values.
+ * All strings are interned into one string table and referenced by index,
+ * table is decoded on demand, so unused locales and views are never read.
+ */
+public class BinaryStorage implements IModelStorage {
+
+	private static final int MAGIC = 0x414D424D; // AMBM
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	private static final String ENCODING = "utf-8";
+	private static final int BUFFER_SIZE = 8196;
+
+	private static final int NULL_VALUE = Integer.MIN_VALUE; // null Integer, point or rect
+
+	private static final int SECTION_STRINGS = 0;
+	private static final int SECTION_MODEL = 1;
+	private static final int SECTION_MAPS = 2;
+	private static final int SECTION_LINES = 3;
+	private static final int SECTION_STATIONS = 4;
+	private static final int SECTION_SEGMENTS = 5;
+	private static final int SECTION_TRANSFERS = 6;
+	private static final int SECTION_ROUTE_MATRIX = 7;
+	private static final int SECTION_LOCALES = 8; // one section per locale, then one per view
+
+	public Model loadModel(String fileName, Locale locale) throws IOException {
+		return loadModel(fileName, locale, false);
+	}
+
+	public Model loadModelDescription(String fileName, Locale locale) throws IOException {
+		return loadModel(fileName, locale, true);
+	}
+
+	public String[] loadModelLocale(String fileName, Model model, int localeId) throws IOException {
+		final ByteBuffer file = map(fileName);
+		final StringTable strings = new StringTable(getSection(file, SECTION_STRINGS));
+		final String[] texts = deserializeLocaleTable(getSection(file, SECTION_LOCALES + localeId), strings, model.textLength);
+		model.localeTexts[localeId] = texts;
+		return texts;
+	}
+
+	public SchemeView loadModelView(String fileName, Model model, String viewName) throws IOException {
+		final Integer id = model.getViewId(viewName);
+		if (id == null) {
+			return null;
+		}
+		final ByteBuffer file = map(fileName);
+		final StringTable strings = new StringTable(getSection(file, SECTION_STRINGS));
+		// view is published to model by caller, see SchemeViewCache
+		return deserializeMapView(getViewSection(file, model, id), strings, model);
+	}
+
+	public RouteMatrix loadRouteMatrix(String fileName, Model model) throws IOException {
+		return RouteMatrix.wrap(getSection(map(fileName), SECTION_ROUTE_MATRIX));
+	}
+
+	private Model loadModel(String fileName, Locale locale, boolean descriptionOnly) throws IOException {
+		final ByteBuffer file = map(fileName);
+		final StringTable strings = new StringTable(getSection(file, SECTION_STRINGS));
+
+		final Model model = new Model();
+		deserializeModel(new ColumnReader(getSection(file, SECTION_MODEL), strings), model);
+		model.fileSystemName = fileName;
+		final String defaultLocaleName = model.getLocaleName(locale);
+
+		if (!descriptionOnly) {
+			deserializeMaps(new ColumnReader(getSection(file, SECTION_MAPS), strings), model);
+			deserializeLines(new ColumnReader(getSection(file, SECTION_LINES), strings), model);
+			deserializeStations(new ColumnReader(getSection(file, SECTION_STATIONS), strings), model);
+			deserializeSegments(new ColumnReader(getSection(file, SECTION_SEGMENTS), strings), model);
+			deserializeTransfers(new ColumnReader(getSection(file, SECTION_TRANSFERS), strings), model);
+		}
+
+		int len = model.locales.length;
+		model.localeTexts = new String[len][];
+		for (int i = 0; i < len; i++) {
+			final String localeName = model.locales[i];
+			if (descriptionOnly || localeName.equals(defaultLocaleName)) {
+				final int textLength = descriptionOnly ? model.textLengthDescription : model.textLength;
+				model.localeTexts[i] = deserializeLocaleTable(getSection(file, SECTION_LOCALES + i), strings, textLength);
+			}
+			if (locale != null && localeName.equals(defaultLocaleName)) {
+				model.texts = model.localeTexts[i];
+				model.localeCurrent = localeName;
+			} else if (localeName.equals(model.localeCurrent)) {
+				model.texts = model.localeTexts[i];
+			}
+		}
+
+		len = model.viewSystemNames.length;
+		model.views = new SchemeView[len];
+		if (!descriptionOnly && len > 0) {
+			// other views are loaded on demand
+			model.views[0] = deserializeMapView(getViewSection(file, model, 0), strings, model);
+		}
+
+		model.layers = new MapLayerContainer[0];
+		return model;
+	}
+
+	public void saveModel(String fileName, Model model) throws IOException {
+		final int localesLength = model.locales.length;
+		final int viewsLength = model.views.length;
+		final ByteArrayOutputStream[] sections = new ByteArrayOutputStream[SECTION_LOCALES + localesLength + viewsLength];
+		final StringTableWriter strings = new StringTableWriter();
+
+		serializeModel(model, createSection(sections, SECTION_MODEL, strings));
+		serializeMaps(model, createSection(sections, SECTION_MAPS, strings));
+		serializeLines(model, createSection(sections, SECTION_LINES, strings));
+		serializeStations(model, createSection(sections, SECTION_STATIONS, strings));
+		serializeSegments(model, createSection(sections, SECTION_SEGMENTS, strings));
+		serializeTransfers(model, createSection(sections, SECTION_TRANSFERS, strings));
+		// route matrix is calculated while file is written, only its size is known here
+		final int matrixSize = RouteMatrix.getSize(model.stations.length);
+		for (int i = 0; i < localesLength; i++) {
+			final ColumnWriter writer = createSection(sections, SECTION_LOCALES + i, strings);
+			writer.writeStrings(model.localeTexts[i], model.textLength);
+			writer.flush();
+		}
+		for (int i = 0; i < viewsLength; i++) {
+			serializeMapView(model.views[i], createSection(sections, SECTION_LOCALES + localesLength + i, strings));
+		}
+		// string table is written last, when all sections have interned their strings
+		final ByteArrayOutputStream stringTable = new ByteArrayOutputStream();
+		strings.write(stringTable);
+		sections[SECTION_STRINGS] = stringTable;
+
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), BUFFER_SIZE));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(Constants.MODEL_VERSION);
+			out.writeInt(sections.length);
+			int offset = HEADER_SIZE + sections.length * 8;
+			for (int i = 0; i < sections.length; i++) {
+				final int size = i == SECTION_ROUTE_MATRIX ? matrixSize : sections[i].size();
+				offset = align(offset);
+				out.writeInt(offset);
+				out.writeInt(size);
+				offset += size;
+			}
+			offset = HEADER_SIZE + sections.length * 8;
+			for (int i = 0; i < sections.length; i++) {
+				for (int padding = align(offset) - offset; padding > 0; padding--) {
+					out.writeByte(0);
+				}
+				offset = align(offset);
+				if (i == SECTION_ROUTE_MATRIX) {
+					RouteMatrix.write(model, out);
+					offset += matrixSize;
+				} else {
+					sections[i].writeTo(out);
+					offset += sections[i].size();
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static ColumnWriter createSection(ByteArrayOutputStream[] sections, int index, StringTableWriter strings) {
+		final ByteArrayOutputStream section = new ByteArrayOutputStream();
+		sections[index] = section;
+		return new ColumnWriter(section, strings);
+	}
+
+	private static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+	// maps model file into memory and checks its header
+	private static ByteBuffer map(String fileName) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+				throw new IOException("Unsupported model format");
+			}
+			if (buffer.getInt(8) != Constants.MODEL_VERSION) {
+				throw new IOException("Unsupported version");
+			}
+			return buffer;
+		} finally {
+			raf.close(); // mapping stays valid after channel is closed
+		}
+	}
+
+	private static ByteBuffer getSection(ByteBuffer file, int index) throws IOException {
+		if (index >= file.getInt(12)) {
+			throw new IOException("Model section " + index + " not found");
+		}
+		final int offset = file.getInt(HEADER_SIZE + index * 8);
+		final int length = file.getInt(HEADER_SIZE + index * 8 + 4);
+		if (offset < 0 || length < 0 || offset + length > file.limit()) {
+			throw new IOException("Model file is truncated");
+		}
+		final ByteBuffer section = file.duplicate();
+		section.position(offset);
+		section.limit(offset + length);
+		return section.slice();
+	}
+
+	private static ByteBuffer getViewSection(ByteBuffer file, Model model, int viewId) throws IOException {
+		return getSection(file, SECTION_LOCALES + model.locales.length + viewId);
+	}
+
+	private static String[] deserializeLocaleTable(ByteBuffer section, StringTable strings, int length) throws IOException {
+		final ColumnReader reader = new ColumnReader(section, strings);
+		return reader.readStrings(length);
+	}
+
+	private static void deserializeModel(ColumnReader reader, Model model) throws IOException {
+		model.systemName = reader.readString();
+		model.timestamp = reader.readLong();
+		model.countryIso = reader.readString();
+		model.countryName = reader.readInt();
+		model.cityName = reader.readInt();
+		model.transportTypes = reader.readLong();
+		model.location = reader.readLocations(1)[0];
+		model.locales = reader.readStringArray();
+		model.localeCurrent = reader.readString();
+		model.textLength = reader.readInt();
+		model.textLengthDescription = reader.readInt();
+		model.authors = reader.readIntArray();
+		model.comments = reader.readIntArray();
+		model.delays = reader.readIntArray();
+		model.viewSystemNames = reader.readStringArray();
+		model.viewNames = reader.readIntArray();
+		model.viewTransportTypes = reader.readLongArray();
+		model.viewIsMain = reader.readBooleanArray();
+		model.layerNames = reader.readStringArray();
+	}
+
+	private static void serializeModel(Model model, ColumnWriter writer) throws IOException {
+		writer.writeString(model.systemName);
+		writer.writeLong(model.timestamp);
+		writer.writeString(model.countryIso);
+		writer.writeInt(model.countryName);
+		writer.writeInt(model.cityName);
+		writer.writeLong(model.transportTypes);
+		writer.writeLocations(new ModelLocation[] { model.location });
+		writer.writeStringArray(model.locales);
+		writer.writeString(model.localeCurrent);
+		writer.writeInt(model.textLength);
+		writer.writeInt(model.textLengthDescription);
+		writer.writeIntArray(model.authors);
+		writer.writeIntArray(model.comments);
+		writer.writeIntArray(model.delays);
+		writer.writeStringArray(model.viewSystemNames);
+		writer.writeIntArray(model.viewNames);
+		writer.writeLongArray(model.viewTransportTypes);
+		writer.writeBooleanArray(model.viewIsMain);
+		writer.writeStringArray(model.layerNames);
+		writer.flush();
+	}
+
+	private static void deserializeMaps(ColumnReader reader, Model model) throws IOException {
+		final int len = reader.readInt();
+		final int[] id = reader.readInts(len);
+		final int[] transportTypes = reader.readInts(len);
+		final String[] systemName = reader.readStrings(len);
+		final int[] name = reader.readInts(len);
+		final int[] typeName = reader.readInts(len);
+		final TransportMap[] maps = new TransportMap[len];
+		for (int i = 0; i < len; i++) {
+			final TransportMap obj = new TransportMap();
+			obj.id = id[i];
+			obj.transportTypes = transportTypes[i];
+			obj.systemName = systemName[i];
+			obj.name = name[i];
+			obj.typeName = typeName[i];
+			obj.owner = model;
+			maps[i] = obj;
+		}
+		model.maps = maps;
+	}
+
+	private static void serializeMaps(Model model, ColumnWriter writer) throws IOException {
+		final TransportMap[] maps = model.maps;
+		final int len = maps.length;
+		final int[] id = new int[len];
+		final int[] transportTypes = new int[len];
+		final String[] systemName = new String[len];
+		final int[] name = new int[len];
+		final int[] typeName = new int[len];
+		for (int i = 0; i < len; i++) {
+			final TransportMap obj = maps[i];
+			id[i] = obj.id;
+			transportTypes[i] = obj.transportTypes;
+			systemName[i] = obj.systemName;
+			name[i] = obj.name;
+			typeName[i] = obj.typeName;
+		}
+		writer.writeInt(len);
+		writer.writeInts(id);
+		writer.writeInts(transportTypes);
+		writer.writeStrings(systemName, len);
+		writer.writeInts(name);
+		writer.writeInts(typeName);
+		writer.flush();
+	}
+
+	private static void deserializeLines(ColumnReader reader, Model model) throws IOException {
+		final int len = reader.readInt();
+		final int[] id = reader.readInts(len);
+		final int[] mapId = reader.readInts(len);
+		final int[] name = reader.readInts(len);
+		final String[] systemName = reader.readStrings(len);
+		final String[] lineMapName = reader.readStrings(len);
+		final int[][] stations = reader.readArrays(len);
+		final int[][] delays = reader.readArrays(len);
+		final TransportLine[] lines = new TransportLine[len];
+		for (int i = 0; i < len; i++) {
+			final TransportLine obj = new TransportLine();
+			obj.id = id[i];
+			obj.mapId = mapId[i];
+			obj.name = name[i];
+			obj.systemName = systemName[i];
+			obj.lineMapName = lineMapName[i];
+			obj.stations = stations[i];
+			obj.delays = toIntegerArray(delays[i]);
+			obj.owner = model;
+			lines[i] = obj;
+		}
+		model.lines = lines;
+	}
+
+	private static void serializeLines(Model model, ColumnWriter writer) throws IOException {
+		final TransportLine[] lines = model.lines;
+		final int len = lines.length;
+		final int[] id = new int[len];
+		final int[] mapId = new int[len];
+		final int[] name = new int[len];
+		final String[] systemName = new String[len];
+		final String[] lineMapName = new String[len];
+		final int[][] stations = new int[len][];
+		final int[][] delays = new int[len][];
+		for (int i = 0; i < len; i++) {
+			final TransportLine obj = lines[i];
+			id[i] = obj.id;
+			mapId[i] = obj.mapId;
+			name[i] = obj.name;
+			systemName[i] = obj.systemName;
+			lineMapName[i] = obj.lineMapName;
+			stations[i] = obj.stations;
+			delays[i] = toIntArray(obj.delays);
+		}
+		writer.writeInt(len);
+		writer.writeInts(id);
+		writer.writeInts(mapId);
+		writer.writeInts(name);
+		writer.writeStrings(systemName, len);
+		writer.writeStrings(lineMapName, len);
+		writer.writeArrays(stations);
+		writer.writeArrays(delays);
+		writer.flush();
+	}
+
+	private static void deserializeStations(ColumnReader reader, Model model) throws IOException {
+		final int len = reader.readInt();
+		final int[] id = reader.readInts(len);
+		final int[] mapId = reader.readInts(len);
+		final int[] lineId = reader.readInts(len);
+		final int[] name = reader.readInts(len);
+		final String[] systemName = reader.readStrings(len);
+		final ModelLocation[] location = reader.readLocations(len);
+		final TransportStation[] stations = new TransportStation[len];
+		for (int i = 0; i < len; i++) {
+			final TransportStation obj = new TransportStation();
+			obj.id = id[i];
+			obj.mapId = mapId[i];
+			obj.lineId = lineId[i];
+			obj.name = name[i];
+			obj.systemName = systemName[i];
+			obj.location = location[i];
+			obj.owner = model;
+			stations[i] = obj;
+		}
+		model.stations = stations;
+		model.stationInfos = new TransportStationInfo[0];
+	}
+
+	private static void serializeStations(Model model, ColumnWriter writer) throws IOException {
+		final TransportStation[] stations = model.stations;
+		final int len = stations.length;
+		final int[] id = new int[len];
+		final int[] mapId = new int[len];
+		final int[] lineId = new int[len];
+		final int[] name = new int[len];
+		final String[] systemName = new String[len];
+		final ModelLocation[] location = new ModelLocation[len];
+		for (int i = 0; i < len; i++) {
+			final TransportStation obj = stations[i];
+			id[i] = obj.id;
+			mapId[i] = obj.mapId;
+			lineId[i] = obj.lineId;
+			name[i] = obj.name;
+			systemName[i] = obj.systemName;
+			location[i] = obj.location;
+		}
+		writer.writeInt(len);
+		writer.writeInts(id);
+		writer.writeInts(mapId);
+		writer.writeInts(lineId);
+		writer.writeInts(name);
+		writer.writeStrings(systemName, len);
+		writer.writeLocations(location);
+		writer.flush();
+	}
+
+	private static void deserializeSegments(ColumnReader reader, Model model) throws IOException {
+		final int len = reader.readInt();
+		final int[] id = reader.readInts(len);
+		final int[] mapId = reader.readInts(len);
+		final int[] lineId = reader.readInts(len);
+		final int[] stationFromId = reader.readInts(len);
+		final int[] stationToId = reader.readInts(len);
+		final int[] delay = reader.readInts(len);
+		final int[] flags = reader.readInts(len);
+		final TransportSegment[] segments = new TransportSegment[len];
+		for (int i = 0; i < len; i++) {
+			final TransportSegment obj = new TransportSegment();
+			obj.id = id[i];
+			obj.mapId = mapId[i];
+			obj.lineId = lineId[i];
+			obj.stationFromId = stationFromId[i];
+			obj.stationToId = stationToId[i];
+			obj.delay = toInteger(delay[i]);
+			obj.flags = flags[i];
+			obj.owner = model;
+			segments[i] = obj;
+		}
+		model.segments = segments;
+	}
+
+	private static void serializeSegments(Model model, ColumnWriter writer) throws IOException {
+		final TransportSegment[] segments = model.segments;
+		final int len = segments.length;
+		final int[] id = new int[len];
+		final int[] mapId = new int[len];
+		final int[] lineId = new int[len];
+		final int[] stationFromId = new int[len];
+		final int[] stationToId = new int[len];
+		final int[] delay = new int[len];
+		final int[] flags = new int[len];
+		for (int i = 0; i < len; i++) {
+			final TransportSegment obj = segments[i];
+			id[i] = obj.id;
+			mapId[i] = obj.mapId;
+			lineId[i] = obj.lineId;
+			stationFromId[i] = obj.stationFromId;
+			stationToId[i] = obj.stationToId;
+			delay[i] = toInt(obj.delay);
+			flags[i] = obj.flags;
+		}
+		writer.writeInt(len);
+		writer.writeInts(id);
+		writer.writeInts(mapId);
+		writer.writeInts(lineId);
+		writer.writeInts(stationFromId);
+		writer.writeInts(stationToId);
+		writer.writeInts(delay);
+		writer.writeInts(flags);
+		writer.flush();
+	}
+
+	private static void deserializeTransfers(ColumnReader reader, Model model) throws IOException {
+		final int len = reader.readInt();
+		final int[] id = reader.readInts(len);
+		final int[] mapFromId = reader.readInts(len);
+		final int[] lineFromId = reader.readInts(len);
+		final int[] stationFromId = reader.readInts(len);
+		final int[] mapToId = reader.readInts(len);
+		final int[] lineToId = reader.readInts(len);
+		final int[] stationToId = reader.readInts(len);
+		final int[] delay = reader.readInts(len);
+		final int[] flags = reader.readInts(len);
+		final TransportTransfer[] transfers = new TransportTransfer[len];
+		for (int i = 0; i < len; i++) {
+			final TransportTransfer obj = new TransportTransfer();
+			obj.id = id[i];
+			obj.mapFromId = mapFromId[i];
+			obj.lineFromId = lineFromId[i];
+			obj.stationFromId = stationFromId[i];
+			obj.mapToId = mapToId[i];
+			obj.lineToId = lineToId[i];
+			obj.stationToId = stationToId[i];
+			obj.delay = toInteger(delay[i]);
+			obj.flags = flags[i];
+			obj.owner = model;
+			transfers[i] = obj;
+		}
+		model.transfers = transfers;
+	}
+
+	private static void serializeTransfers(Model model, ColumnWriter writer) throws IOException {
+		final TransportTransfer[] transfers = model.transfers;
+		final int len = transfers.length;
+		final int[] id = new int[len];
+		final int[] mapFromId = new int[len];
+		final int[] lineFromId = new int[len];
+		final int[] stationFromId = new int[len];
+		final int[] mapToId = new int[len];
+		final int[] lineToId = new int[len];
+		final int[] stationToId = new int[len];
+		final int[] delay = new int[len];
+		final int[] flags = new int[len];
+		for (int i = 0; i < len; i++) {
+			final TransportTransfer obj = transfers[i];
+			id[i] = obj.id;
+			mapFromId[i] = obj.mapFromId;
+			lineFromId[i] = obj.lineFromId;
+			stationFromId[i] = obj.stationFromId;
+			mapToId[i] = obj.mapToId;
+			lineToId[i] = obj.lineToId;
+			stationToId[i] = obj.stationToId;
+			delay[i] = toInt(obj.delay);
+			flags[i] = obj.flags;
+		}
+		writer.writeInt(len);
+		writer.writeInts(id);
+		writer.writeInts(mapFromId);
+		writer.writeInts(lineFromId);
+		writer.writeInts(stationFromId);
+		writer.writeInts(mapToId);
+		writer.writeInts(lineToId);
+		writer.writeInts(stationToId);
+		writer.writeInts(delay);
+		writer.writeInts(flags);
+		writer.flush();
+	}
+
+	private static SchemeView deserializeMapView(ByteBuffer section, StringTable strings, Model model) throws IOException {
+		final ColumnReader reader = new ColumnReader(section, strings);
+		final SchemeView view = new SchemeView();
+		view.owner = model;
+		view.id = reader.readInt();
+		view.systemName = reader.readString();
+		view.name = reader.readInt();
+		view.isMain = reader.readInt() != 0;
+		view.transportTypes = reader.readLong();
+		view.width = reader.readInt();
+		view.height = reader.readInt();
+		view.stationDiameter = reader.readInt();
+		view.lineWidth = reader.readInt();
+		view.backgroundSystemName = reader.readString();
+		view.isVector = reader.readInt() != 0;
+		view.isWordWrap = reader.readInt() != 0;
+		view.isUpperCase = reader.readInt() != 0;
+		view.transports = reader.readIntArray();
+		view.transportsChecked = reader.readIntArray();
+
+		int len = reader.readInt();
+		int[] id = reader.readInts(len);
+		final int[] lineId = reader.readInts(len);
+		final int[] lineWidth = reader.readInts(len);
+		final int[] lineColor = reader.readInts(len);
+		final int[] labelColor = reader.readInts(len);
+		final int[] labelBackgroundColor = reader.readInts(len);
+		final ModelRect[] lineNameRect = reader.readRects(len);
+		view.lines = new LineView[len];
+		for (int i = 0; i < len; i++) {
+			final LineView obj = new LineView();
+			obj.id = id[i];
+			obj.lineId = lineId[i];
+			obj.lineWidth = lineWidth[i];
+			obj.lineColor = lineColor[i];
+			obj.labelColor = labelColor[i];
+			obj.labelBackgroundColor = labelBackgroundColor[i];
+			obj.lineNameRect = lineNameRect[i];
+			obj.owner = model;
+			view.lines[i] = obj;
+		}
+
+		len = reader.readInt();
+		id = reader.readInts(len);
+		final int[] stationId = reader.readInts(len);
+		int[] lineViewId = reader.readInts(len);
+		final ModelPoint[] stationPoint = reader.readPoints(len);
+		final ModelRect[] stationNameRect = reader.readRects(len);
+		final int[] stationHeight = reader.readInts(len);
+		view.stations = new StationView[len];
+		for (int i = 0; i < len; i++) {
+			final StationView obj = new StationView();
+			obj.id = id[i];
+			obj.stationId = stationId[i];
+			obj.lineViewId = lineViewId[i];
+			obj.stationPoint = stationPoint[i];
+			obj.stationNameRect = stationNameRect[i];
+			obj.stationHeight = toInteger(stationHeight[i]);
+			obj.owner = model;
+			view.stations[i] = obj;
+		}
+
+		len = reader.readInt();
+		id = reader.readInts(len);
+		lineViewId = reader.readInts(len);
+		final int[] segmentId = reader.readInts(len);
+		int[] stationViewFromId = reader.readInts(len);
+		int[] stationViewToId = reader.readInts(len);
+		final ModelSpline[] spline = reader.readSplines(len);
+		view.segments = new SegmentView[len];
+		for (int i = 0; i < len; i++) {
+			final SegmentView obj = new SegmentView();
+			obj.id = id[i];
+			obj.lineViewId = lineViewId[i];
+			obj.segmentId = segmentId[i];
+			obj.stationViewFromId = stationViewFromId[i];
+			obj.stationViewToId = stationViewToId[i];
+			obj.spline = spline[i];
+			obj.owner = model;
+			view.segments[i] = obj;
+		}
+
+		len = reader.readInt();
+		id = reader.readInts(len);
+		final int[] transferId = reader.readInts(len);
+		stationViewFromId = reader.readInts(len);
+		stationViewToId = reader.readInts(len);
+		view.transfers = new TransferView[len];
+		for (int i = 0; i < len; i++) {
+			final TransferView obj = new TransferView();
+			obj.id = id[i];
+			obj.transferId = transferId[i];
+			obj.stationViewFromId = stationViewFromId[i];
+			obj.stationViewToId = stationViewToId[i];
+			obj.owner = model;
+			view.transfers[i] = obj;
+		}
+		return view;
+	}
+
+	private static void serializeMapView(SchemeView view, ColumnWriter writer) throws IOException {
+		writer.writeInt(view.id);
+		writer.writeString(view.systemName);
+		writer.writeInt(view.name);
+		writer.writeInt(view.isMain ? 1 : 0);
+		writer.writeLong(view.transportTypes);
+		writer.writeInt(view.width);
+		writer.writeInt(view.height);
+		writer.writeInt(view.stationDiameter);
+		writer.writeInt(view.lineWidth);
+		writer.writeString(view.backgroundSystemName);
+		writer.writeInt(view.isVector ? 1 : 0);
+		writer.writeInt(view.isWordWrap ? 1 : 0);
+		writer.writeInt(view.isUpperCase ? 1 : 0);
+		writer.writeIntArray(view.transports);
+		writer.writeIntArray(view.transportsChecked);
+
+		int len = view.lines.length;
+		int[] id = new int[len];
+		final int[] lineId = new int[len];
+		final int[] lineWidth = new int[len];
+		final int[] lineColor = new int[len];
+		final int[] labelColor = new int[len];
+		final int[] labelBackgroundColor = new int[len];
+		final ModelRect[] lineNameRect = new ModelRect[len];
+		for (int i = 0; i < len; i++) {
+			final LineView obj = view.lines[i];
+			id[i] = obj.id;
+			lineId[i] = obj.lineId;
+			lineWidth[i] = obj.lineWidth;
+			lineColor[i] = obj.lineColor;
+			labelColor[i] = obj.labelColor;
+			labelBackgroundColor[i] = obj.labelBackgroundColor;
+			lineNameRect[i] = obj.lineNameRect;
+		}
+		writer.writeInt(len);
+		writer.writeInts(id);
+		writer.writeInts(lineId);
+		writer.writeInts(lineWidth);
+		writer.writeInts(lineColor);
+		writer.writeInts(labelColor);
+		writer.writeInts(labelBackgroundColor);
+		writer.writeRects(lineNameRect);
+
+		len = view.stations.length;
+		id = new int[len];
+		final int[] stationId = new int[len];
+		int[] lineViewId = new int[len];
+		final ModelPoint[] stationPoint = new ModelPoint[len];
+		final ModelRect[] stationNameRect = new ModelRect[len];
+		final int[] stationHeight = new int[len];
+		for (int i = 0; i < len; i++) {
+			final StationView obj = view.stations[i];
+			id[i] = obj.id;
+			stationId[i] = obj.stationId;
+			lineViewId[i] = obj.lineViewId;
+			stationPoint[i] = obj.stationPoint;
+			stationNameRect[i] = obj.stationNameRect;
+			stationHeight[i] = toInt(obj.stationHeight);
+		}
+		writer.writeInt(len);
+		writer.writeInts(id);
+		writer.writeInts(stationId);
+		writer.writeInts(lineViewId);
+		writer.writePoints(stationPoint);
+		writer.writeRects(stationNameRect);
+		writer.writeInts(stationHeight);
+
+		len = view.segments.length;
+		id = new int[len];
+		lineViewId = new int[len];
+		final int[] segmentId = new int[len];
+		int[] stationViewFromId = new int[len];
+		int[] stationViewToId = new int[len];
+		final ModelSpline[] spline = new ModelSpline[len];
+		for (int i = 0; i < len; i++) {
+			final SegmentView obj = view.segments[i];
+			id[i] = obj.id;
+			lineViewId[i] = obj.lineViewId;
+			segmentId[i] = obj.segmentId;
+			stationViewFromId[i] = obj.stationViewFromId;
+			stationViewToId[i] = obj.stationViewToId;
+			spline[i] = obj.spline;
+		}
+		writer.writeInt(len);
+		writer.writeInts(id);
+		writer.writeInts(lineViewId);
+		writer.writeInts(segmentId);
+		writer.writeInts(stationViewFromId);
+		writer.writeInts(stationViewToId);
+		writer.writeSplines(spline);
+
+		len = view.transfers.length;
+		id = new int[len];
+		final int[] transferId = new int[len];
+		stationViewFromId = new int[len];
+		stationViewToId = new int[len];
+		for (int i = 0; i < len; i++) {
+			final TransferView obj = view.transfers[i];
+			id[i] = obj.id;
+			transferId[i] = obj.transferId;
+			stationViewFromId[i] = obj.stationViewFromId;
+			stationViewToId[i] = obj.stationViewToId;
+		}
+		writer.writeInt(len);
+		writer.writeInts(id);
+		writer.writeInts(transferId);
+		writer.writeInts(stationViewFromId);
+		writer.writeInts(stationViewToId);
+		writer.flush();
+	}
+
+	private static Integer toInteger(int value) {
+		return value == NULL_VALUE ? null : Integer.valueOf(value);
+	}
+
+	private static int toInt(Integer value) {
+		return value == null ? NULL_VALUE : value.intValue();
+	}
+
+	private static Integer[] toIntegerArray(int[] values) {
+		if (values == null) {
+			return null;
+		}
+		final Integer[] res = new Integer[values.length];
+		for (int i = 0; i < values.length; i++) {
+			res[i] = toInteger(values[i]);
+		}
+		return res;
+	}
+
+	private static int[] toIntArray(Integer[] values) {
+		if (values == null) {
+			return null;
+		}
+		final int[] res = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			res[i] = toInt(values[i]);
+		}
+		return res;
+	}
+
+	/** Reads columns from mapped section, string indexes are resolved through string table **/
+	private static class ColumnReader {
+		private final ByteBuffer mBuffer;
+		private final StringTable mStrings;
+
+		ColumnReader(ByteBuffer section, StringTable strings) {
+			mBuffer = section;
+			mStrings = strings;
+		}
+
+		int readInt() {
+			return mBuffer.getInt();
+		}
+
+		long readLong() {
+			return mBuffer.getLong();
+		}
+
+		String readString() throws IOException {
+			return mStrings.get(mBuffer.getInt());
+		}
+
+		int[] readInts(int length) {
+			final int[] values = new int[length];
+			mBuffer.asIntBuffer().get(values);
+			mBuffer.position(mBuffer.position() + length * 4);
+			return values;
+		}
+
+		String[] readStrings(int length) throws IOException {
+			final int[] ids = readInts(length);
+			final String[] values = new String[length];
+			for (int i = 0; i < length; i++) {
+				values[i] = mStrings.get(ids[i]);
+			}
+			return values;
+		}
+
+		int[][] readArrays(int length) {
+			final int[] lengths = readInts(length);
+			final int[] data = readInts(readInt());
+			final int[][] values = new int[length][];
+			int offset = 0;
+			for (int i = 0; i < length; i++) {
+				final int len = lengths[i];
+				if (len != -1) {
+					final int[] value = new int[len];
+					System.arraycopy(data, offset, value, 0, len);
+					values[i] = value;
+					offset += len;
+				}
+			}
+			return values;
+		}
+
+		int[] readIntArray() {
+			return readArrays(1)[0];
+		}
+
+		long[] readLongArray() {
+			final int length = readInt();
+			if (length == -1) {
+				return null;
+			}
+			final long[] values = new long[length];
+			mBuffer.asLongBuffer().get(values);
+			mBuffer.position(mBuffer.position() + length * 8);
+			return values;
+		}
+
+		boolean[] readBooleanArray() {
+			final int[] data = readIntArray();
+			if (data == null) {
+				return null;
+			}
+			final boolean[] values = new boolean[data.length];
+			for (int i = 0; i < data.length; i++) {
+				values[i] = data[i] != 0;
+			}
+			return values;
+		}
+
+		String[] readStringArray() throws IOException {
+			final int[] ids = readIntArray();
+			if (ids == null) {
+				return null;
+			}
+			final String[] values = new String[ids.length];
+			for (int i = 0; i < ids.length; i++) {
+				values[i] = mStrings.get(ids[i]);
+			}
+			return values;
+		}
+
+		ModelPoint[] readPoints(int length) {
+			final int[] x = readInts(length);
+			final int[] y = readInts(length);
+			final ModelPoint[] values = new ModelPoint[length];
+			for (int i = 0; i < length; i++) {
+				if (x[i] != NULL_VALUE) {
+					values[i] = new ModelPoint(x[i], y[i]);
+				}
+			}
+			return values;
+		}
+
+		ModelRect[] readRects(int length) {
+			final int[] left = readInts(length);
+			final int[] top = readInts(length);
+			final int[] right = readInts(length);
+			final int[] bottom = readInts(length);
+			final ModelRect[] values = new ModelRect[length];
+			for (int i = 0; i < length; i++) {
+				if (left[i] != NULL_VALUE) {
+					values[i] = new ModelRect(left[i], top[i], right[i], bottom[i]);
+				}
+			}
+			return values;
+		}
+
+		ModelLocation[] readLocations(int length) {
+			final float[] latitude = readFloats(length);
+			final float[] longtitude = readFloats(length);
+			final float[] height = readFloats(length);
+			final float[] radius = readFloats(length);
+			final ModelLocation[] values = new ModelLocation[length];
+			for (int i = 0; i < length; i++) {
+				if (!Float.isNaN(latitude[i])) {
+					values[i] = new ModelLocation(latitude[i], longtitude[i], height[i], radius[i]);
+				}
+			}
+			return values;
+		}
+
+		ModelSpline[] readSplines(int length) {
+			final int[] type = readInts(length); // -1 for null, 1 for spline
+			final int[][] points = readArrays(length);
+			final ModelSpline[] values = new ModelSpline[length];
+			for (int i = 0; i < length; i++) {
+				if (type[i] != -1) {
+					final ModelSpline spline = new ModelSpline();
+					spline.isSpline = type[i] == 1;
+					final int[] xy = points[i];
+					if (xy != null) {
+						spline.points = new ModelPoint[xy.length / 2];
+						for (int j = 0; j < spline.points.length; j++) {
+							spline.points[j] = new ModelPoint(xy[j * 2], xy[j * 2 + 1]);
+						}
+					}
+					values[i] = spline;
+				}
+			}
+			return values;
+		}
+
+		private float[] readFloats(int length) {
+			final float[] values = new float[length];
+			mBuffer.asFloatBuffer().get(values);
+			mBuffer.position(mBuffer.position() + length * 4);
+			return values;
+		}
+	}
+
+	/** Writes columns read by ColumnReader, strings are interned into shared string table **/
+	private static class ColumnWriter {
+		private final DataOutputStream mOut;
+		private final StringTableWriter mStrings;
+
+		ColumnWriter(ByteArrayOutputStream section, StringTableWriter strings) {
+			mOut = new DataOutputStream(section);
+			mStrings = strings;
+		}
+
+		void flush() throws IOException {
+			mOut.flush();
+		}
+
+		void writeInt(int value) throws IOException {
+			mOut.writeInt(value);
+		}
+
+		void writeLong(long value) throws IOException {
+			mOut.writeLong(value);
+		}
+
+		void writeString(String value) throws IOException {
+			mOut.writeInt(mStrings.intern(value));
+		}
+
+		void writeInts(int[] values) throws IOException {
+			for (int value : values) {
+				mOut.writeInt(value);
+			}
+		}
+
+		// writes first length strings, missing strings are written as null
+		void writeStrings(String[] values, int length) throws IOException {
+			for (int i = 0; i < length; i++) {
+				writeString(values != null && i < values.length ? values[i] : null);
+			}
+		}
+
+		void writeArrays(int[][] values) throws IOException {
+			int total = 0;
+			for (int[] value : values) {
+				mOut.writeInt(value != null ? value.length : -1);
+				total += value != null ? value.length : 0;
+			}
+			mOut.writeInt(total);
+			for (int[] value : values) {
+				if (value != null) {
+					writeInts(value);
+				}
+			}
+		}
+
+		void writeIntArray(int[] values) throws IOException {
+			writeArrays(new int[][] { values });
+		}
+
+		void writeLongArray(long[] values) throws IOException {
+			if (values == null) {
+				mOut.writeInt(-1);
+				return;
+			}
+			mOut.writeInt(values.length);
+			for (long value : values) {
+				mOut.writeLong(value);
+			}
+		}
+
+		void writeBooleanArray(boolean[] values) throws IOException {
+			int[] data = null;
+			if (values != null) {
+				data = new int[values.length];
+				for (int i = 0; i < values.length; i++) {
+					data[i] = values[i] ? 1 : 0;
+				}
+			}
+			writeIntArray(data);
+		}
+
+		void writeStringArray(String[] values) throws IOException {
+			int[] ids = null;
+			if (values != null) {
+				ids = new int[values.length];
+				for (int i = 0; i < values.length; i++) {
+					ids[i] = mStrings.intern(values[i]);
+				}
+			}
+			writeIntArray(ids);
+		}
+
+		void writePoints(ModelPoint[] values) throws IOException {
+			for (ModelPoint p : values) {
+				mOut.writeInt(p != null ? p.x : NULL_VALUE);
+			}
+			for (ModelPoint p : values) {
+				mOut.writeInt(p != null ? p.y : NULL_VALUE);
+			}
+		}
+
+		void writeRects(ModelRect[] values) throws IOException {
+			for (ModelRect r : values) {
+				mOut.writeInt(r != null ? r.left : NULL_VALUE);
+			}
+			for (ModelRect r : values) {
+				mOut.writeInt(r != null ? r.top : NULL_VALUE);
+			}
+			for (ModelRect r : values) {
+				mOut.writeInt(r != null ? r.right : NULL_VALUE);
+			}
+			for (ModelRect r : values) {
+				mOut.writeInt(r != null ? r.bottom : NULL_VALUE);
+			}
+		}
+
+		void writeLocations(ModelLocation[] values) throws IOException {
+			for (ModelLocation l : values) {
+				mOut.writeFloat(l != null ? l.latitude : Float.NaN);
+			}
+			for (ModelLocation l : values) {
+				mOut.writeFloat(l != null ? l.longtitude : Float.NaN);
+			}
+			for (ModelLocation l : values) {
+				mOut.writeFloat(l != null ? l.height : Float.NaN);
+			}
+			for (ModelLocation l : values) {
+				mOut.writeFloat(l != null ? l.radius : Float.NaN);
+			}
+		}
+
+		void writeSplines(ModelSpline[] values) throws IOException {
+			final int[][] points = new int[values.length][];
+			for (int i = 0; i < values.length; i++) {
+				final ModelSpline spline = values[i];
+				mOut.writeInt(spline == null ? -1 : (spline.isSpline ? 1 : 0));
+				if (spline != null && spline.points != null) {
+					final int[] xy = new int[spline.points.length * 2];
+					for (int j = 0; j < spline.points.length; j++) {
+						xy[j * 2] = spline.points[j].x;
+						xy[j * 2 + 1] = spline.points[j].y;
+					}
+					points[i] = xy;
+				}
+			}
+			writeArrays(points);
+		}
+	}
+
+	/**
+	 * Interned strings of the model file: count, count + 1 byte offsets, then utf-8 data.
+	 * Strings are decoded from mapped file on first use.
+	 */
+	private static class StringTable {
+		private final ByteBuffer mBuffer;
+		private final int mDataOffset;
+		private final String[] mStrings;
+
+		StringTable(ByteBuffer section) {
+			mBuffer = section;
+			final int count = section.getInt(0);
+			mDataOffset = 4 + (count + 1) * 4;
+			mStrings = new String[count];
+		}
+
+		String get(int id) throws IOException {
+			if (id == -1) {
+				return null;
+			}
+			String value = mStrings[id];
+			if (value == null) {
+				final int start = mBuffer.getInt(4 + id * 4);
+				final int end = mBuffer.getInt(8 + id * 4);
+				final byte[] data = new byte[end - start];
+				final ByteBuffer buffer = mBuffer.duplicate();
+				buffer.position(mDataOffset + start);
+				buffer.get(data);
+				value = new String(data, ENCODING);
+				mStrings[id] = value;
+			}
+			return value;
+		}
+	}
+
+	private static class StringTableWriter {
+		private final HashMap<String, Integer> mIds = new HashMap<String, Integer>();
+		private final ArrayList<String> mStrings = new ArrayList<String>();
+
+		int intern(String value) {
+			if (value == null) {
+				return -1;
+			}
+			Integer id = mIds.get(value);
+			if (id == null) {
+				id = mStrings.size();
+				mIds.put(value, id);
+				mStrings.add(value);
+			}
+			return id;
+		}
+
+		void write(ByteArrayOutputStream stream) throws IOException {
+			final int count = mStrings.size();
+			final byte[][] data = new byte[count][];
+			for (int i = 0; i < count; i++) {
+				data[i] = mStrings.get(i).getBytes(ENCODING);
+			}
+			final DataOutputStream out = new DataOutputStream(stream);
+			out.writeInt(count);
+			int offset = 0;
+			out.writeInt(offset);
+			for (byte[] value : data) {
+				offset += value.length;
+				out.writeInt(offset);
+			}
+			for (byte[] value : data) {
+				out.write(value);
+			}
+			out.flush();
+		}
+	}
+
+}
@@ -20,21 +20,22 @@
  */
 package org.ametro.model.storage;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import org.ametro.app.Constants;
@@ -51,6 +52,7 @@ import org.ametro.model.TransportSegment;
 import org.ametro.model.TransportStation;
 import org.ametro.model.TransportStationInfo;
 import org.ametro.model.TransportTransfer;
+import org.ametro.model.route.RouteMatrix;
 import org.ametro.util.FileUtil;
 import org.ametro.util.csv.CsvReader;
 import org.ametro.util.csv.CsvWriter;
@@ -58,35 +60,63 @@ import org.ametro.util.csv.CsvWriter;
 public class CsvStorage implements IModelStorage {
 
 	public String[] loadModelLocale(String fileName, Model model, int localeId) throws IOException {
-		final ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(fileName), BUFFER_SIZE));
-		final String localeEntryName = String.format(LOCALE_ENTRY_NAME, model.locales[localeId]);
-		ZipEntry zipEntry;
-		while( (zipEntry = zip.getNextEntry()) != null) { 
-			final String name = zipEntry.getName();
-			if(localeEntryName.equals(name)){
-				String[] texts  = deserializeLocaleTable(zip, model, false);
-				model.localeTexts[localeId] = texts;
-				return texts;
-			}
+		final InputStream stream = getEntryStream(fileName, String.format(LOCALE_ENTRY_NAME, model.locales[localeId]));
+		if(stream == null){
+			return null;
+		}
+		try{
+			String[] texts  = deserializeLocaleTable(stream, model, false);
+			model.localeTexts[localeId] = texts;
+			return texts;
+		}finally{
+			stream.close();
 		}
-		return null;
 	}
 
 	public SchemeView loadModelView(String fileName, Model model, String viewName) throws IOException {
-		final ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(fileName), BUFFER_SIZE));
-		final String viewEntryName = String.format(MAP_ENTRY_NAME, viewName);
-		final int id = model.getViewId(viewName);
-		ZipEntry zipEntry;
-		while( (zipEntry = zip.getNextEntry()) != null) { 
-			final String name = zipEntry.getName();
-			if(viewEntryName.equals(name)){
-				SchemeView view = deserializeMapView(zip, model);
-				model.views[id] = view;
-				return view;
-			}
+		final InputStream stream = getEntryStream(fileName, String.format(MAP_ENTRY_NAME, viewName));
+		if(stream == null){
+			return null;
+		}
+		try{
+			// view is published to model by caller, see SchemeViewCache
+			return deserializeMapView(stream, model);
+		}finally{
+			stream.close();
+		}
+	}
 
+	public RouteMatrix loadRouteMatrix(String fileName, Model model) throws IOException {
+		final File file = new File(fileName);
+		final File matrixFile = new File(fileName + ROUTE_MATRIX_FILE_SUFFIX);
+		if(!matrixFile.exists() || matrixFile.lastModified() < file.lastModified()){
+			// unpack matrix next to model file, so it can be mapped into memory, see deleteUnpackedFiles()
+			final InputStream stream = getEntryStream(fileName, TRANSPORT_DELAYS_ENTRY_NAME);
+			if(stream == null){
+				return null;
+			}
+			final File tempFile = new File(fileName + ROUTE_MATRIX_TEMP_FILE_SUFFIX);
+			try{
+				final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE);
+				try{
+					FileUtil.writeToStream(stream, out, false);
+				}finally{
+					out.close();
+				}
+				FileUtil.delete(matrixFile);
+				FileUtil.move(tempFile, matrixFile);
+			}finally{
+				stream.close();
+				FileUtil.delete(tempFile); // left only if unpacking failed
+			}
 		}
-		return null;
+		return RouteMatrix.map(matrixFile);
+	}
+
+	/** deletes files unpacked next to map file, they are not needed when map is deleted or replaced **/
+	public static void deleteUnpackedFiles(String fileName) {
+		FileUtil.delete(fileName + ROUTE_MATRIX_FILE_SUFFIX);
+		FileUtil.delete(fileName + ROUTE_MATRIX_TEMP_FILE_SUFFIX);
 	}
 
 	public Model loadModel(String fileName, Locale locale) throws IOException{
@@ -99,96 +129,97 @@ public class CsvStorage implements IModelStorage {
 
 	private Model loadModel(String fileName, Locale locale, boolean descriptionOnly) throws IOException
 	{
-		final ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(fileName), BUFFER_SIZE));
-
-		boolean isIndexLoaded = false;
-		final Model model = new Model();
-
-		HashMap<String,SchemeView> views = new HashMap<String, SchemeView>();
-		HashMap<String,String[]> locales = new HashMap<String, String[]>();
-		HashMap<String,MapLayerContainer> layers = new HashMap<String, MapLayerContainer>();
-
-		boolean defaultViewLoaded = false;
-		String defaultLocaleName = null;
-
-		ZipEntry zipEntry;
-		while( (zipEntry = zip.getNextEntry()) != null) { 
-			final String name = zipEntry.getName();
-			if(mMainEntries.contains(name)){
-				if (MAIN_ENTRY_NAME.equals(name)) {
-					deserializeModel(zip, model);
-					model.fileSystemName = fileName;
-					defaultLocaleName = model.getLocaleName(locale);
-					isIndexLoaded = true;
-				} else if (!descriptionOnly) {
-					if ( TRANSPORT_MAPS_ENTRY_NAME.equals(name)) {
-						deserializeMap(zip, model);
-					} else if ( TRANSPORT_LINES_ENTRY_NAME.equals(name)) {
-						deserializeLines(zip, model);
-					} else if ( TRANSPORT_STATIONS_ENTRY_NAME.equals(name)) {
-						deserializeStations(zip, model);
-					} else if ( TRANSPORT_SEGMENTS_ENTRY_NAME.equals(name)) {
-						deserializeSegments(zip, model);
-					} else if ( TRANSPORT_TRANSFERS_ENTRY_NAME.equals(name)) {
-						deserializeTransfers(zip, model);
+		// catalog reads descriptions of all maps, so their archives are not kept open
+		final OpenZipFile openZip = descriptionOnly ? null : getZipFile(fileName);
+		final ZipFile zip = descriptionOnly ? new ZipFile(fileName) : openZip.file;
+		try{
+			final Model model = new Model();
+			if(deserializeEntry(zip, MAIN_ENTRY_NAME, model)){
+				model.fileSystemName = fileName;
+				if(!descriptionOnly){
+					for(String name : TRANSPORT_ENTRY_NAMES){
+						deserializeEntry(zip, name, model);
 					}
 				}
-			}else if(!descriptionOnly && name.startsWith("maps\\")){
-				String viewName = FileUtil.getFileName(name);
-				if(!defaultViewLoaded){
-					SchemeView view = deserializeMapView(zip,model);
-					views.put(viewName, view);
-					defaultViewLoaded = true;
-				}else{
-					views.put(viewName, null);
-				}
-			}else if(name.startsWith("locales\\")){
-				String localeName = FileUtil.getFileName(name);
-				if(descriptionOnly || localeName.equals(defaultLocaleName)){
-					String localeTable[] = deserializeLocaleTable(zip, model, descriptionOnly );
-					locales.put(localeName, localeTable);
-				}else{
-					locales.put(localeName, null);
-				}
-			}else if(!descriptionOnly && name.startsWith("layers\\")){
+				loadDefaults(zip, model, locale, descriptionOnly);
+			}
+			return model;
+		}finally{
+			if(descriptionOnly){
+				zip.close();
+			}else{
+				releaseZipFile(openZip);
 			}
-			zip.closeEntry();
 		}
-		zip.close();
-
-		if(isIndexLoaded){
+	}
 
-			int len = model.locales.length;
-			model.localeTexts = new String[len][];
-			for(int i = 0; i < len; i++){
-				String localeName = model.locales[i];
-				model.localeTexts[i] = locales.get(localeName);
+	private void loadDefaults(ZipFile zip, Model model, Locale locale, boolean descriptionOnly) throws IOException {
+		final String defaultLocaleName = model.getLocaleName(locale);
 
-				if(locale!=null && localeName.equals(defaultLocaleName)){
-					model.texts = model.localeTexts[i];
-					model.localeCurrent = localeName;
-				}else if(localeName.equals(model.localeCurrent)){
-					model.texts = model.localeTexts[i];
+		int len = model.locales.length;
+		model.localeTexts = new String[len][];
+		for(int i = 0; i < len; i++){
+			String localeName = model.locales[i];
+			if(descriptionOnly || localeName.equals(defaultLocaleName)){
+				// other locales are loaded on demand
+				final InputStream stream = getEntryStream(zip, String.format(LOCALE_ENTRY_NAME, localeName));
+				if(stream != null){
+					try{
+						model.localeTexts[i] = deserializeLocaleTable(stream, model, descriptionOnly);
+					}finally{
+						stream.close();
+					}
 				}
 			}
-
-			len = model.viewSystemNames.length;
-			model.views = new SchemeView[len];
-			for(int i = 0; i < len; i++){
-				String viewName = model.viewSystemNames[i];
-				model.views[i] = views.get(viewName);
+			if(locale!=null && localeName.equals(defaultLocaleName)){
+				model.texts = model.localeTexts[i];
+				model.localeCurrent = localeName;
+			}else if(localeName.equals(model.localeCurrent)){
+				model.texts = model.localeTexts[i];
 			}
+		}
 
-			len = layers.size();
-			model.layers = new MapLayerContainer[len];
-			for(int i = 0; i < len; i++){
-				String layerName = model.layerNames[i];
-				model.layers[i] = layers.get(layerName);
+		len = model.viewSystemNames.length;
+		model.views = new SchemeView[len];
+		if(!descriptionOnly && len > 0){
+			// other views are loaded on demand
+			final InputStream stream = getEntryStream(zip, String.format(MAP_ENTRY_NAME, model.viewSystemNames[0]));
+			if(stream != null){
+				try{
+					model.views[0] = deserializeMapView(stream, model);
+				}finally{
+					stream.close();
+				}
 			}
+		}
 
+		model.layers = new MapLayerContainer[0];
+	}
+
+	// returns false if archive has no such entry
+	private boolean deserializeEntry(ZipFile zip, String name, Model model) throws IOException {
+		final InputStream stream = getEntryStream(zip, name);
+		if(stream == null){
+			return false;
+		}
+		try{
+			if (MAIN_ENTRY_NAME.equals(name)) {
+				deserializeModel(stream, model);
+			} else if ( TRANSPORT_MAPS_ENTRY_NAME.equals(name)) {
+				deserializeMap(stream, model);
+			} else if ( TRANSPORT_LINES_ENTRY_NAME.equals(name)) {
+				deserializeLines(stream, model);
+			} else if ( TRANSPORT_STATIONS_ENTRY_NAME.equals(name)) {
+				deserializeStations(stream, model);
+			} else if ( TRANSPORT_SEGMENTS_ENTRY_NAME.equals(name)) {
+				deserializeSegments(stream, model);
+			} else if ( TRANSPORT_TRANSFERS_ENTRY_NAME.equals(name)) {
+				deserializeTransfers(stream, model);
+			}
+		}finally{
+			stream.close();
 		}
-		//Debug.stopMethodTracing();
-		return model;
+		return true;
 	}
 
 	public void saveModel(String fileName, Model model) throws IOException {
@@ -198,7 +229,7 @@ public class CsvStorage implements IModelStorage {
 		zipOut.close();
 	}
 
-	private SchemeView deserializeMapView(ZipInputStream zip, Model model) throws IOException {
+	private SchemeView deserializeMapView(InputStream zip, Model model) throws IOException {
 		final CsvReader reader = new CsvReader(new BufferedReader( new InputStreamReader(zip, ENCODING), BUFFER_SIZE ));
 		final SchemeView view = new SchemeView();
 		view.owner = model;
@@ -280,7 +311,7 @@ public class CsvStorage implements IModelStorage {
 		return view;
 	}
 
-	private String[] deserializeLocaleTable(ZipInputStream zip, Model model, boolean descriptionOnly) throws IOException {
+	private String[] deserializeLocaleTable(InputStream zip, Model model, boolean descriptionOnly) throws IOException {
 		BufferedReader reader = new BufferedReader(new InputStreamReader(zip, ENCODING), BUFFER_SIZE);
 		final int len = descriptionOnly ? model.textLengthDescription : model.textLength;
 		String[] table = new String[len];
@@ -290,7 +321,7 @@ public class CsvStorage implements IModelStorage {
 		return table;
 	}
 
-	private void deserializeTransfers(ZipInputStream zip, final Model model) throws IOException {
+	private void deserializeTransfers(InputStream zip, final Model model) throws IOException {
 		final CsvReader reader = new CsvReader(new BufferedReader( new InputStreamReader(zip, ENCODING), BUFFER_SIZE )); 
 		ArrayList<TransportTransfer> lst = new ArrayList<TransportTransfer>();
 		while(reader.next()){
@@ -310,7 +341,7 @@ public class CsvStorage implements IModelStorage {
 		model.transfers = (TransportTransfer[]) lst.toArray(new TransportTransfer[lst.size()]);
 	}
 
-	private void deserializeSegments(ZipInputStream zip, final Model model) throws IOException {
+	private void deserializeSegments(InputStream zip, final Model model) throws IOException {
 		final CsvReader reader = new CsvReader(new BufferedReader( new InputStreamReader(zip, ENCODING), BUFFER_SIZE )); 
 		ArrayList<TransportSegment> lst = new ArrayList<TransportSegment>();
 		while(reader.next()){
@@ -328,7 +359,7 @@ public class CsvStorage implements IModelStorage {
 		model.segments = (TransportSegment[]) lst.toArray(new TransportSegment[lst.size()]);
 	}
 
-	private void deserializeStations(ZipInputStream zip, final Model model) throws IOException {
+	private void deserializeStations(InputStream zip, final Model model) throws IOException {
 		final CsvReader reader = new CsvReader(new BufferedReader( new InputStreamReader(zip, ENCODING), BUFFER_SIZE )); 
 		ArrayList<TransportStation> lst = new ArrayList<TransportStation>();
 		ArrayList<TransportStationInfo> infos = new ArrayList<TransportStationInfo>();
@@ -348,7 +379,7 @@ public class CsvStorage implements IModelStorage {
 		model.stationInfos = (TransportStationInfo[]) infos.toArray(new TransportStationInfo[infos.size()]);
 	}
 
-	private void deserializeLines(ZipInputStream zip, final Model model) throws IOException {
+	private void deserializeLines(InputStream zip, final Model model) throws IOException {
 		final CsvReader reader = new CsvReader(new BufferedReader( new InputStreamReader(zip, ENCODING), BUFFER_SIZE )); 
 		ArrayList<TransportLine> lst = new ArrayList<TransportLine>();
 		while(reader.next()){
@@ -366,7 +397,7 @@ public class CsvStorage implements IModelStorage {
 		model.lines = (TransportLine[]) lst.toArray(new TransportLine[lst.size()]);	
 	}
 
-	private void deserializeMap(ZipInputStream zip, final Model model) throws IOException {
+	private void deserializeMap(InputStream zip, final Model model) throws IOException {
 		final CsvReader reader = new CsvReader(new BufferedReader( new InputStreamReader(zip, ENCODING), BUFFER_SIZE )); 
 		ArrayList<TransportMap> lst = new ArrayList<TransportMap>();
 		while(reader.next()){
@@ -383,7 +414,7 @@ public class CsvStorage implements IModelStorage {
 	}
 
 
-	private void deserializeModel(ZipInputStream zip, final Model model) throws IOException {
+	private void deserializeModel(InputStream zip, final Model model) throws IOException {
 		final CsvReader reader = new CsvReader(new BufferedReader( new InputStreamReader(zip, ENCODING), BUFFER_SIZE )); 
 		reader.next();
 
@@ -451,6 +482,7 @@ public class CsvStorage implements IModelStorage {
 		serializeTransportStations(model, zip, writer);
 		serializeTransportSegments(model, zip, writer);
 		serializeTransportTransfers(model, zip, writer);
+		serializeRouteMatrix(model, zip);
 
 		serializeMaps(model, zip, writer);
 		serializeLayers(model, zip, writer);
@@ -622,6 +654,13 @@ public class CsvStorage implements IModelStorage {
 		zip.closeEntry();
 	}		
 
+	private void serializeRouteMatrix(final Model model, final ZipOutputStream zip) throws IOException {
+		ZipEntry zipEntry = new ZipEntry(TRANSPORT_DELAYS_ENTRY_NAME);
+		zip.putNextEntry(zipEntry);
+		RouteMatrix.write(model, zip); // rows are streamed into entry while they are calculated
+		zip.closeEntry();
+	}
+
 	private void serializeLocaleTable(final Model model, final ZipOutputStream zip) throws IOException {
 		final int len = model.locales.length;
 		final int textsLen = model.textLength;
@@ -641,7 +680,103 @@ public class CsvStorage implements IModelStorage {
 		}
 	}
 
-	private static HashSet<String> mMainEntries = new HashSet<String>();
+	// returns stream of entry or null if archive has no such entry
+	private static InputStream getEntryStream(ZipFile zip, String name) throws IOException {
+		final ZipEntry entry = zip.getEntry(name);
+		return entry != null ? zip.getInputStream(entry) : null;
+	}
+
+	// returns stream of entry in cached archive or null, archive is held open until stream is closed
+	private static InputStream getEntryStream(String fileName, String name) throws IOException {
+		final OpenZipFile zip = getZipFile(fileName);
+		InputStream stream = null;
+		try{
+			stream = getEntryStream(zip.file, name);
+		}finally{
+			if(stream == null){
+				releaseZipFile(zip);
+			}
+		}
+		if(stream == null){
+			return null;
+		}
+		return new FilterInputStream(stream){
+			private boolean mReleased;
+
+			public void close() throws IOException {
+				try{
+					super.close();
+				}finally{
+					if(!mReleased){
+						mReleased = true;
+						releaseZipFile(zip);
+					}
+				}
+			}
+		};
+	}
+
+	// returns archive with central directory read, archives are kept open for lazy loads of locales and views,
+	// each call is paired with releaseZipFile()
+	private static OpenZipFile getZipFile(String fileName) throws IOException {
+		final File file = new File(fileName);
+		final String key = file.getAbsolutePath();
+		synchronized (mZipFiles) {
+			OpenZipFile zip = mZipFiles.get(key);
+			if(zip != null && (zip.lastModified != file.lastModified() || zip.length != file.length())){
+				// file is replaced by update or import
+				mZipFiles.remove(key);
+				evictZipFile(zip);
+				zip = null;
+			}
+			if(zip == null){
+				zip = new OpenZipFile(file);
+				mZipFiles.put(key, zip);
+			}
+			final Iterator<OpenZipFile> eldest = mZipFiles.values().iterator();
+			while(mZipFiles.size() > MAX_OPEN_ZIP_FILES){
+				final OpenZipFile evicted = eldest.next();
+				eldest.remove();
+				evictZipFile(evicted);
+			}
+			zip.references++;
+			return zip;
+		}
+	}
+
+	private static void releaseZipFile(OpenZipFile zip) throws IOException {
+		synchronized (mZipFiles) {
+			zip.references--;
+			if(zip.evicted && zip.references == 0){
+				zip.file.close();
+			}
+		}
+	}
+
+	// archive dropped from cache is closed by its last reader
+	private static void evictZipFile(OpenZipFile zip) throws IOException {
+		zip.evicted = true;
+		if(zip.references == 0){
+			zip.file.close();
+		}
+	}
+
+	private static class OpenZipFile {
+		final ZipFile file;
+		final long lastModified;
+		final long length;
+		int references; // readers holding archive open, guarded by mZipFiles
+		boolean evicted;
+
+		OpenZipFile(File f) throws IOException {
+			lastModified = f.lastModified();
+			length = f.length();
+			file = new ZipFile(f);
+		}
+	}
+
+	private static final int MAX_OPEN_ZIP_FILES = 2;
+	private static final LinkedHashMap<String, OpenZipFile> mZipFiles = new LinkedHashMap<String, OpenZipFile>(4, 0.75f, true);
 
 	private static final String ENCODING = "utf-8";
 	private static final int BUFFER_SIZE = 8196;
@@ -657,14 +792,17 @@ public class CsvStorage implements IModelStorage {
 	private static final String TRANSPORT_SEGMENTS_ENTRY_NAME = "transport\\segments.csv";
 	private static final String TRANSPORT_LINES_ENTRY_NAME = "transport\\lines.csv";
 	private static final String TRANSPORT_TRANSFERS_ENTRY_NAME = "transport\\transfers.csv";
-
-	static {
-		mMainEntries.add(MAIN_ENTRY_NAME);
-		mMainEntries.add(TRANSPORT_MAPS_ENTRY_NAME);
-		mMainEntries.add(TRANSPORT_STATIONS_ENTRY_NAME);
-		mMainEntries.add(TRANSPORT_SEGMENTS_ENTRY_NAME);
-		mMainEntries.add(TRANSPORT_LINES_ENTRY_NAME);
-		mMainEntries.add(TRANSPORT_TRANSFERS_ENTRY_NAME);
-	}
+	private static final String TRANSPORT_DELAYS_ENTRY_NAME = "transport\\delays.bin";
+
+	private static final String ROUTE_MATRIX_FILE_SUFFIX = ".delays";
+	private static final String ROUTE_MATRIX_TEMP_FILE_SUFFIX = ".delays.tmp";
+
+	private static final String[] TRANSPORT_ENTRY_NAMES = new String[] {
+		TRANSPORT_MAPS_ENTRY_NAME,
+		TRANSPORT_LINES_ENTRY_NAME,
+		TRANSPORT_STATIONS_ENTRY_NAME,
+		TRANSPORT_SEGMENTS_ENTRY_NAME,
+		TRANSPORT_TRANSFERS_ENTRY_NAME
+	};
 
 }
@@ -25,6 +25,7 @@ import java.util.Locale;
 
 import org.ametro.model.SchemeView;
 import org.ametro.model.Model;
+import org.ametro.model.route.RouteMatrix;
 
 public abstract interface IModelStorage {
 	
@@ -34,5 +35,6 @@ public abstract interface IModelStorage {
 	
 	String[] loadModelLocale(String fileName, Model model, int localeId) throws IOException;
 	SchemeView loadModelView(String fileName, Model model, String name) throws IOException;
+	RouteMatrix loadRouteMatrix(String fileName, Model model) throws IOException;
 	
 }
@@ -25,6 +25,8 @@ import java.util.Locale;
 import org.ametro.app.Constants;
 import org.ametro.model.SchemeView;
 import org.ametro.model.Model;
+import org.ametro.model.route.RouteMatrix;
+import org.ametro.util.FileUtil;
 import org.ametro.util.StringUtil;
 
 import android.util.Log;
@@ -40,9 +42,17 @@ public class ModelBuilder {
 			return new PmzStorage();
 		if (fileName.toLowerCase().endsWith(".ametro"))
 			return new CsvStorage();
+		if (fileName.toLowerCase().endsWith(".ametrob"))
+			return new BinaryStorage();
 		return null;
 	}
 
+	/** returns true if storage of the file can load scheme views one by one **/
+	public static boolean isViewLoadingSupported(String fileName) {
+		final IModelStorage storage = getStorage(fileName);
+		return storage != null && !(storage instanceof PmzStorage);
+	}
+
 	public static Model loadModel(String fileName) {
 		return loadModel(fileName, Locale.getDefault());
 	}
@@ -136,6 +146,12 @@ public class ModelBuilder {
 		}
 	}
 
+	/** deletes map file with files its storage unpacked next to it **/
+	public static boolean deleteModel(String fileName) {
+		CsvStorage.deleteUnpackedFiles(fileName);
+		return FileUtil.delete(fileName);
+	}
+
 	public static SchemeView loadModelView(String fileName,
 			Model model, String name) {
 		IModelStorage storage = getStorage(fileName);
@@ -207,4 +223,27 @@ public class ModelBuilder {
 		return null;
 	}
 
+	public static RouteMatrix loadRouteMatrix(String fileName, Model model) {
+		IModelStorage storage = getStorage(fileName);
+		if (storage != null) {
+			try {
+				long startTime = System.currentTimeMillis();
+				RouteMatrix matrix = storage.loadRouteMatrix(fileName, model);
+				if (matrix != null && Log.isLoggable(Constants.LOG_TAG_MAIN, Log.DEBUG)) {
+					Log.d(Constants.LOG_TAG_MAIN, "Model route matrix loading time is "
+							+ (System.currentTimeMillis() - startTime)
+							+ "ms, Provider "
+							+ storage.getClass().getSimpleName());
+				}
+				return matrix;
+			} catch (Throwable e) {
+				if (Log.isLoggable(Constants.LOG_TAG_MAIN, Log.ERROR)) {
+					Log.e(Constants.LOG_TAG_MAIN, "Model route matrix loading error, Provider "
+							+ storage.getClass().getSimpleName(), e);
+				}
+			}
+		}
+		return null;
+	}
+
 }
@@ -31,8 +31,15 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Locale;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -66,6 +73,7 @@ import org.ametro.model.ext.ModelLocation;
 import org.ametro.model.ext.ModelPoint;
 import org.ametro.model.ext.ModelRect;
 import org.ametro.model.ext.ModelSpline;
+import org.ametro.model.route.RouteMatrix;
 import org.ametro.model.util.IniStreamReader;
 import org.ametro.model.util.ModelUtil;
 import org.ametro.util.CollectionUtil;
@@ -118,6 +126,14 @@ public class PmzStorage implements IModelStorage {
 		throw new NotImplementedException();
 	}
 
+	public RouteMatrix loadRouteMatrix(String fileName, Model model) throws IOException {
+		return null; // pmz files have no precomputed delays
+	}
+
+	private static final String IMPORT_THREAD_NAME = "PmzImport";
+	private static final int IMPORT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private static final int MAX_DECODED_FILES = IMPORT_THREADS * 2; // .trp and .map files decoded ahead of import
+
 	private static class PmzImporter {
 
 		private File mFile;
@@ -167,6 +183,10 @@ public class PmzStorage implements IModelStorage {
 		private TreeMap<String,Integer> mDelayIndexes = new TreeMap<String, Integer>();
 
 		private String mCharset;
+
+		private ExecutorService mExecutor;
+		private HashMap<String, Future<IniContent>> mIniFiles = new HashMap<String, Future<IniContent>>(); // .trp and .map files decoded ahead, removed when taken
+		private LinkedList<String> mIniFileQueue = new LinkedList<String>(); // files to decode, in import order
 		
 		private int[] getMapsNumbers(String[] maps) {
 			ArrayList<Integer> res = new ArrayList<Integer>();
@@ -263,12 +283,18 @@ public class PmzStorage implements IModelStorage {
 				findModelFiles(); // find map files in archive
 				importCityFile(); // load data from .cty file - map description
 				if(!mDescriptionOnly) { 
+					mExecutor = createExecutor();
+					readIniFiles(); // decode first .trp and .map files in background
 					importTrpFiles(); // load data from .trp files 
 					importMapFiles(); // load data from .map files
 					//importTxtFiles(); // load data from .txt files
 				}
 				postProcessModel(); // make model from imported data
 			}finally{
+				if(mExecutor!=null){
+					mExecutor.shutdownNow();
+					mExecutor = null;
+				}
 				if(mZipFile!=null){
 					mZipFile.close();
 				}
@@ -374,7 +400,62 @@ public class PmzStorage implements IModelStorage {
 			}
 		}
 
+		// views are made in parallel, texts and line defaults are joined in file order as in serial import
 		private void importMapFiles() throws IOException {
+			final LinkedList<Future<MapViewInfo>> views = new LinkedList<Future<MapViewInfo>>();
+			final HashMap<String, LineView> viewsDefaults = new HashMap<String, LineView>();
+			int id = 0;
+			for(final String fileName : mMapFiles){ // for each .map file in catalog
+				final int viewId = id++;
+				final Future<IniContent> content = takeIniFile(fileName);
+				// decoding task is queued before, so it never waits for this one
+				views.add(mExecutor.submit(new Callable<MapViewInfo>() {
+					public MapViewInfo call() throws Exception {
+						return makeMapView(viewId, fileName, getResult(content));
+					}
+				}));
+				if(views.size() >= MAX_DECODED_FILES){
+					// decoded files of joined views are released
+					addMapView(getResult(views.removeFirst()), viewsDefaults);
+				}
+			}
+			while(!views.isEmpty()){
+				addMapView(getResult(views.removeFirst()), viewsDefaults);
+			}
+		}
+
+		private void addMapView(MapViewInfo info, HashMap<String, LineView> viewsDefaults) {
+			final SchemeView view = info.view;
+			mMapViews.add(view);
+			mMapViewSystemNames.add(view.systemName);
+
+			for(LineViewInfo lineInfo : info.lines){
+				final LineView lineView = lineInfo.view;
+				final LineView def = viewsDefaults.get(lineInfo.section);
+				if(def == null){
+					viewsDefaults.put(lineInfo.section, lineView);
+				}else{
+					if(!lineInfo.hasLineColor){
+						lineView.lineColor = def.lineColor;
+					}
+					if(!lineInfo.hasLabelColor){
+						lineView.labelColor = def.labelColor;
+					}
+					if(!lineInfo.hasLabelBackgroundColor){
+						lineView.labelBackgroundColor = def.labelBackgroundColor;
+					}
+				}
+			}
+
+			final ImportMapEntity entity = info.entity;
+			if(entity!=null){
+				view.name = appendLocalizedText(entity.getName(LOCALE_EN), entity.getName(LOCALE_RU));
+			}else{
+				view.name = appendLocalizedText(view.systemName);
+			}
+		}
+
+		private MapViewInfo makeMapView(int id, String fileName, IniContent ini) {
 			final Model model = mModel;
 
 			final ArrayList<LineView> lines = new ArrayList<LineView>();
@@ -383,140 +464,129 @@ public class PmzStorage implements IModelStorage {
 			final HashMap<Integer,Integer> stationViews = new HashMap<Integer, Integer>();
 			final HashMap<Integer,Integer> lineViewIndex = new HashMap<Integer, Integer>();
 
-			final HashMap<String, LineView> viewsDefaults = new HashMap<String, LineView>();
-
-			for(String fileName : mMapFiles){ // for each .map file in catalog
-				InputStream stream = mZipFile.getInputStream(mZipFile.getEntry(fileName));
-				IniStreamReader ini = new IniStreamReader(new InputStreamReader(stream, mCharset)); // access as INI file
-
-				SchemeView view = new SchemeView();
-				view.id = mMapViews.size();
-				view.systemName = fileName;
-				view.stationDiameter = 11;
-				view.lineWidth = 9;
-				view.isUpperCase = true;
-				view.isWordWrap = true;
-				view.isVector = true;
-				view.owner = model;
-				mMapViews.add(view);
-				mMapViewSystemNames.add(view.systemName);
-
-				TransportLine line = null;
-				LineView lineView = null;
-
-				lines.clear();
-				stations.clear();
-				additionalNodes.clear();
-				stationViews.clear();
-				lineViewIndex.clear();
-
-				ModelPoint[] coords = null;
-				ModelRect[] rects = null;
-				Integer[] heights = null;
-
-				while(ini.readNext()){ // for each key in file
-					final String key = ini.getKey(); // extract current properties
-					final String value = ini.getValue();
-					final String section = ini.getSection();
-					final boolean isSectionChanged = ini.isSectionChanged(); 
-
-					if(lineView!=null && isSectionChanged){
-						makeStationViews(line, lineView, stationViews, stations, coords, rects, heights);
-						lineView = null;
-						line = null;
-						coords = null;
-						rects = null;
-						heights = null;						
-					}
+			final MapViewInfo info = new MapViewInfo();
+
+			SchemeView view = new SchemeView();
+			view.id = id;
+			view.systemName = fileName;
+			view.stationDiameter = 11;
+			view.lineWidth = 9;
+			view.isUpperCase = true;
+			view.isWordWrap = true;
+			view.isVector = true;
+			view.owner = model;
+			info.view = view;
+
+			TransportLine line = null;
+			LineView lineView = null;
+			LineViewInfo lineInfo = null;
+
+			ModelPoint[] coords = null;
+			ModelRect[] rects = null;
+			Integer[] heights = null;
+
+			while(ini.readNext()){ // for each key in file
+				final String key = ini.getKey(); // extract current properties
+				final String value = ini.getValue();
+				final String section = ini.getSection();
+				final boolean isSectionChanged = ini.isSectionChanged(); 
 
-					if(section.startsWith("Options")){ // for line sections
-						if(key.equalsIgnoreCase("ImageFileName")){ // store line name parameter
-							view.backgroundSystemName = value;
-						}else if(key.equalsIgnoreCase("StationDiameter")){
-							view.stationDiameter = StringUtil.parseInt(value, view.stationDiameter);
-						}else if(key.equalsIgnoreCase("LinesWidth")){
-							view.lineWidth = StringUtil.parseInt(value, view.lineWidth);
-						}else if(key.equalsIgnoreCase("UpperCase")){
-							view.isUpperCase = StringUtil.parseBoolean(value, view.isUpperCase);
-						}else if(key.equalsIgnoreCase("WordWrap")){
-							view.isWordWrap = StringUtil.parseBoolean(value, view.isWordWrap);
-						}else if(key.equalsIgnoreCase("IsVector")){
-							view.isVector = StringUtil.parseBoolean(value, view.isVector);
-						}else if(key.equalsIgnoreCase("Transports")){
-							view.transports = getMapsNumbers(StringUtil.parseStringArray(value));
-						}else if(key.equalsIgnoreCase("CheckedTransports")){
-							view.transportsChecked = getMapsNumbers(StringUtil.parseStringArray(value));
-						}			
-					}else if(section.equalsIgnoreCase("AdditionalNodes")){
-						makeAdditionalNodes(additionalNodes, stationViews, value);
-					}else{
-						if(isSectionChanged){
-							line = mTransportLineIndex.get(section);
-							if(line!=null){
-								lineView = new LineView();
-
-								lineView.labelBackgroundColor = DEFAULT_LINE_BACKGOUND_COLOR;
-								
-								LineView def = viewsDefaults.get(section);
-								if(def == null){
-									viewsDefaults.put(section, lineView);
-								}else{
-									lineView.labelColor = def.labelColor;
-									lineView.lineColor = def.lineColor;
-									lineView.labelBackgroundColor = def.labelBackgroundColor;
-								}
-								lineView.id = lines.size();
-								lineView.lineWidth = view.lineWidth;
-								lineView.lineId = line.id;
-								lineView.owner = model;
-								lines.add(lineView);
-								lineViewIndex.put(line.id, lineView.id);
-							}
-						}
-						if(lineView!=null){					
-							if(key.equalsIgnoreCase("Color")){ // store line name parameter
-								lineView.lineColor = StringUtil.parseColor(value);
-							}else if(key.equalsIgnoreCase("LabelsColor")){
-								lineView.labelColor = StringUtil.parseColor(value);
-							}else if(key.equalsIgnoreCase("Coordinates")){
-								coords = StringUtil.parseModelPointArray(value);
-							}else if(key.equalsIgnoreCase("Rects")){
-								rects = StringUtil.parsePmzModelRectArray(value);
-							}else if(key.equalsIgnoreCase("Heights")){
-								heights = StringUtil.parseIntegerArray(value);
-							}else if(key.equalsIgnoreCase("Rect")){
-								lineView.lineNameRect = StringUtil.parseModelRect(value);
-							}else if(key.equalsIgnoreCase("Width")){
-								lineView.lineWidth = StringUtil.parseInt(value, view.lineWidth);
-							}else if(key.equalsIgnoreCase("LabelsBColor")){
-								lineView.labelBackgroundColor = StringUtil.parseColor(value, DEFAULT_LINE_BACKGOUND_COLOR);
-							}
-						}
-					}
-				}
-				// finalize map view
-				if(lineView!=null){
+				if(lineView!=null && isSectionChanged){
 					makeStationViews(line, lineView, stationViews, stations, coords, rects, heights);
+					lineView = null;
+					lineInfo = null;
+					line = null;
+					coords = null;
+					rects = null;
+					heights = null;						
 				}
-				view.lines = (LineView[]) lines.toArray(new LineView[lines.size()]);
-				view.stations = (StationView[]) stations.toArray(new StationView[lines.size()]);
-				view.segments = makeSegmentViews(view, lineViewIndex, stationViews, additionalNodes);
-				view.transfers = makeTransferViews(view, stationViews);
 
-				ImportMapEntity entity = mImportMapDirectory.get(mFile.getName(), view.systemName);
-				if(entity!=null){
-					view.transportTypes = entity.getTransportType();
-					view.name = appendLocalizedText(entity.getName(LOCALE_EN), entity.getName(LOCALE_RU));
-					view.isMain = entity.isMain();
+				if(section.startsWith("Options")){ // for line sections
+					if(key.equalsIgnoreCase("ImageFileName")){ // store line name parameter
+						view.backgroundSystemName = value;
+					}else if(key.equalsIgnoreCase("StationDiameter")){
+						view.stationDiameter = StringUtil.parseInt(value, view.stationDiameter);
+					}else if(key.equalsIgnoreCase("LinesWidth")){
+						view.lineWidth = StringUtil.parseInt(value, view.lineWidth);
+					}else if(key.equalsIgnoreCase("UpperCase")){
+						view.isUpperCase = StringUtil.parseBoolean(value, view.isUpperCase);
+					}else if(key.equalsIgnoreCase("WordWrap")){
+						view.isWordWrap = StringUtil.parseBoolean(value, view.isWordWrap);
+					}else if(key.equalsIgnoreCase("IsVector")){
+						view.isVector = StringUtil.parseBoolean(value, view.isVector);
+					}else if(key.equalsIgnoreCase("Transports")){
+						view.transports = getMapsNumbers(StringUtil.parseStringArray(value));
+					}else if(key.equalsIgnoreCase("CheckedTransports")){
+						view.transportsChecked = getMapsNumbers(StringUtil.parseStringArray(value));
+					}			
+				}else if(section.equalsIgnoreCase("AdditionalNodes")){
+					makeAdditionalNodes(additionalNodes, stationViews, value);
 				}else{
-					view.transportTypes = 0;
-					view.name = appendLocalizedText(view.systemName);
-					view.isMain = false;
+					if(isSectionChanged){
+						line = mTransportLineIndex.get(section);
+						if(line!=null){
+							lineView = new LineView();
+
+							lineView.labelBackgroundColor = DEFAULT_LINE_BACKGOUND_COLOR;
+
+							lineView.id = lines.size();
+							lineView.lineWidth = view.lineWidth;
+							lineView.lineId = line.id;
+							lineView.owner = model;
+							lines.add(lineView);
+							lineViewIndex.put(line.id, lineView.id);
+
+							lineInfo = new LineViewInfo();
+							lineInfo.section = section;
+							lineInfo.view = lineView;
+							info.lines.add(lineInfo);
+						}
+					}
+					if(lineView!=null){					
+						if(key.equalsIgnoreCase("Color")){ // store line name parameter
+							lineView.lineColor = StringUtil.parseColor(value);
+							lineInfo.hasLineColor = true;
+						}else if(key.equalsIgnoreCase("LabelsColor")){
+							lineView.labelColor = StringUtil.parseColor(value);
+							lineInfo.hasLabelColor = true;
+						}else if(key.equalsIgnoreCase("Coordinates")){
+							coords = StringUtil.parseModelPointArray(value);
+						}else if(key.equalsIgnoreCase("Rects")){
+							rects = StringUtil.parsePmzModelRectArray(value);
+						}else if(key.equalsIgnoreCase("Heights")){
+							heights = StringUtil.parseIntegerArray(value);
+						}else if(key.equalsIgnoreCase("Rect")){
+							lineView.lineNameRect = StringUtil.parseModelRect(value);
+						}else if(key.equalsIgnoreCase("Width")){
+							lineView.lineWidth = StringUtil.parseInt(value, view.lineWidth);
+						}else if(key.equalsIgnoreCase("LabelsBColor")){
+							lineView.labelBackgroundColor = StringUtil.parseColor(value, DEFAULT_LINE_BACKGOUND_COLOR);
+							lineInfo.hasLabelBackgroundColor = true;
+						}
+					}
 				}
-				
-				fixViewDimensions(view);
 			}
-
+			// finalize map view
+			if(lineView!=null){
+				makeStationViews(line, lineView, stationViews, stations, coords, rects, heights);
+			}
+			view.lines = (LineView[]) lines.toArray(new LineView[lines.size()]);
+			view.stations = (StationView[]) stations.toArray(new StationView[lines.size()]);
+			view.segments = makeSegmentViews(view, lineViewIndex, stationViews, additionalNodes);
+			view.transfers = makeTransferViews(view, stationViews);
+
+			ImportMapEntity entity = mImportMapDirectory.get(mFile.getName(), view.systemName);
+			if(entity!=null){
+				view.transportTypes = entity.getTransportType();
+				view.isMain = entity.isMain();
+			}else{
+				view.transportTypes = 0;
+				view.isMain = false;
+			}
+			info.entity = entity;
+			
+			fixViewDimensions(view);
+			return info;
 		}
 
 		private void makeAdditionalNodes(
@@ -673,8 +743,7 @@ public class PmzStorage implements IModelStorage {
 
 		private void importTrpFiles() throws IOException {
 			for(String fileName : mTrpFiles){ // for each .trp file in catalog
-				InputStream stream = mZipFile.getInputStream(mZipFile.getEntry(fileName));
-				IniStreamReader ini = new IniStreamReader(new InputStreamReader(stream, mCharset)); // access as INI file
+				IniContent ini = getResult(takeIniFile(fileName)); // decoded in background, objects are made in file order
 
 				TransportMap map = new TransportMap(); // create new transport map
 				map.id = mTransportMaps.size();
@@ -1238,6 +1307,75 @@ public class PmzStorage implements IModelStorage {
 			}
 		}
 
+		private void readIniFiles() {
+			mIniFileQueue.addAll(mTrpFiles);
+			mIniFileQueue.addAll(mMapFiles);
+			readNextIniFiles();
+		}
+
+		// keeps limited number of files decoded ahead, so whole archive is not held decoded in memory
+		private void readNextIniFiles() {
+			while(mIniFiles.size() < MAX_DECODED_FILES && !mIniFileQueue.isEmpty()){
+				final String fileName = mIniFileQueue.removeFirst();
+				mIniFiles.put(fileName, readIniFile(fileName));
+			}
+		}
+
+		// returns decoding of the file, it is dropped from files decoded ahead and next file is queued
+		private Future<IniContent> takeIniFile(String fileName) {
+			Future<IniContent> content = mIniFiles.remove(fileName);
+			if(content == null){
+				mIniFileQueue.remove(fileName);
+				content = readIniFile(fileName);
+			}
+			readNextIniFiles();
+			return content;
+		}
+
+		private Future<IniContent> readIniFile(final String fileName) {
+			return mExecutor.submit(new Callable<IniContent>() {
+				public IniContent call() throws Exception {
+					InputStream stream = mZipFile.getInputStream(mZipFile.getEntry(fileName));
+					try{
+						return new IniContent(new IniStreamReader(new InputStreamReader(stream, mCharset)));
+					}finally{
+						stream.close();
+					}
+				}
+			});
+		}
+
+		private static <T> T getResult(Future<T> future) throws IOException {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Import interrupted");
+			} catch (ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if(cause instanceof IOException){
+					throw (IOException)cause;
+				}else if(cause instanceof RuntimeException){
+					throw (RuntimeException)cause;
+				}else if(cause instanceof Error){
+					throw (Error)cause;
+				}
+				final IOException ex = new IOException(cause.toString());
+				ex.initCause(cause);
+				throw ex;
+			}
+		}
+
+		private static ExecutorService createExecutor() {
+			return Executors.newFixedThreadPool(IMPORT_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, IMPORT_THREAD_NAME);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
 		public Model getModel() throws IOException{
 			if(mModel==null){
 				execute();
@@ -1247,6 +1385,74 @@ public class PmzStorage implements IModelStorage {
 
 	}
 
+	/** keys of INI file read in advance, read the same way as by IniStreamReader **/
+	private static class IniContent
+	{
+		private static class Entry
+		{
+			public String section;
+			public String key;
+			public String value;
+			public boolean isSectionChanged;
+		}
+
+		private final ArrayList<Entry> mEntries = new ArrayList<Entry>();
+		private Entry mEntry;
+		private int mPosition;
+
+		public IniContent(IniStreamReader ini) throws IOException {
+			while(ini.readNext()){
+				final Entry entry = new Entry();
+				entry.section = ini.getSection();
+				entry.key = ini.getKey();
+				entry.value = ini.getValue();
+				entry.isSectionChanged = ini.isSectionChanged();
+				mEntries.add(entry);
+			}
+		}
+
+		public boolean readNext(){
+			if(mPosition < mEntries.size()){
+				mEntry = mEntries.get(mPosition++);
+				return true;
+			}
+			return false;
+		}
+
+		public String getSection(){
+			return mEntry.section;
+		}
+
+		public String getKey(){
+			return mEntry.key;
+		}
+
+		public String getValue(){
+			return mEntry.value;
+		}
+
+		public boolean isSectionChanged(){
+			return mEntry.isSectionChanged;
+		}
+	}
+
+	private static class MapViewInfo
+	{
+		public SchemeView view;
+		public ImportMapEntity entity;
+		public ArrayList<LineViewInfo> lines = new ArrayList<LineViewInfo>();
+	}
+
+	private static class LineViewInfo
+	{
+		public String section;
+		public LineView view;
+		// colors set by .map file, other colors are taken from first view of the line
+		public boolean hasLineColor;
+		public boolean hasLabelColor;
+		public boolean hasLabelBackgroundColor;
+	}
+
 	private static class StationInfo
 	{
 		public ArrayList<String> captions = new ArrayList<String>();
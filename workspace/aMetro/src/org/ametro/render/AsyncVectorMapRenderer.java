@@ -2,6 +2,13 @@ package org.ametro.render;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.ametro.model.SchemeView;
 import org.ametro.model.SegmentView;
@@ -12,12 +19,12 @@ import android.app.Activity;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
-import android.os.Handler;
 import android.util.Log;
 import android.view.View;
 
@@ -25,78 +32,108 @@ public class AsyncVectorMapRenderer implements IVectorMapRenderer {
 
 	protected static final String TAG = "AsyncVectorMapView";
 
-	private RenderProgram mRenderer;
-	private SchemeView mScheme;
+	private static final int TILE_SIZE = TileCache.TILE_SIZE;
+	private static final int FALLBACK_LEVELS = 4; // coarser levels searched for missing tile
+	private static final int PREFETCH_STEPS = 8; // samples of viewport along predicted path
+
+	private static final String TILE_THREAD_NAME = "TileRenderer";
+	private static final int TILE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private static final int TILE_BATCH = TILE_THREADS * 2; // tiles rendered between viewport checks
+	private static ExecutorService mTileExecutor;
+
+	private static final long FRAME_NANOS = 1000000000L / 60; // draw longer than frame drops it
+
+	// viewport published by setMatrix, never changed after publishing
+	private static class Viewport {
+		final Matrix Matrix;
+		final float Scale;
+		final RectF SchemeRect;
+		final RectF ScreenRect;
+
+		Viewport(Matrix matrix, float scale, RectF schemeRect, RectF screenRect) {
+			Matrix = matrix;
+			Scale = scale;
+			SchemeRect = schemeRect;
+			ScreenRect = screenRect;
+		}
+	}
+
+	// UI thread never waits for rendering: state is swapped by volatile references,
+	// only short tile cache operations are synchronized
+	private volatile RenderProgram mRenderer;
+	private volatile SchemeView mScheme;
+	private volatile Viewport mViewport;
+	private volatile RectF mPredictedRect; // scheme rectangle of predicted viewport, null if none
 
 	private RenderThread mRenderThread;
-	
-	private final Matrix mMatrix = new Matrix();
-	private final Matrix mInvertedMatrix = new Matrix();
-	private final Matrix mRenderMatrix = new Matrix();
-
-	private final RectF mScreenRect = new RectF();
-	private final RectF mSchemeRect = new RectF();
-
-	private MapCache mCache;
-	private MapCache mOldCache;
-	
-	private final RectF mRenderViewPort = new RectF();
-	private final RectF mRenderViewPortVertical = new RectF();
-	private final RectF mRenderViewPortHorizontal = new RectF();
-	private final RectF mRenderViewPortIntersection = new RectF();
-	
+
+	private final TileCache mTiles;
+	private final Paint mTilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final RectF mTileRect = new RectF();
+	private final Rect mTileRange = new Rect();
+
+	// tiles drawn on screen: rendered at current level, drawn from other level, nothing to draw
+	// guarded by mTiles
+	private int mTileHits;
+	private int mTileMisses;
+	private int mTileBlanks;
+	private int mTilePrefetches;
+	private int mFrames;
+	private int mDroppedFrames;
+	private long mMaxFrameNanos;
+
 	private final int mMemoryClass;
-	
-	private float mScale;
-	private float mCurrX;
-	private float mCurrY;
-	private float mCurrWidth;
-	private float mCurrHeight;
-	
+	private final long mMemoryLimit; // shared by tiles and BitmapPool
+
 	private View mCanvas;
 
-	private boolean mIsRenderFailed = false;
-	private boolean mAntiAliasEnabled = true;
-	private boolean mAntiAliasCurrentState = false;
-	
-	private final float[] mMatrixValues = new float[9];
-	
+	private volatile boolean mIsRenderFailed = false;
+	private volatile boolean mAntiAliasEnabled = true;
+	private volatile boolean mAntiAliasCurrentState = false;
+
 	private boolean isUpdatesEnabled;
-	private boolean isEntireMapCached;
-	
-	private final Handler mPrivateHandler = new Handler();
 
 	public AsyncVectorMapRenderer(View container, SchemeView scheme, RenderProgram renderProgram) {
 		this.mCanvas = container;
 		this.mScheme = scheme;
 		mMemoryClass = getMemoryClass(container.getContext());
+		// tiles and pooled buffers share the memory limit of former render cache
+		mMemoryLimit = BitmapPool.getMemoryLimit(mMemoryClass);
+		mTiles = new TileCache((int)(BitmapPool.setMemoryLimit(mMemoryLimit) / TileCache.TILE_BYTES));
+		mViewport = new Viewport(new Matrix(), 1.0f, new RectF(), new RectF());
 		setScheme(scheme, renderProgram);
 	}
 
 	public boolean isRenderFailed(){
-		synchronized (this) {
-			return mIsRenderFailed;
-		}
+		return mIsRenderFailed;
 	}
-	
+
 	public void setScheme(SchemeView scheme, RenderProgram renderProgram) {
-		synchronized (this) {
-			//Log.i(TAG, "Set scheme.");
-			mRenderer = renderProgram;
-			mRenderer.setRenderFilter(RenderProgram.ALL);
-			mRenderer.setAntiAlias(mAntiAliasEnabled);
-			mAntiAliasCurrentState = mAntiAliasEnabled;
-			mRenderer.setSelection(null, null, null);
-		}
+		//Log.i(TAG, "Set scheme.");
+		renderProgram.setRenderFilter(RenderProgram.ALL);
+		renderProgram.setAntiAlias(mAntiAliasEnabled);
+		mAntiAliasCurrentState = mAntiAliasEnabled;
+		renderProgram.setSelection(null, null, null);
+		mScheme = scheme;
+		mRenderer = renderProgram;
+		mTiles.clear();
 	}
 
 	public void setSchemeSelection(ArrayList<StationView> stations, ArrayList<SegmentView> segments, ArrayList<TransferView> transfers) {
-		synchronized (this) {
-			//Log.i(TAG, "Set scheme selection.");
-			mRenderer.setSelection(stations, segments, transfers);
-			if(mRenderThread!=null){
-				mRenderThread.postRebuildCache();
-			}
+		//Log.i(TAG, "Set scheme selection.");
+		mRenderer.setSelection(stations, segments, transfers);
+		rebuildCache();
+	}
+
+	public void setSchemeTravelTimes(long[] delays, long bucketSize) {
+		mRenderer.setTravelTimes(delays, bucketSize);
+		rebuildCache();
+	}
+
+	private void rebuildCache() {
+		mTiles.invalidate();
+		if(mRenderThread!=null){
+			mRenderThread.postRenderTiles();
 		}
 	}
 
@@ -110,11 +147,11 @@ public class AsyncVectorMapRenderer implements IVectorMapRenderer {
 		//Log.i(TAG,"Renderer dettached.");
 		mRenderThread.shutdown();
 	}
-		
+
 	public void setUpdatesEnabled(boolean enabled){
 		isUpdatesEnabled = enabled;
-	}	
-	
+	}
+
 	public boolean isUpdatesEnabled() {
 		return isUpdatesEnabled;
 	}
@@ -122,318 +159,357 @@ public class AsyncVectorMapRenderer implements IVectorMapRenderer {
 	public void setAntiAliasEnabled(boolean enabled) {
 		mAntiAliasEnabled = enabled;
 	}
-	
+
 	public void draw(Canvas canvas) {
 		//Log.d(TAG,"draw map");
-		if(mCache==null){
-			mRenderThread.postRebuildCache();
-			mRenderThread.waitComplete();
+		if(mIsRenderFailed){
+			return;
 		}
-		synchronized (this) {
-			if(mIsRenderFailed){
-				return;
+		final long start = System.nanoTime();
+		final Viewport viewport = mViewport;
+		boolean renderRequired = false;
+		boolean blank = false;
+		canvas.clipRect(viewport.ScreenRect);
+		canvas.drawColor(Color.WHITE);
+		final int level = TileCache.getLevel(viewport.Scale);
+		final Rect range = getTileRange(viewport.SchemeRect, level, mTileRange);
+		synchronized (mTiles) {
+			for(int y = range.top; y <= range.bottom; y++){
+				for(int x = range.left; x <= range.right; x++){
+					final TileCache.Tile tile = mTiles.get(level, x, y);
+					if(tile!=null){
+						drawTile(canvas, viewport.Matrix, tile);
+						renderRequired |= !mTiles.isValid(tile);
+						mTileHits++;
+					}else{
+						// show coarser or finer tiles until this one is rendered
+						if(drawFallbackTile(canvas, viewport.Matrix, level, x, y)){
+							mTileMisses++;
+						}else{
+							mTileBlanks++;
+							blank = true;
+						}
+						renderRequired = true;
+					}
+				}
 			}
-			// prepare transform matrix
-			final Matrix m = mRenderMatrix;
-			if(mCache.Scale!=mScale){
-				// if we're zooming - at first "roll-back" previous cache transform
-				m.set(mCache.InvertedMatrix);
-				// next apply current transformation
-				m.postConcat(mMatrix);
-	
-			}else{
-				// if we're using cache - simple translate origin 
-				m.setTranslate(mCurrX - mCache.X, mCurrY - mCache.Y);
+			final long time = System.nanoTime() - start;
+			mFrames++;
+			if(time > FRAME_NANOS){
+				mDroppedFrames++;
 			}
-			canvas.clipRect(mScreenRect);
-			canvas.drawColor(Color.WHITE);
-			canvas.drawBitmap(mCache.Image, m, null);
-			
-			if(isUpdatesEnabled){
-				//Log.i(TAG, "cache: " + StringUtil.formatRectF(mCache.ViewRect) + " vs. screen: " + StringUtil.formatRectF(mSchemeRect) + ", hit = "+ mCache.hit(mSchemeRect) );
-				if(mCache.Scale!=mScale){
-					mRenderThread.postRebuildCache();
-				}else if(!isEntireMapCached && !mCache.hit(mSchemeRect)){
-					mRenderThread.postUpdateCache();
+			mMaxFrameNanos = Math.max(mMaxFrameNanos, time);
+		}
+		if((isUpdatesEnabled || blank) && renderRequired){
+			mRenderThread.postRenderTiles();
+		}
+	}
+
+	private void drawTile(Canvas canvas, Matrix matrix, TileCache.Tile tile) {
+		final RectF rect = getTileRect(tile.Level, tile.X, tile.Y, mTileRect);
+		matrix.mapRect(rect);
+		canvas.drawBitmap(tile.Image, null, rect, mTilePaint);
+	}
+
+	// returns false if nothing was drawn in place of the tile
+	private boolean drawFallbackTile(Canvas canvas, Matrix matrix, int level, int x, int y) {
+		canvas.save();
+		final RectF clip = getTileRect(level, x, y, new RectF());
+		matrix.mapRect(clip);
+		canvas.clipRect(clip);
+		try{
+			for(int i = 1; i <= FALLBACK_LEVELS; i++){
+				final TileCache.Tile tile = mTiles.get(level - i, x >> i, y >> i);
+				if(tile!=null){
+					drawTile(canvas, matrix, tile);
+					return true;
+				}
+			}
+			boolean found = false;
+			for(int dy = 0; dy < 2; dy++){
+				for(int dx = 0; dx < 2; dx++){
+					final TileCache.Tile tile = mTiles.get(level + 1, x * 2 + dx, y * 2 + dy);
+					if(tile!=null){
+						drawTile(canvas, matrix, tile);
+						found = true;
+					}
 				}
 			}
+			return found;
+		}finally{
+			canvas.restore();
 		}
 	}
 
 	public void setMatrix(Matrix newMatrix) {
-		synchronized (this) {
-			mMatrix.set(newMatrix);
-			mMatrix.invert(mInvertedMatrix);
-			mMatrix.getValues(mMatrixValues);
-			mScale = mMatrixValues[Matrix.MSCALE_X];
-			mCurrX = mMatrixValues[Matrix.MTRANS_X];
-			mCurrY = mMatrixValues[Matrix.MTRANS_Y];
-			mCurrWidth = mScheme.width * mScale;
-			mCurrHeight = mScheme.height * mScale;
-			
-			mSchemeRect.set(0, 0, mCanvas.getWidth(), mCanvas.getHeight());
-			mInvertedMatrix.mapRect(mSchemeRect);
-			mScreenRect.set(mSchemeRect);
-			mMatrix.mapRect(mScreenRect);
-			
-			mIsRenderFailed = false;
+		final Matrix matrix = new Matrix(newMatrix);
+		final Matrix inverted = new Matrix();
+		matrix.invert(inverted);
+		final float[] values = new float[9];
+		matrix.getValues(values);
+
+		final RectF schemeRect = new RectF(0, 0, mCanvas.getWidth(), mCanvas.getHeight());
+		inverted.mapRect(schemeRect);
+		final RectF screenRect = new RectF(schemeRect);
+		matrix.mapRect(screenRect);
+
+		// keep twice the viewport in cache while render memory allows, extra tiles are taken from pool share
+		final int visible = (mCanvas.getWidth() / TILE_SIZE + 2) * (mCanvas.getHeight() / TILE_SIZE + 2);
+		final int capacity = (int)Math.min(visible * 2, mMemoryLimit / TileCache.TILE_BYTES);
+		if(mTiles.getCapacity() < capacity){
+			mTiles.setCapacity(capacity);
+			BitmapPool.setMaxBytes(mMemoryLimit - (long)capacity * TileCache.TILE_BYTES);
 		}
+
+		mViewport = new Viewport(matrix, values[Matrix.MSCALE_X], schemeRect, screenRect);
+		mIsRenderFailed = false;
 	}
-	
-	void rebuildCache() {
-		//Log.i(TAG, "Rebuild cache");
-		try{
-			int memoryLimit = 4 * 1024 * 1024 * mMemoryClass / 16;
-			int bitmapSize = (int)mCurrWidth * (int)mCurrHeight * 2; 
-			if( bitmapSize <= memoryLimit ){
-				renderEntireCache();
-				isEntireMapCached = true;
-				return;
-			}else{
-				Log.i(TAG,"Not enough memory to make image: memoryLimit = " + memoryLimit + ", bitmapSize=" + bitmapSize );
-			}
-		}catch(OutOfMemoryError ex){
-			// eat out-of-memory exception
-			Log.i(TAG,"Not enough memory to make image", ex);
+
+	/** viewport expected after current fling, its tiles are rendered in advance; null cancels prediction **/
+	public void setPredictedMatrix(Matrix predictedMatrix) {
+		if(predictedMatrix==null){
+			mPredictedRect = null;
+			return;
+		}
+		final Matrix inverted = new Matrix();
+		predictedMatrix.invert(inverted);
+		final RectF rect = new RectF(0, 0, mCanvas.getWidth(), mCanvas.getHeight());
+		inverted.mapRect(rect);
+		mPredictedRect = rect;
+		if(mRenderThread!=null){
+			mRenderThread.postRenderTiles();
 		}
-		renderPartialCache();
-		isEntireMapCached = false;
 	}
 
-	void renderEntireCache() {
-		try{
-			//Log.i(TAG,"Render entire");
-			MapCache newCache;
-			synchronized (this) {
-				final RectF viewRect = new RectF(0,0,mCurrWidth,mCurrHeight);
-				Matrix m = new Matrix(mMatrix);
-				m.postTranslate(-mCurrX, -mCurrY);
-				Matrix i = new Matrix();
-				m.invert(i);
-			
-				newCache = MapCache.reuse(
-						mOldCache, 
-						(int)mCurrWidth, 
-						(int)mCurrHeight, 
-						m, 
-						i, 
-						0, 
-						0, 
-						mScale, 
-						viewRect);
-			}
-			
-			if( !mAntiAliasCurrentState && mAntiAliasEnabled ){
-				mRenderer.setAntiAlias(true);
-				mAntiAliasCurrentState = true;
-			}
-			
-			Canvas c = new Canvas(newCache.Image);
-			c.drawColor(Color.MAGENTA);
-			c.setMatrix(newCache.CacheMatrix);
-			
-			//mRenderer.setRenderFilter(RenderProgram.ALL);
-			ArrayList<RenderElement> elements = mRenderer.setVisibilityAll();
-			c.drawColor(Color.WHITE);
-			for (RenderElement elem : elements) {
-				elem.draw(c);
-			}
-			
-			synchronized (this) {
-				mOldCache = mCache;
-				mCache = newCache;
-				mIsRenderFailed = false;
-			}
-		}catch(Exception ex){
-			synchronized (this) {
-				mIsRenderFailed = true;
-			}
+	/** tile counters since last reset: hits, misses drawn from other level, blanks, prefetched tiles **/
+	public int[] getTileStatistics() {
+		synchronized (mTiles) {
+			return new int[]{ mTileHits, mTileMisses, mTileBlanks, mTilePrefetches };
 		}
 	}
 
-	void renderPartialCache() {
-		try{
-			//Log.i(TAG,"Render partial");
-			MapCache newCache;
-			synchronized (this) {
-				newCache = MapCache.reuse(
-					mOldCache, 
-					mCanvas.getWidth(), 
-					mCanvas.getHeight(), 
-					mMatrix, 
-					mInvertedMatrix, 
-					mCurrX, 
-					mCurrY, 
-					mScale, 
-					mSchemeRect);
-			}
-				
-			if( !mAntiAliasCurrentState && mAntiAliasEnabled ){
-				mRenderer.setAntiAlias(true);
-				mAntiAliasCurrentState = true;
-			}
-			
-			Canvas c = new Canvas(newCache.Image);
-			c.setMatrix(newCache.CacheMatrix);
-			c.clipRect(newCache.SchemeRect);
-			//mRenderer.setRenderFilter(RenderProgram.ALL);
-			ArrayList<RenderElement> elements = mRenderer.setVisibility(newCache.SchemeRect);
-			c.drawColor(Color.WHITE);
-			for (RenderElement elem : elements) {
-				elem.draw(c);
-			}
-			
-			synchronized (this) {
-				mOldCache = mCache;
-				mCache = newCache;
-				mIsRenderFailed = false;
-			}			
-		}catch(Exception ex){
-			synchronized (this) {
-				mIsRenderFailed = true;
-			}
+	/** frame counters since last reset: frames drawn, frames drawn longer than 1/60 s, longest frame in microseconds **/
+	public long[] getFrameStatistics() {
+		synchronized (mTiles) {
+			return new long[]{ mFrames, mDroppedFrames, mMaxFrameNanos / 1000 };
 		}
 	}
 
-	boolean updatePartialCache() {
-		try{
-			//Log.i(TAG,"update partial");
-			MapCache newCache;
-			synchronized (this) {
-				newCache = MapCache.reuse(
-					mOldCache, 
-					mCanvas.getWidth(), 
-					mCanvas.getHeight(), 
-					mMatrix, 
-					mInvertedMatrix, 
-					mCurrX, 
-					mCurrY, 
-					mScale, 
-					mSchemeRect);
+	public void resetStatistics() {
+		synchronized (mTiles) {
+			mTileHits = 0;
+			mTileMisses = 0;
+			mTileBlanks = 0;
+			mTilePrefetches = 0;
+			mFrames = 0;
+			mDroppedFrames = 0;
+			mMaxFrameNanos = 0;
+		}
+	}
+
+	// tiles of level covering scheme rectangle, bounds are inclusive
+	private Rect getTileRange(RectF schemeRect, int level, Rect range) {
+		final SchemeView scheme = mScheme;
+		final float size = TILE_SIZE / TileCache.getLevelScale(level);
+		final int maxX = Math.max(0, (int)Math.ceil(scheme.width / size) - 1);
+		final int maxY = Math.max(0, (int)Math.ceil(scheme.height / size) - 1);
+		range.left = clamp((int)Math.floor(schemeRect.left / size), maxX);
+		range.top = clamp((int)Math.floor(schemeRect.top / size), maxY);
+		range.right = clamp((int)Math.floor(schemeRect.right / size), maxX);
+		range.bottom = clamp((int)Math.floor(schemeRect.bottom / size), maxY);
+		return range;
+	}
+
+	private static int clamp(int value, int max) {
+		return Math.max(0, Math.min(value, max));
+	}
+
+	// scheme rectangle covered by tile
+	private static RectF getTileRect(int level, int x, int y, RectF rect) {
+		final float size = TILE_SIZE / TileCache.getLevelScale(level);
+		rect.set(x * size, y * size, (x + 1) * size, (y + 1) * size);
+		return rect;
+	}
+
+	// fills tiles with level, x, y of next tiles to render, nearest to the viewport center first
+	// when viewport is complete, tiles along predicted path are returned; returns count of tiles
+	private int findMissingTiles(int[] tiles, int max) {
+		final Viewport viewport = mViewport;
+		final RectF predicted = mPredictedRect;
+		final int level = TileCache.getLevel(viewport.Scale);
+		final Rect range = getTileRange(viewport.SchemeRect, level, new Rect());
+		int count = findMissingTiles(level, range, viewport.SchemeRect.centerX(), viewport.SchemeRect.centerY(), tiles, max);
+		if(count == 0 && predicted!=null){
+			count = findPredictedTiles(level, viewport.SchemeRect, predicted, range, tiles, max);
+			synchronized (mTiles) {
+				mTilePrefetches += count;
 			}
-		
-			
-			boolean renderAll = splitRenderViewPort(newCache.SchemeRect, mCache.SchemeRect);
-			Canvas c = new Canvas(newCache.Image);
-			if(renderAll){
-				if( !mAntiAliasCurrentState && mAntiAliasEnabled ){
-					mRenderer.setAntiAlias(true);
-					mAntiAliasCurrentState = true;
-				}
-				
-				c.setMatrix(newCache.CacheMatrix);
-				c.clipRect(newCache.SchemeRect);
-				ArrayList<RenderElement> elements = mRenderer.setVisibility(newCache.SchemeRect);
-				c.drawColor(Color.WHITE);
-				for (RenderElement elem : elements) {
-					elem.draw(c);
-				}			
-			}else{
-				c.save();
-				c.setMatrix(newCache.CacheMatrix);
-				c.clipRect(newCache.SchemeRect);
-				ArrayList<RenderElement> elements = mRenderer.setVisibilityTwice(mRenderViewPortHorizontal,mRenderViewPortVertical);
-				c.drawColor(Color.WHITE);
-				for (RenderElement elem : elements) {
-					elem.draw(c);
+		}
+		return count;
+	}
+
+	private int findMissingTiles(int level, Rect range, float centerX, float centerY, int[] tiles, int max) {
+		final float size = TILE_SIZE / TileCache.getLevelScale(level);
+		final float cx = centerX / size - 0.5f;
+		final float cy = centerY / size - 0.5f;
+		final int width = range.width() + 1;
+		// distance in high bits, tile offset in range in low bits
+		final long[] order = new long[getTileCount(range)];
+		int count = 0;
+		for(int y = range.top; y <= range.bottom; y++){
+			for(int x = range.left; x <= range.right; x++){
+				if(mTiles.isRenderRequired(level, x, y)){
+					final float distance = (x - cx) * (x - cx) + (y - cy) * (y - cy);
+					order[count++] = ((long)Float.floatToIntBits(distance) << 32) | ((y - range.top) * width + (x - range.left));
 				}
-				c.restore();
-				c.drawBitmap(mCache.Image,newCache.X - mCache.X, newCache.Y - mCache.Y, null);
 			}
+		}
+		Arrays.sort(order, 0, count);
+		count = Math.min(count, max);
+		for(int i = 0; i < count; i++){
+			final int offset = (int)order[i];
+			tiles[i * 3] = level;
+			tiles[i * 3 + 1] = range.left + offset % width;
+			tiles[i * 3 + 2] = range.top + offset / width;
+		}
+		return count;
+	}
 
-			synchronized (this) {
-				mOldCache = mCache;
-				mCache = newCache;
-				mIsRenderFailed = false;
+	// walks from viewport to predicted viewport in half viewport steps, nearest step first
+	// stops when tiles ahead would evict visible ones from cache
+	private int findPredictedTiles(int level, RectF current, RectF predicted, Rect visible, int[] tiles, int max) {
+		final float dx = predicted.centerX() - current.centerX();
+		final float dy = predicted.centerY() - current.centerY();
+		final float halfWidth = Math.max(1, current.width() / 2);
+		final float halfHeight = Math.max(1, current.height() / 2);
+		final int steps = Math.min(PREFETCH_STEPS, (int)Math.ceil(Math.max(Math.abs(dx) / halfWidth, Math.abs(dy) / halfHeight)));
+		int budget = mTiles.getCapacity() - getTileCount(visible);
+		final Rect previous = new Rect(visible);
+		final Rect range = new Rect();
+		final RectF rect = new RectF();
+		for(int i = 1; i <= steps; i++){
+			final float k = (float)i / steps;
+			rect.set(current);
+			rect.offset(dx * k, dy * k);
+			getTileRange(rect, level, range);
+			// tiles shared with previous step are already counted
+			budget -= getTileCount(range) - getSharedTileCount(range, previous);
+			if(budget < 0){
+				break;
 			}
-			
-			return renderAll;			
-		}catch(Exception ex){
-			synchronized (this) {
-				mIsRenderFailed = true;
+			final int count = findMissingTiles(level, range, rect.centerX(), rect.centerY(), tiles, max);
+			if(count > 0){
+				return count;
 			}
+			previous.set(range);
 		}
-		return false;
+		return 0;
 	}
 
-	private boolean splitRenderViewPort(RectF schemeRect, RectF cacheRect) {
-		final RectF vp = mRenderViewPort;
-		final RectF v = mRenderViewPortVertical;
-		final RectF h = mRenderViewPortHorizontal;
-		final RectF i = mRenderViewPortIntersection;
-		vp.set(schemeRect);
-		mRenderViewPortVertical.set(vp);
-		mRenderViewPortHorizontal.set(vp);
-		mRenderViewPortIntersection.set(vp);
-		mRenderViewPortIntersection.intersect(cacheRect);
-		boolean renderAll = false;
-
-		if (vp.right == i.right && vp.bottom == i.bottom) {
-			h.bottom = i.top;
-			v.right = i.left;
-		} else if (vp.right == i.right && vp.top == i.top) {
-			h.top = i.bottom;
-			v.right = i.left;
-		} else if (vp.left == i.left && vp.bottom == i.bottom) {
-			h.bottom = i.top;
-			v.left = i.right;
-		} else if (vp.left == i.left && vp.top == i.top) {
-			h.top = i.bottom;
-			v.left = i.right;
-		} else {
-			renderAll = true;
+	private static int getTileCount(Rect range) {
+		return (range.width() + 1) * (range.height() + 1);
+	}
+
+	private static int getSharedTileCount(Rect a, Rect b) {
+		final int width = Math.min(a.right, b.right) - Math.max(a.left, b.left) + 1;
+		final int height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top) + 1;
+		return width > 0 && height > 0 ? width * height : 0;
+	}
+
+	// renders tiles of one level, in parallel when there are several of them
+	boolean renderTiles(final int[] tiles, int count) {
+		final RenderProgram renderer = mRenderer;
+		final int generation = mTiles.getGeneration();
+		if( !mAntiAliasCurrentState && mAntiAliasEnabled ){
+			renderer.setAntiAlias(true);
+			mAntiAliasCurrentState = true;
 		}
-		return renderAll;
-	}
-
-	
-	private static class MapCache
-	{
-		Matrix CacheMatrix = new Matrix();
-		Matrix InvertedMatrix = new Matrix();
-		
-		float Scale;
-		float X;
-		float Y;
-		
-		RectF SchemeRect = new RectF();
-		Bitmap Image;
-
-		public boolean equals(int width, int height) {
-			return Image.getWidth() == width && Image.getHeight() == height;
+		// tile level follows scale of setMatrix, so each level has its own detail
+		renderer.setDetailLevel(RenderProgram.getDetailLevel(TileCache.getLevelScale(tiles[0])));
+		// paints are updated here once, workers only read elements
+		renderer.applyState();
+		if(count == 1){
+			return renderTile(renderer, generation, tiles[0], tiles[1], tiles[2]);
 		}
-
-		public static MapCache reuse(MapCache oldCache, int width, int height, Matrix matrix, Matrix invertedMatrix, float x, float y, float scale, RectF schemeRect) {
-			MapCache newCache;
-			
-			if(oldCache!=null){
-				newCache = oldCache;
-				if(!newCache.equals(width, height)){
-					newCache.Image.recycle();
-					newCache.Image = null;
-					System.gc();
+		final ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(count);
+		for(int i = 0; i < count; i++){
+			final int index = i * 3;
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() {
+					final boolean rendered = renderTile(renderer, generation, tiles[index], tiles[index + 1], tiles[index + 2]);
+					if(rendered){
+						mCanvas.postInvalidate();
+					}
+					return rendered;
+				}
+			});
+		}
+		try {
+			for(Future<Boolean> result : getTileExecutor().invokeAll(tasks)){
+				if(!result.get()){
+					return false;
 				}
-			}else{
-				newCache = new MapCache();
-			}
-			if(newCache.Image==null){
-				newCache.Image = Bitmap.createBitmap(width, height, Config.RGB_565);
 			}
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		} catch (ExecutionException e) {
+			Log.i(TAG,"Failed to render tile", e.getCause());
+			return false;
+		}
+	}
 
-			newCache.CacheMatrix.set(matrix);
-			newCache.InvertedMatrix.set(invertedMatrix);
-			newCache.X = x;
-			newCache.Y = y;
-			newCache.Scale = scale;
-			newCache.SchemeRect.set(schemeRect);
-			
-			return newCache;
+	private boolean renderTile(RenderProgram renderer, int generation, int level, int x, int y) {
+		Bitmap image = null;
+		try{
+			image = mTiles.obtainBitmap();
+			final float scale = TileCache.getLevelScale(level);
+			final RectF rect = getTileRect(level, x, y, new RectF());
+			final Matrix m = new Matrix();
+			m.setScale(scale, scale);
+			m.postTranslate(-x * TILE_SIZE, -y * TILE_SIZE);
+
+			Canvas c = new Canvas(image);
+			c.setMatrix(m);
+			c.clipRect(rect);
+			c.drawColor(Color.WHITE);
+			ArrayList<RenderElement> elements = renderer.setVisibility(rect);
+			for (RenderElement elem : elements) {
+				elem.draw(c);
+			}
+			synchronized (mTiles) {
+				if(renderer == mRenderer){
+					mTiles.put(level, x, y, image, generation);
+				}else{
+					mTiles.releaseBitmap(image);
+				}
+			}
+			mIsRenderFailed = false;
+			return true;
+		}catch(OutOfMemoryError ex){
+			// eat out-of-memory exception
+			Log.i(TAG,"Not enough memory to render tile", ex);
+		}catch(Exception ex){
+			Log.i(TAG,"Failed to render tile", ex);
+		}
+		if(image!=null){
+			mTiles.releaseBitmap(image);
 		}
+		mIsRenderFailed = true;
+		return false;
+	}
 
-		public boolean hit(RectF viewRect) {
-			return SchemeRect.contains(viewRect);
+	private static synchronized ExecutorService getTileExecutor(){
+		if(mTileExecutor==null){
+			mTileExecutor = Executors.newFixedThreadPool(TILE_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, TILE_THREAD_NAME);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 		}
-		
+		return mTileExecutor;
 	}
 
 	private int getMemoryClass(Context context){
@@ -445,40 +521,21 @@ public class AsyncVectorMapRenderer implements IVectorMapRenderer {
 			return 16;
 		}
 	}
-	
-	
+
+
 	private class RenderThread extends Thread {
 
-		
+
 		public RenderThread(View canvas){
 			super();
 			mCanvas = canvas;
 		}
-		
-		public void waitComplete() {
-			synchronized (sync) {
-				try{	
-					sync.wait();
-				}catch(Exception ex){
-				}
-			}
-		}
 
-		public void postRebuildCache(){
-			setMode(MODE_REBUILD);
-			awake();
-		}
-		
-		public void postUpdateCache(){
-			setMode(MODE_UPDATE_PARTIAL);
-			awake();
-		}
-		
-		public void postRenderCache(){
-			setMode(MODE_RENDER_PARTIAL);
+		public void postRenderTiles(){
+			setMode(MODE_RENDER_TILES);
 			awake();
 		}
-		
+
 		public void shutdown(){
 			mMode = MODE_SHUTDOWN;
 			awake();
@@ -486,6 +543,7 @@ public class AsyncVectorMapRenderer implements IVectorMapRenderer {
 
 		public void run()  {
 			mMode = MODE_WAIT;
+			final int[] tiles = new int[TILE_BATCH * 3];
 			while(true){
 				int mode;
 				synchronized (this) {
@@ -502,19 +560,14 @@ public class AsyncVectorMapRenderer implements IVectorMapRenderer {
 						}
 					}
 					continue;
-				case MODE_REBUILD:
-					rebuildCache();
-					mCanvas.postInvalidate();
-					break;
-				case MODE_RENDER_PARTIAL:
-					renderPartialCache();
-					mCanvas.postInvalidate();
-					break;
-				case MODE_UPDATE_PARTIAL:
-					boolean renderAll = updatePartialCache();
-					if(!renderAll){
-						mPrivateHandler.removeCallbacks(renderPartialCacheRunnable);
-						mPrivateHandler.postDelayed(renderPartialCacheRunnable, 300);
+				case MODE_RENDER_TILES:
+					// render by small batches, so new viewport or shutdown is handled between batches
+					while(!isShutdown()){
+						final int count = findMissingTiles(tiles, TILE_BATCH);
+						if(count == 0 || !renderTiles(tiles, count)){
+							break;
+						}
+						mCanvas.postInvalidate();
 					}
 					mCanvas.postInvalidate();
 					break;
@@ -522,47 +575,40 @@ public class AsyncVectorMapRenderer implements IVectorMapRenderer {
 					//Log.i(TAG,"Renderer shutdown completed.");
 					return; // shutdown render thread
 				}
-				synchronized (sync) {
-					sync.notify();
-				}
 			}
 		}
 
-		private Runnable renderPartialCacheRunnable = new Runnable() {
-			public void run() {
-				postRenderCache();
+		private boolean isShutdown(){
+			synchronized (this) {
+				return mMode == MODE_SHUTDOWN;
 			}
-		};
-		
+		}
+
 		private void setMode(int newMode){
 			synchronized (this) {
-				mMode = newMode;
+				if(mMode != MODE_SHUTDOWN){
+					mMode = newMode;
+				}
 			};
 		}
-		
+
 		private void awake(){
 			synchronized (this) {
 				this.notify();
 			}
 		}
-		
+
 		private View mCanvas;
-		
-		private Object sync = new Object();
-		
+
 		//private final String TAG = "RenderThread";
-		//private final String[] MODES = {"WAIT","SHUTDOWN","REBUILD","RENDER","UPDATE"};
-		
+		//private final String[] MODES = {"WAIT","SHUTDOWN","RENDER"};
+
 		private int mMode = MODE_WAIT;
-		
+
 		private static final int MODE_WAIT = 0;
 		private static final int MODE_SHUTDOWN = 1;
-		private static final int MODE_REBUILD = 2;
-		private static final int MODE_RENDER_PARTIAL = 3;
-		private static final int MODE_UPDATE_PARTIAL = 4;
-		
+		private static final int MODE_RENDER_TILES = 2;
 
-		
 	}
 
 }
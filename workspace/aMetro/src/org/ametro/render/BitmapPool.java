@@ -0,0 +1,166 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ametro.render;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * Pool of RGB_565 render buffers shared by map renderers.
+ * Sizes are rounded up to buckets, so caches of slightly different size
+ * reuse the same buffers instead of allocating new ones on every zoom step.
+ * Buffers cannot be reconfigured on this platform, so only buffers of the
+ * same bucket are reused; least recently released buffers are recycled
+ * when pool grows over its limit.
+ */
+/*package*/ class BitmapPool {
+
+	private static final int BUCKET_SIZE = 64; // pixels
+	private static final int BYTES_PER_PIXEL = 2; // RGB_565
+	private static final int POOL_SHARE = 4; // pool keeps 1/4 of render memory, renderer caches the rest
+
+	private static final HashMap<Long, ArrayList<Bitmap>> mBuckets = new HashMap<Long, ArrayList<Bitmap>>();
+	private static final LinkedList<Bitmap> mReleaseOrder = new LinkedList<Bitmap>();
+
+	private static long mMaxBytes = 4 * 1024 * 1024;
+	private static long mBytesHeld;
+
+	private static int mHits;
+	private static int mMisses;
+
+	/** render memory of the application, shared by the pool and caches of renderer **/
+	public static long getMemoryLimit(int memoryClass) {
+		return 4L * 1024 * 1024 * memoryClass / 16;
+	}
+
+	/** pool takes its share of render memory, returns bytes left for caches of renderer **/
+	public static synchronized long setMemoryLimit(long memoryLimit) {
+		setMaxBytes(memoryLimit / POOL_SHARE);
+		return memoryLimit - mMaxBytes;
+	}
+
+	public static synchronized void setMaxBytes(long maxBytes) {
+		mMaxBytes = maxBytes;
+		trim();
+	}
+
+	/** returns buffer at least of requested size, buffer content is undefined **/
+	public static synchronized Bitmap obtain(int width, int height) {
+		final int bucketWidth = getBucketSize(width);
+		final int bucketHeight = getBucketSize(height);
+		final ArrayList<Bitmap> bucket = mBuckets.get(getKey(bucketWidth, bucketHeight));
+		if (bucket != null && bucket.size() > 0) {
+			final Bitmap bitmap = bucket.remove(bucket.size() - 1);
+			mReleaseOrder.remove(bitmap);
+			mBytesHeld -= getBytes(bitmap);
+			mHits++;
+			return bitmap;
+		}
+		mMisses++;
+		try {
+			return Bitmap.createBitmap(bucketWidth, bucketHeight, Config.RGB_565);
+		} catch (OutOfMemoryError ex) {
+			// free pooled buffers of other sizes and try again
+			clear();
+			return Bitmap.createBitmap(bucketWidth, bucketHeight, Config.RGB_565);
+		}
+	}
+
+	/** returns true if buffer obtained for the size can be used for another size **/
+	public static boolean isSameBucket(Bitmap bitmap, int width, int height) {
+		return bitmap.getWidth() == getBucketSize(width) && bitmap.getHeight() == getBucketSize(height);
+	}
+
+	public static synchronized void release(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		final Long key = getKey(bitmap.getWidth(), bitmap.getHeight());
+		ArrayList<Bitmap> bucket = mBuckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<Bitmap>();
+			mBuckets.put(key, bucket);
+		}
+		bucket.add(bitmap);
+		mReleaseOrder.addLast(bitmap);
+		mBytesHeld += getBytes(bitmap);
+		trim();
+	}
+
+	public static synchronized void clear() {
+		for (Bitmap bitmap : mReleaseOrder) {
+			bitmap.recycle();
+		}
+		mReleaseOrder.clear();
+		mBuckets.clear();
+		mBytesHeld = 0;
+	}
+
+	public static synchronized long getBytesHeld() {
+		return mBytesHeld;
+	}
+
+	public static synchronized int getHits() {
+		return mHits;
+	}
+
+	public static synchronized int getMisses() {
+		return mMisses;
+	}
+
+	/** share of obtained buffers taken from pool **/
+	public static synchronized float getHitRate() {
+		final int total = mHits + mMisses;
+		return total > 0 ? (float) mHits / total : 0;
+	}
+
+	public static synchronized void resetStatistics() {
+		mHits = 0;
+		mMisses = 0;
+	}
+
+	private static void trim() {
+		while (mBytesHeld > mMaxBytes && mReleaseOrder.size() > 0) {
+			final Bitmap bitmap = mReleaseOrder.removeFirst();
+			mBuckets.get(getKey(bitmap.getWidth(), bitmap.getHeight())).remove(bitmap);
+			mBytesHeld -= getBytes(bitmap);
+			bitmap.recycle();
+		}
+	}
+
+	private static int getBucketSize(int size) {
+		return Math.max(1, (size + BUCKET_SIZE - 1) / BUCKET_SIZE) * BUCKET_SIZE;
+	}
+
+	private static Long getKey(int width, int height) {
+		return ((long) width << 32) | height;
+	}
+
+	private static long getBytes(Bitmap bitmap) {
+		return (long) bitmap.getWidth() * bitmap.getHeight() * BYTES_PER_PIXEL;
+	}
+
+}
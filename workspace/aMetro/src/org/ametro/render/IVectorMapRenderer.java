@@ -16,6 +16,8 @@ public interface IVectorMapRenderer {
 
 	public abstract void setSchemeSelection(ArrayList<StationView> stations, ArrayList<SegmentView> segments, ArrayList<TransferView> transfers);
 
+	public abstract void setSchemeTravelTimes(long[] delays, long bucketSize);
+
 	public abstract void onAttachedToWindow();
 
 	public abstract void onDetachedFromWindow();
@@ -30,6 +32,8 @@ public interface IVectorMapRenderer {
 
 	public abstract void setMatrix(Matrix newMatrix);
 
+	public abstract void setPredictedMatrix(Matrix predictedMatrix);
+
 	public abstract boolean isRenderFailed();
 
 }
\ No newline at end of file
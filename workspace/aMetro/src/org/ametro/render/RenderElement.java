@@ -28,27 +28,52 @@ public abstract class RenderElement implements Comparable<RenderElement> {
 
     public int type;
     public Rect boundingBox;
-    public int selected;
+
+    // applied render state, changed by RenderProgram.applyState only
+    /*package*/ int index; // position in render queue
+    /*package*/ long[] selection; // selection bitset of render queue, shared by all elements
+    /*package*/ int detailLevel; // one of RenderProgram.DETAIL_* constants
+    /*package*/ int timeColor; // travel time overlay color, 0 when overlay is off
+    private boolean grayed;
+    private boolean antiAlias = true;
 
     public void setProperties(int newPriority, Rect newBoundingBox) {
         type = newPriority;
         boundingBox = newBoundingBox;
-        selected = 0;
     }
 
-    public void setSelection(boolean selected){
-    	this.selected = selected ? 1 : 0;
-    	setMode(!selected);
+    public boolean isSelected(){
+    	final long[] bits = selection;
+    	return bits == null || (bits[index >> 6] & (1L << index)) != 0;
     }
     
     protected abstract void setMode(boolean grayed);
     public abstract void setAntiAlias(boolean enabled);
     
-    public abstract void draw(Canvas canvas);
+    protected abstract void drawElement(Canvas canvas);
+
+    public void draw(Canvas canvas) {
+    	drawElement(canvas);
+    }
+
+    // paints are updated only when state differs from applied one
+    /*package*/ void applyState(long[] newSelection, boolean newAntiAlias, int newDetailLevel, int newTimeColor) {
+    	selection = newSelection;
+    	detailLevel = newDetailLevel;
+    	if(antiAlias != newAntiAlias){
+    		antiAlias = newAntiAlias;
+    		setAntiAlias(newAntiAlias);
+    	}
+    	final boolean newGrayed = !isSelected();
+    	if(grayed != newGrayed || timeColor != newTimeColor){
+    		grayed = newGrayed;
+    		timeColor = newTimeColor;
+    		setMode(newGrayed);
+    	}
+    }
 
     public int compareTo(RenderElement another) {
-    	int base = this.selected - another.selected;
-        return base != 0 ? base : type - another.type;
+        return type - another.type;
     }
 
 }
@@ -22,10 +22,12 @@
 package org.ametro.render;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.ametro.model.SchemeView;
 import org.ametro.model.SegmentView;
@@ -36,27 +38,14 @@ import org.ametro.model.TransportStation;
 import org.ametro.model.TransportTransfer;
 import org.ametro.model.ext.ModelSpline;
 
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Picture;
 import android.graphics.Rect;
 import android.graphics.RectF;
 
 public class RenderProgram {
 
-	private static class ClippingTreeNode
-	{
-		public Rect Clip;
-		public ArrayList<RenderElement> Elements;
-		public ClippingTreeNode Left;
-		public ClippingTreeNode Right;
-
-		public ClippingTreeNode(Rect clip){
-			this.Clip = clip;
-			this.Elements= new ArrayList<RenderElement>();
-			this.Left = null;
-			this.Right = null;
-		}
-	}
-	
 	public static final int TYPE_LINE_DASHED = 0x00010000;
 	public static final int TYPE_LINE = 0x00020000;
 	public static final int TYPE_TRANSFER_BACKGROUND = 0x00040000;
@@ -68,15 +57,55 @@ public class RenderProgram {
 	public static final int ONLY_TRANSPORT = TYPE_LINE_DASHED | TYPE_LINE | TYPE_TRANSFER_BACKGROUND | TYPE_TRANSFER | TYPE_STATION;
 	public static final int ALL = ONLY_TRANSPORT | TYPE_STATION_NAME;
 
+	// travel time overlay colors from nearest to farthest time bucket
+	public static final int[] TRAVEL_TIME_COLORS = { 0xFF1A9850, 0xFF66BD63, 0xFFA6D96A, 0xFFFEE08B, 0xFFFDAE61, 0xFFF46D43, 0xFFD73027 };
+	private static final int TRAVEL_TIME_UNREACHABLE_COLOR = 0xFFD0D0D0;
+
+	// level of detail tiers, chosen by render scale
+	public static final int DETAIL_FULL = 0;
+	public static final int DETAIL_SIMPLIFIED = 1; // first line of names without halo, simplified splines
+	public static final int DETAIL_MINIMAL = 2; // no names, stations as points
+	/*package*/ static final int DETAIL_LEVELS = 3;
+
+	private static final float DETAIL_SIMPLIFIED_SCALE = 0.75f;
+	private static final float DETAIL_MINIMAL_SCALE = 0.4f;
+	private static final float SIMPLIFY_TOLERANCE_PIXELS = 1.5f;
+
+	// static layers recorded into display lists, in draw order
+	private static final int[] LAYERS = { TYPE_LINE_DASHED | TYPE_LINE, TYPE_TRANSFER_BACKGROUND | TYPE_TRANSFER, TYPE_STATION, TYPE_STATION_NAME };
+
 	private static final int CLIPPING_OFFSET = 10;
-	private static final int CLIPPING_TREE_GRANULARITY = 100;
 	
-	private int mRenderFilter;
+	/** render settings published as a whole and never changed after publishing **/
+	private static class State {
+		final int filter;
+		final boolean antiAlias;
+		final int detailLevel;
+		final long[] selection; // bitset over render queue, set for selected elements
+		final int[] timeColors; // travel time color of each element, null when overlay is off
+
+		State(int filter, boolean antiAlias, int detailLevel, long[] selection, int[] timeColors) {
+			this.filter = filter;
+			this.antiAlias = antiAlias;
+			this.detailLevel = detailLevel;
+			this.selection = selection;
+			this.timeColors = timeColors;
+		}
+	}
 
 	private SchemeView mMapView;
 	
 	private ArrayList<RenderElement> mElements;
-	private ClippingTreeNode mClippingTree;
+	private SpatialIndex mIndex; // items are indexes in mElements
+
+	// setters publish new state without waiting for rendering, render thread applies it to elements
+	private volatile State mState;
+	private volatile State mAppliedState;
+	private final Object mApplyLock = new Object();
+
+	private boolean mDisplayListsEnabled;
+	private Picture[] mDisplayLists; // grayed layers followed by selected layers, null until recorded
+	private State mDisplayListsState;
 
 	HashMap<SegmentView, RenderElement> segmentIndex = new HashMap<SegmentView, RenderElement>();
 	HashMap<StationView, RenderElement> stationIndex = new HashMap<StationView, RenderElement>();
@@ -84,13 +113,110 @@ public class RenderProgram {
 	HashMap<TransferView, RenderElement> transferBackgroundIndex = new HashMap<TransferView, RenderElement>();
 	HashMap<TransferView, RenderElement> transferIndex = new HashMap<TransferView, RenderElement>();
 
-	public void setRenderFilter(int renderFilter) {
-		mRenderFilter = renderFilter;
+	public synchronized void setRenderFilter(int renderFilter) {
+		final State s = mState;
+		if(s.filter != renderFilter){
+			mState = new State(renderFilter, s.antiAlias, s.detailLevel, s.selection, s.timeColors);
+		}
+	}
+
+	public synchronized void setAntiAlias(boolean enabled){
+		final State s = mState;
+		if(s.antiAlias != enabled){
+			mState = new State(s.filter, enabled, s.detailLevel, s.selection, s.timeColors);
+		}
+	}
+
+	public static int getDetailLevel(float scale){
+		if(scale < DETAIL_MINIMAL_SCALE){
+			return DETAIL_MINIMAL;
+		}
+		if(scale < DETAIL_SIMPLIFIED_SCALE){
+			return DETAIL_SIMPLIFIED;
+		}
+		return DETAIL_FULL;
+	}
+
+	// spline simplification tolerance in scheme units, below one and half pixel at the largest scale of level
+	/*package*/ static float getSimplifyTolerance(int detailLevel){
+		switch(detailLevel){
+		case DETAIL_SIMPLIFIED: return SIMPLIFY_TOLERANCE_PIXELS / DETAIL_SIMPLIFIED_SCALE;
+		case DETAIL_MINIMAL: return SIMPLIFY_TOLERANCE_PIXELS / DETAIL_MINIMAL_SCALE;
+		}
+		return 0;
+	}
+
+	public synchronized void setDetailLevel(int detailLevel){
+		final State s = mState;
+		if(s.detailLevel != detailLevel){
+			mState = new State(s.filter, s.antiAlias, detailLevel, s.selection, s.timeColors);
+		}
+	}
+
+	public int getDetailLevel(){
+		return mState.detailLevel;
+	}
+
+	/** brings element paints to the last published state, after it elements may be drawn from several threads **/
+	public void applyState(){
+		synchronized (mApplyLock) {
+			final State state = mState;
+			if(state == mAppliedState){
+				return;
+			}
+			final int[] timeColors = state.timeColors;
+			for(RenderElement elem : mElements){
+				elem.applyState(state.selection, state.antiAlias, state.detailLevel, timeColors!=null ? timeColors[elem.index] : 0);
+			}
+			mAppliedState = state;
+		}
+	}
+
+	/** record layers into display lists on first draw and replay them until anti-alias, selection or colors change **/
+	public void setDisplayListsEnabled(boolean enabled){
+		synchronized (mApplyLock) {
+			mDisplayListsEnabled = enabled;
+			if(!enabled){
+				mDisplayLists = null;
+			}
+		}
+	}
+
+	/** draws all elements in scheme coordinates, canvas matrix maps scheme to target **/
+	public void draw(Canvas canvas){
+		applyState();
+		if(!mDisplayListsEnabled){
+			for(RenderElement elem : setVisibilityAll()){
+				elem.draw(canvas);
+			}
+			return;
+		}
+		for(Picture picture : getDisplayLists()){
+			canvas.drawPicture(picture);
+		}
 	}
 
-	public void setAntiAlias(boolean enabled){
-		for(RenderElement element : mElements){
-			element.setAntiAlias(enabled);
+	private Picture[] getDisplayLists(){
+		synchronized (mApplyLock) {
+			final State state = mAppliedState;
+			if(mDisplayLists == null || mDisplayListsState != state){
+				final long[] bits = getAllElementBits();
+				final Picture[] pictures = new Picture[LAYERS.length * 2];
+				for(int i = 0; i < pictures.length; i++){
+					final ArrayList<RenderElement> elements = new ArrayList<RenderElement>();
+					appendElements(state, bits, i >= LAYERS.length, getDetailFilter(state, LAYERS[i % LAYERS.length]), elements);
+					final Picture picture = new Picture();
+					final Canvas c = picture.beginRecording(mMapView.width, mMapView.height);
+					for(RenderElement elem : elements){
+						elem.draw(c);
+					}
+					picture.endRecording();
+					pictures[i] = picture;
+				}
+				mDisplayLists = pictures;
+				mDisplayListsState = state;
+			}
+			return mDisplayLists;
 		}
 	}
 
@@ -101,145 +227,130 @@ public class RenderProgram {
 		drawTransfers(map, mElements);
 		drawStations(map, mElements);
 		updateRenderQueue();
-		mRenderFilter = ALL;
 	} 
 
 	private void updateRenderQueue() {
 		Collections.sort(mElements);
-		Rect bounds = new Rect(0,0,mMapView.width,mMapView.height);
-		mClippingTree = new ClippingTreeNode(bounds);
-		makeClippingTreeNodes(mClippingTree);
-		for (RenderElement elem : mElements) {
-			addClippingTreeElement(elem.boundingBox, elem, mClippingTree);
+		final int count = mElements.size();
+		final int[] boxes = new int[count * 4];
+		for (int i = 0; i < count; i++) {
+			final RenderElement elem = mElements.get(i);
+			final Rect box = elem.boundingBox;
+			boxes[i * 4] = box.left;
+			boxes[i * 4 + 1] = box.top;
+			boxes[i * 4 + 2] = box.right;
+			boxes[i * 4 + 3] = box.bottom;
+			elem.index = i;
 		}
+		mIndex = new SpatialIndex(boxes, count);
+		mState = new State(ALL, true, DETAIL_FULL, getAllElementBits(), null);
+		applyState();
 	}
 
-	public void appendClipping(Rect v1, ArrayList<RenderElement> renderElements, ClippingTreeNode node){
-		Rect clip = node.Clip;
-		if(Rect.intersects(clip, v1)){
-			for (RenderElement elem : node.Elements) {
-				final Rect box = elem.boundingBox;
-				final int type = elem.type;
-				if( (type & mRenderFilter)>0 && Rect.intersects(v1, box) ){
-					renderElements.add(elem);
-				}
-			}			
-			if(node.Left!=null){
-				appendClipping(v1, renderElements, node.Left);
-				appendClipping(v1, renderElements, node.Right);
-			}
-		}
+	private static void appendClipping(Rect v, SpatialIndex index, long[] bits){
+		index.query(v.left, v.top, v.right, v.bottom, bits);
 	}
 
-	public void appendDoubleClipping(Rect v1, Rect v2, ArrayList<RenderElement> renderElements, ClippingTreeNode node){
-		Rect clip = node.Clip;
-		if(Rect.intersects(clip, v1) || Rect.intersects(clip, v2)){
-			for (RenderElement elem : node.Elements) {
-				final Rect box = elem.boundingBox;
-				final int type = elem.type;
-				if( (type & mRenderFilter)>0 && ( Rect.intersects(v1, box) || Rect.intersects(v2, box) )){
-					renderElements.add(elem);
-				}
-			}			
-			if(node.Left!=null){
-				appendDoubleClipping(v1,v2, renderElements, node.Left);
-				appendDoubleClipping(v1,v2, renderElements, node.Right);
-			}
-		}
+	// collects filtered elements of bitset in draw order, selected elements are drawn over the grayed ones
+	// element order and filter follow applied state, so they match element paints
+	private ArrayList<RenderElement> getElements(long[] bits, int filter){
+		final State state = mAppliedState;
+		filter = getDetailFilter(state, filter);
+		final ArrayList<RenderElement> res = new ArrayList<RenderElement>(100);
+		appendElements(state, bits, false, filter, res);
+		appendElements(state, bits, true, filter, res);
+		return res;
 	}
 
-	private void addClippingTreeElement(Rect rect, RenderElement renderElement, ClippingTreeNode node) {
-		if(node.Left==null || node.Right == null){
-			node.Elements.add(renderElement);
-		}else{
-			final Rect left = node.Left.Clip;
-			final Rect right = node.Right.Clip;
-
-			if(left.contains(rect)){
-				addClippingTreeElement(rect, renderElement, node.Left);
-			}else if(right.contains(rect)){
-				addClippingTreeElement(rect, renderElement, node.Right);
-			}else{
-				node.Elements.add(renderElement);
+	private static int getDetailFilter(State state, int filter){
+		return state.detailLevel == DETAIL_MINIMAL ? filter & ~TYPE_STATION_NAME : filter;
+	}
+
+	private void appendElements(State state, long[] bits, boolean selected, int filter, ArrayList<RenderElement> res){
+		final ArrayList<RenderElement> elements = mElements;
+		final long[] selection = state.selection;
+		for(int w = 0; w < bits.length; w++){
+			long word = selected ? bits[w] & selection[w] : bits[w] & ~selection[w];
+			while(word != 0){
+				final int i = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				final RenderElement elem = elements.get(i);
+				if((elem.type & filter)>0){
+					res.add(elem);
+				}
 			}
 		}
 	}
 
-	private static void makeClippingTreeNodes(ClippingTreeNode root) {
-		final Rect clip = root.Clip;
-		final int width = clip.width();
-		final int height = clip.height();
-		if(width<CLIPPING_TREE_GRANULARITY && height <CLIPPING_TREE_GRANULARITY)
-			return;
-		final int x = clip.left;
-		final int y = clip.top;
-		final Rect left = new Rect(clip);
-		final Rect right = new Rect(clip);
-		if(width>height){
-			int half = x + width/2;
-			left.right = half;
-			right.left = half;
-		}else{
-			int half = y + height/2;
-			left.bottom = half;
-			right.top = half;
+	private static void select(RenderElement elem, long[] selection){
+		if(elem!=null){
+			selection[elem.index >> 6] |= 1L << elem.index;
 		}
-		root.Left = new ClippingTreeNode(left);
-		makeClippingTreeNodes(root.Left);
-		root.Right = new ClippingTreeNode(right);
-		makeClippingTreeNodes(root.Right);
 	}
 
-	public void setSelection(List<StationView> stations, List<SegmentView> segments, List<TransferView> transfers){
+	// selection changes only bits of selected elements, render queue and spatial index stay untouched
+	public synchronized void setSelection(List<StationView> stations, List<SegmentView> segments, List<TransferView> transfers){
+		final long[] selection;
 		if(stations!=null || segments!=null){
-			for(RenderElement elem : mElements){
-				elem.setSelection(false);
-			}
-			//final Model owner = mMapView.owner;
+			selection = new long[(mElements.size() + 63) >> 6];
 			if(stations!=null){
 				for(StationView station : stations){
-					stationIndex.get(station).setSelection(true);
-					RenderElement stationName = stationNameIndex.get(station);
-					if(stationName!=null){
-						stationName.setSelection(true);
-					}
+					select(stationIndex.get(station), selection);
+					select(stationNameIndex.get(station), selection);
 				}
 			}
 			if(transfers!=null){
 				for(TransferView transfer : transfers){
-					RenderElement elem;
-					elem = transferBackgroundIndex.get(transfer);
-					if(elem!=null){
-						elem.setSelection(true);
-					}
-					elem = transferIndex.get(transfer);
-					if(elem!=null){
-						elem.setSelection(true);
-					}
+					select(transferBackgroundIndex.get(transfer), selection);
+					select(transferIndex.get(transfer), selection);
 				}
 			}
 			if(segments!=null){
 				for(SegmentView segment : segments){
 					RenderElement elem = segmentIndex.get(segment);
-					if(elem!=null){
-						elem.setSelection(true);
-					}else{
+					if(elem==null){
 						SegmentView opposite = mMapView.getSegmentView(segment.stationViewToId, segment.stationViewFromId);
 						if(opposite!=null){
 							elem = segmentIndex.get(opposite);
-							if(elem!=null){
-								elem.setSelection(true);
-							}
 						}
 					}
+					select(elem, selection);
 				}
 			}
 		}else{
-			for(RenderElement elem : mElements){
-				elem.setSelection(true);
+			selection = getAllElementBits();
+		}
+		final State s = mState;
+		mState = new State(s.filter, s.antiAlias, s.detailLevel, selection, s.timeColors);
+	}
+
+	// colors stations and segments by travel time bucket, delays are indexed by station id, negative for unreachable stations
+	// null delays turn overlay off
+	public synchronized void setTravelTimes(long[] delays, long bucketSize){
+		int[] timeColors = null;
+		if(delays!=null){
+			final TransportSegment[] segments = mMapView.owner.segments;
+			timeColors = new int[mElements.size()];
+			for(Map.Entry<StationView, RenderElement> entry : stationIndex.entrySet()){
+				timeColors[entry.getValue().index] = getTravelTimeColor(delays[entry.getKey().stationId], bucketSize);
+			}
+			for(Map.Entry<SegmentView, RenderElement> entry : segmentIndex.entrySet()){
+				final TransportSegment segment = segments[entry.getKey().segmentId];
+				final long from = delays[segment.stationFromId];
+				final long to = delays[segment.stationToId];
+				timeColors[entry.getValue().index] = getTravelTimeColor(from < 0 || to < 0 ? -1 : Math.max(from, to), bucketSize);
 			}
 		}
-		updateRenderQueue();
+		final State s = mState;
+		mState = new State(s.filter, s.antiAlias, s.detailLevel, s.selection, timeColors);
+	}
+
+	private static int getTravelTimeColor(long delay, long bucketSize){
+		if(delay < 0){
+			return TRAVEL_TIME_UNREACHABLE_COLOR;
+		}
+		final long bucket = Math.min(delay / Math.max(1, bucketSize), TRAVEL_TIME_COLORS.length - 1);
+		return TRAVEL_TIME_COLORS[(int)bucket];
 	}
 
 	private void drawStations(SchemeView map, ArrayList<RenderElement> renderQueue) {
@@ -305,7 +416,17 @@ public class RenderProgram {
 	}
 
 	public ArrayList<RenderElement> setVisibilityAll() {
-		return mElements;
+		return getElements(getAllElementBits(), ALL);
+	}
+
+	private long[] getAllElementBits() {
+		final int count = mElements.size();
+		final long[] bits = new long[(count + 63) >> 6];
+		Arrays.fill(bits, -1L);
+		if((count & 63) != 0){
+			bits[bits.length - 1] = (1L << count) - 1;
+		}
+		return bits;
 	}
 
 	public ArrayList<RenderElement> setVisibility(RectF viewport) {
@@ -314,10 +435,10 @@ public class RenderProgram {
 				(int) (viewport.top - CLIPPING_OFFSET),
 				(int) (viewport.right + CLIPPING_OFFSET),
 				(int) (viewport.bottom + CLIPPING_OFFSET));
-		ArrayList<RenderElement> clipping = new ArrayList<RenderElement>(100);
-		appendClipping(v,clipping, mClippingTree);
-		Collections.sort(clipping);
-		return clipping;
+		final SpatialIndex index = mIndex;
+		final long[] bits = new long[(index.size() + 63) >> 6];
+		appendClipping(v, index, bits);
+		return getElements(bits, mAppliedState.filter);
 	}
 
 	public ArrayList<RenderElement> setVisibilityTwice(RectF viewport1, RectF viewport2) {
@@ -332,10 +453,11 @@ public class RenderProgram {
 				(int) (viewport2.right + CLIPPING_OFFSET),
 				(int) (viewport2.bottom + CLIPPING_OFFSET));
 
-		ArrayList<RenderElement> clipping = new ArrayList<RenderElement>(100);
-		appendDoubleClipping(v1, v2, clipping, mClippingTree);
-		Collections.sort(clipping);
-		return clipping;
+		final SpatialIndex index = mIndex;
+		final long[] bits = new long[(index.size() + 63) >> 6];
+		appendClipping(v1, index, bits);
+		appendClipping(v2, index, bits);
+		return getElements(bits, mAppliedState.filter);
 	}
 
 	public static int getGrayedColor(int color) {
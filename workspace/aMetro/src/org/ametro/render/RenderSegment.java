@@ -28,6 +28,7 @@ import org.ametro.model.StationView;
 import org.ametro.model.TransportSegment;
 import org.ametro.model.ext.ModelPoint;
 import org.ametro.model.util.ModelUtil;
+import org.ametro.util.Algorithms;
 import org.ametro.util.ExtendedPath;
 
 import android.graphics.Canvas;
@@ -47,6 +48,7 @@ public class RenderSegment extends RenderElement {
 	
     public Paint paint;
     public ExtendedPath path;
+    private ExtendedPath[] paths; // path per detail level, simplified levels share path when nothing is dropped
 
     public RenderSegment(SchemeView map, SegmentView view, TransportSegment segment) {
         super();
@@ -79,8 +81,24 @@ public class RenderSegment extends RenderElement {
         localPaint.setColor(colorNormal);
 
         paint = localPaint;
-        drawSegmentPath(map, view, segment, from, to, localPath);
+        final Point[] segmentPoints = getSegmentPoints(view, from, to);
+        final boolean isSpline = view.spline!=null && view.spline.isSpline;
+        drawSegmentPath(segmentPoints, isSpline, localPath);
         path = localPath;
+        paths = new ExtendedPath[RenderProgram.DETAIL_LEVELS];
+        paths[RenderProgram.DETAIL_FULL] = localPath;
+        Point[] simplified = segmentPoints;
+        for (int level = RenderProgram.DETAIL_FULL + 1; level < RenderProgram.DETAIL_LEVELS; level++) {
+            final Point[] reduced = Algorithms.simplifyDouglasPeucker(segmentPoints, RenderProgram.getSimplifyTolerance(level));
+            if (reduced.length == simplified.length) {
+                paths[level] = paths[level - 1];
+            } else {
+                final ExtendedPath reducedPath = new ExtendedPath();
+                drawSegmentPath(reduced, isSpline, reducedPath);
+                paths[level] = reducedPath;
+            }
+            simplified = reduced;
+        }
 
         final int minx = Math.min(from.stationPoint.x, to.stationPoint.x) - lineWidth;
         final int maxx = Math.max(from.stationPoint.x, to.stationPoint.x) + lineWidth;
@@ -98,29 +116,26 @@ public class RenderSegment extends RenderElement {
         setProperties(lineWorking ? RenderProgram.TYPE_LINE + view.id : RenderProgram.TYPE_LINE_DASHED + view.id, box);
     }
     
-    private void drawSegmentPath(SchemeView map, SegmentView view, TransportSegment segment, StationView from, StationView to, ExtendedPath path) {
-        final ModelPoint pointFrom = from.stationPoint;
-        final ModelPoint pointTo = to.stationPoint;
+    private static Point[] getSegmentPoints(SegmentView view, StationView from, StationView to) {
         final ModelPoint[] modelPoints = view.spline!=null ? view.spline.points : null;
-        if (modelPoints != null) {
-            if ( view.spline.isSpline ) {
-                Point[] points = new Point[modelPoints.length + 2];
-                points[0] = ModelUtil.toPoint(pointFrom);
-                for (int i = 0; i < modelPoints.length; i++) {
-                    points[i + 1] = ModelUtil.toPoint(modelPoints[i]);
-                }
-                points[points.length - 1] = ModelUtil.toPoint(pointTo);
-                path.drawSpline(points, 0, points.length);
-            } else {
-                path.moveTo(pointFrom.x, pointFrom.y);
-                for (ModelPoint p : modelPoints) {
-                    path.lineTo(p.x, p.y);
-                }
-                path.lineTo(pointTo.x, pointTo.y);
-            }
+        final int length = modelPoints != null ? modelPoints.length : 0;
+        final Point[] points = new Point[length + 2];
+        points[0] = ModelUtil.toPoint(from.stationPoint);
+        for (int i = 0; i < length; i++) {
+            points[i + 1] = ModelUtil.toPoint(modelPoints[i]);
+        }
+        points[points.length - 1] = ModelUtil.toPoint(to.stationPoint);
+        return points;
+    }
+
+    private static void drawSegmentPath(Point[] points, boolean isSpline, ExtendedPath path) {
+        if (isSpline) {
+            path.drawSpline(points, 0, points.length);
         } else {
-            path.moveTo(pointFrom.x, pointFrom.y);
-            path.lineTo(pointTo.x, pointTo.y);
+            path.moveTo(points[0].x, points[0].y);
+            for (int i = 1; i < points.length; i++) {
+                path.lineTo(points[i].x, points[i].y);
+            }
         }
     }
 
@@ -132,12 +147,12 @@ public class RenderSegment extends RenderElement {
     protected void setMode(boolean grayed)
     {
     	//paint.setAlpha(grayed ?  80 : 255);
-   		paint.setColor(grayed ? colorGrayed : colorNormal);
+   		paint.setColor(timeColor != 0 ? timeColor : (grayed ? colorGrayed : colorNormal));
    		paint.setAlpha(255);
     }
 
-    public void draw(Canvas canvas) {
-        canvas.drawPath(path, paint);
+    protected void drawElement(Canvas canvas) {
+        canvas.drawPath(paths[detailLevel], paint);
     }
 
 }
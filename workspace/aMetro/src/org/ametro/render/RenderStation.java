@@ -29,6 +29,7 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.Paint.Cap;
 import android.graphics.Paint.Style;
 
 
@@ -40,6 +41,7 @@ public class RenderStation extends RenderElement {
     public float radiusExternal;
     public Paint paintColor;
     public Paint paintBackGround;
+    public Paint paintPoint; // station drawn as single point at minimal detail
     
     private int colorNormal;
     private int colorGrayed;
@@ -79,6 +81,13 @@ public class RenderStation extends RenderElement {
         radiusExternal = radius * 1.10f;
         paintColor = localPaintColor;
 
+        paintPoint = new Paint();
+        paintPoint.setColor(colorNormal);
+        paintPoint.setAntiAlias(true);
+        paintPoint.setStyle(Style.STROKE);
+        paintPoint.setStrokeCap(Cap.ROUND);
+        paintPoint.setStrokeWidth(radiusExternal * 2);
+
         setProperties(RenderProgram.TYPE_STATION + view.id, new Rect(localX - radius, localY - radius, localX + radius, localY + radius));
     }
 
@@ -86,15 +95,21 @@ public class RenderStation extends RenderElement {
     {
     	paintColor.setAntiAlias(enabled);
     	paintBackGround.setAntiAlias(enabled);
+    	paintPoint.setAntiAlias(enabled);
     }
 
     protected void setMode(boolean grayed)
     {
-    	paintColor.setColor(grayed ? colorGrayed : colorNormal);
+    	paintColor.setColor(timeColor != 0 ? timeColor : (grayed ? colorGrayed : colorNormal));
     	paintColor.setAlpha(255);
+    	paintPoint.setColor(paintColor.getColor());
     }
-    
-    public void draw(Canvas canvas) {
+
+    protected void drawElement(Canvas canvas) {
+        if (detailLevel == RenderProgram.DETAIL_MINIMAL) {
+            canvas.drawPoint(x, y, paintPoint);
+            return;
+        }
         canvas.drawCircle(x, y, radiusExternal, paintBackGround);
         canvas.drawCircle(x, y, radiusInternal, paintColor);
     }
@@ -59,7 +59,6 @@ public class RenderStationName extends RenderElement {
 		final boolean isWordWrap = map.isWordWrap;
 
 		final String text = isUpperCase ? station.getName().toUpperCase() : station.getName();
-		final int textLength = text.length();
 		final Rect textRect = ModelUtil.toRect( view.stationNameRect );
 		final Point point = ModelUtil.toPoint( view.stationPoint );
 
@@ -104,35 +103,27 @@ public class RenderStationName extends RenderElement {
 			rect = new Rect(textRect);
 		}
 
-		final Rect bounds = new Rect();
-		textPaint.getTextBounds(text, 0, textLength, bounds);
-		boolean isNeedSecondLine = bounds.width() > rect.width() && isWordWrap;
-		int spacePosition = -1;
-		if (isNeedSecondLine) {
-			spacePosition = text.indexOf(' ');
-			isNeedSecondLine = spacePosition != -1;
-		}
+		// measured layouts are shared between render programs
+		final TextLayoutCache.Layout layout = TextLayoutCache.getLayout(text, textPaint, isWordWrap);
+		final Rect bounds = layout.Bounds;
+		final boolean isNeedSecondLine = bounds.width() > rect.width() && layout.SecondLine != null;
 
 		if (isNeedSecondLine) {
-			final String firstText = text.substring(0, spacePosition);
-
-			final String secondText = text.substring(spacePosition + 1);
-
 			final Rect secondRect = new Rect(rect.left, rect.top
 					+ bounds.height() + 2, rect.right, rect.bottom
 					+ bounds.height() + 2);
 
-			mTextFirstLine = firstText;
-			mPointFirstLine = initializeLine(firstText, vertical, rect, textPaint, align);
+			mTextFirstLine = layout.FirstLine;
+			mPointFirstLine = initializeLine(layout.FirstBounds, vertical, rect, align);
 			
-			mTextSecondLine = secondText;
-			mPointSecondLine = initializeLine(secondText, vertical,  secondRect, textPaint, align);
+			mTextSecondLine = layout.SecondLine;
+			mPointSecondLine = initializeLine(layout.SecondBounds, vertical,  secondRect, align);
 			mPointSecondLine.offset(-mPointFirstLine.x, -mPointFirstLine.y);
 			
 
 		} else {
 			mTextFirstLine = text;
-			mPointFirstLine = initializeLine(text, vertical,  rect, textPaint, align);
+			mPointFirstLine = initializeLine(bounds, vertical,  rect, align);
 		}
 
 		mTextPaint = textPaint;
@@ -146,10 +137,8 @@ public class RenderStationName extends RenderElement {
 		setProperties(RenderProgram.TYPE_STATION_NAME + view.id, box);
 	}
 
-	private static Point initializeLine(final String text, boolean vertical, final Rect rect, final Paint paint, final Align align) {
+	private static Point initializeLine(final Rect bounds, boolean vertical, final Rect rect, final Align align) {
 		Point position = new Point();
-		final Rect bounds = new Rect();
-		paint.getTextBounds(text, 0, text.length(), bounds);
 		if (align == Align.RIGHT) { // align to right
 			position.set(rect.right + (vertical ? bounds.height() : 0 ) , rect.top + (vertical ? 0 : bounds.height()));
 		} else { // align to left
@@ -173,12 +162,18 @@ public class RenderStationName extends RenderElement {
 		
 	}
 
-	public void draw(Canvas canvas) {
+	protected void drawElement(Canvas canvas) {
 		canvas.save();
 		canvas.translate(mPointFirstLine.x, mPointFirstLine.y);
 		if(mVertical){
 			canvas.rotate(-90);
 		}
+		if(detailLevel != RenderProgram.DETAIL_FULL){
+			// simplified: first line of name only, without halo
+			canvas.drawText(mTextFirstLine, 0, 0, mTextPaint);
+			canvas.restore();
+			return;
+		}
 		canvas.drawText(mTextFirstLine, 0, 0, mBorderPaint);
 		canvas.drawText(mTextFirstLine, 0, 0, mTextPaint);
 		if (mTextSecondLine != null) {
@@ -87,7 +87,7 @@ public class RenderTransfer extends RenderElement {
     	//Paint.setAlpha(grayed ? 80 : 255);
     }
 
-    public void draw(Canvas canvas) {
+    protected void drawElement(Canvas canvas) {
         canvas.drawCircle(FromX, FromY, Radius, Paint);
         canvas.drawCircle(ToX, ToY, Radius, Paint);
         canvas.drawLine(FromX, FromY, ToX, ToY, Paint);
@@ -88,7 +88,7 @@ public class RenderTransferBackground extends RenderElement {
     	Paint.setAlpha(255);
     }
 
-    public void draw(Canvas canvas) {
+    protected void drawElement(Canvas canvas) {
         canvas.drawCircle(FromX, FromY, RadiusBig, Paint);
         canvas.drawCircle(ToX, ToY, RadiusBig, Paint);
         canvas.drawLine(FromX, FromY, ToX, ToY, Paint);
@@ -0,0 +1,190 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ametro.render;
+
+import java.util.Arrays;
+
+/**
+ * Static R-tree bulk loaded with Sort-Tile-Recursive packing.
+ * Items are identified by index, query result is a bitset of item indexes,
+ * so items come out in index order without sorting.
+ */
+/*package*/ class SpatialIndex {
+
+	private static final int NODE_CAPACITY = 16;
+	private static final long COORDINATE_OFFSET = 1L << 30;
+
+	private final int[] mItems; // item indexes in leaf order
+	private final int[] mItemBoxes; // left, top, right, bottom in leaf order
+
+	private int[] mNodeBoxes;
+	private int[] mNodeFirst; // first item of leaf or first child node
+	private int[] mNodeLast; // exclusive
+	private int mNodeCount;
+	private int mLeafCount; // nodes [0, mLeafCount) are leaves
+	private int mRoot = -1;
+	private int mDepth;
+
+	// boxes hold left, top, right, bottom of each item
+	public SpatialIndex(int[] boxes, int count) {
+		mItems = sortTileRecursive(boxes, count);
+		mItemBoxes = new int[count * 4];
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(boxes, mItems[i] * 4, mItemBoxes, i * 4, 4);
+		}
+		if (count > 0) {
+			build(count);
+		}
+	}
+
+	private void build(int count) {
+		int capacity = 0;
+		for (int c = count; c > 1 || capacity == 0; c = (c + NODE_CAPACITY - 1) / NODE_CAPACITY) {
+			capacity += (c + NODE_CAPACITY - 1) / NODE_CAPACITY;
+		}
+		mNodeBoxes = new int[capacity * 4];
+		mNodeFirst = new int[capacity];
+		mNodeLast = new int[capacity];
+
+		// leaves over items
+		pack(mItemBoxes, 0, count, 0);
+		mLeafCount = mNodeCount;
+
+		int levelStart = 0;
+		int levelCount = mNodeCount;
+		while (levelCount > 1) {
+			reorderLevel(levelStart, levelCount);
+			final int nextStart = mNodeCount;
+			pack(mNodeBoxes, levelStart, levelCount, levelStart);
+			levelStart = nextStart;
+			levelCount = mNodeCount - nextStart;
+			mDepth++;
+		}
+		mRoot = mNodeCount - 1;
+	}
+
+	// groups consecutive entries into nodes of NODE_CAPACITY
+	private void pack(int[] boxes, int start, int count, int childBase) {
+		for (int i = 0; i < count; i += NODE_CAPACITY) {
+			final int node = mNodeCount++;
+			final int end = Math.min(count, i + NODE_CAPACITY);
+			mNodeFirst[node] = childBase + i;
+			mNodeLast[node] = childBase + end;
+			int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+			int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+			for (int j = i; j < end; j++) {
+				final int b = (start + j) * 4;
+				left = Math.min(left, boxes[b]);
+				top = Math.min(top, boxes[b + 1]);
+				right = Math.max(right, boxes[b + 2]);
+				bottom = Math.max(bottom, boxes[b + 3]);
+			}
+			mNodeBoxes[node * 4] = left;
+			mNodeBoxes[node * 4 + 1] = top;
+			mNodeBoxes[node * 4 + 2] = right;
+			mNodeBoxes[node * 4 + 3] = bottom;
+		}
+	}
+
+	// sorts nodes of one level in STR order before they are grouped into parents
+	private void reorderLevel(int start, int count) {
+		final int[] boxes = new int[count * 4];
+		final int[] first = new int[count];
+		final int[] last = new int[count];
+		System.arraycopy(mNodeBoxes, start * 4, boxes, 0, count * 4);
+		System.arraycopy(mNodeFirst, start, first, 0, count);
+		System.arraycopy(mNodeLast, start, last, 0, count);
+		final int[] order = sortTileRecursive(boxes, count);
+		for (int i = 0; i < count; i++) {
+			final int from = order[i];
+			System.arraycopy(boxes, from * 4, mNodeBoxes, (start + i) * 4, 4);
+			mNodeFirst[start + i] = first[from];
+			mNodeLast[start + i] = last[from];
+		}
+	}
+
+	// returns permutation of boxes: vertical slices by center x, each slice ordered by center y
+	private static int[] sortTileRecursive(int[] boxes, int count) {
+		final long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			final long cx = ((long) boxes[i * 4] + boxes[i * 4 + 2]) / 2;
+			keys[i] = ((cx + COORDINATE_OFFSET) << 32) | i;
+		}
+		Arrays.sort(keys);
+		final int pages = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+		final int sliceSize = (int) Math.ceil(Math.sqrt(pages)) * NODE_CAPACITY;
+		for (int s = 0; s < count; s += sliceSize) {
+			final int end = Math.min(count, s + sliceSize);
+			for (int j = s; j < end; j++) {
+				final int i = (int) keys[j];
+				final long cy = ((long) boxes[i * 4 + 1] + boxes[i * 4 + 3]) / 2;
+				keys[j] = ((cy + COORDINATE_OFFSET) << 32) | i;
+			}
+			Arrays.sort(keys, s, end);
+		}
+		final int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	public int size() {
+		return mItems.length;
+	}
+
+	/** sets bits of items intersecting the rectangle, bitset must hold size() bits **/
+	public void query(int left, int top, int right, int bottom, long[] bits) {
+		if (mRoot == -1) {
+			return;
+		}
+		final int[] nodeBoxes = mNodeBoxes;
+		final int[] itemBoxes = mItemBoxes;
+		// every level adds at most one node worth of children
+		final int[] stack = new int[NODE_CAPACITY * (mDepth + 1) + 1];
+		int size = 0;
+		stack[size++] = mRoot;
+		while (size > 0) {
+			final int node = stack[--size];
+			final int b = node * 4;
+			if (!(left < nodeBoxes[b + 2] && nodeBoxes[b] < right && top < nodeBoxes[b + 3] && nodeBoxes[b + 1] < bottom)) {
+				continue;
+			}
+			final int first = mNodeFirst[node];
+			final int last = mNodeLast[node];
+			if (node < mLeafCount) {
+				for (int i = first; i < last; i++) {
+					final int ib = i * 4;
+					if (left < itemBoxes[ib + 2] && itemBoxes[ib] < right && top < itemBoxes[ib + 3] && itemBoxes[ib + 1] < bottom) {
+						final int item = mItems[i];
+						bits[item >> 6] |= 1L << item;
+					}
+				}
+			} else {
+				for (int i = first; i < last; i++) {
+					stack[size++] = i;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ametro.render;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Measured station name layouts shared by all render programs, so scheme
+ * views and locales switched back and forth do not measure names again.
+ * Least recently used layouts are dropped when cache holds too many characters.
+ */
+/*package*/ class TextLayoutCache {
+
+	private static final int MAX_CHARACTERS = 64 * 1024;
+
+	/*package*/ static class Layout {
+		final String Text;
+		final Rect Bounds;
+		// text split at first space, null when not wrapped or text has no space
+		final String FirstLine;
+		final Rect FirstBounds;
+		final String SecondLine;
+		final Rect SecondBounds;
+
+		Layout(String text, Paint paint, boolean wordWrap) {
+			Text = text;
+			Bounds = measure(text, paint);
+			final int spacePosition = wordWrap ? text.indexOf(' ') : -1;
+			if (spacePosition != -1) {
+				FirstLine = text.substring(0, spacePosition);
+				FirstBounds = measure(FirstLine, paint);
+				SecondLine = text.substring(spacePosition + 1);
+				SecondBounds = measure(SecondLine, paint);
+			} else {
+				FirstLine = null;
+				FirstBounds = null;
+				SecondLine = null;
+				SecondBounds = null;
+			}
+		}
+
+		private static Rect measure(String text, Paint paint) {
+			final Rect bounds = new Rect();
+			paint.getTextBounds(text, 0, text.length(), bounds);
+			return bounds;
+		}
+	}
+
+	private static class Key {
+		final String text;
+		final float textSize;
+		final boolean wordWrap;
+
+		Key(String text, float textSize, boolean wordWrap) {
+			this.text = text;
+			this.textSize = textSize;
+			this.wordWrap = wordWrap;
+		}
+
+		public int hashCode() {
+			return (text.hashCode() * 31 + Float.floatToIntBits(textSize)) * 31 + (wordWrap ? 1 : 0);
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key k = (Key) o;
+			return wordWrap == k.wordWrap && textSize == k.textSize && text.equals(k.text);
+		}
+	}
+
+	private static int mCharacters;
+	private static int mHits;
+	private static int mMisses;
+
+	private static final LinkedHashMap<Key, Layout> mLayouts = new LinkedHashMap<Key, Layout>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Key, Layout> eldest) {
+			if (mCharacters > MAX_CHARACTERS) {
+				mCharacters -= eldest.getKey().text.length();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/** returns layout of text measured with paint, layouts must not be changed **/
+	public static synchronized Layout getLayout(String text, Paint paint, boolean wordWrap) {
+		final Key key = new Key(text, paint.getTextSize(), wordWrap);
+		Layout layout = mLayouts.get(key);
+		if (layout == null) {
+			mMisses++;
+			layout = new Layout(text, paint, wordWrap);
+			mCharacters += text.length();
+			mLayouts.put(key, layout);
+		} else {
+			mHits++;
+		}
+		return layout;
+	}
+
+	public static synchronized void clear() {
+		mLayouts.clear();
+		mCharacters = 0;
+	}
+
+	public static synchronized int getHits() {
+		return mHits;
+	}
+
+	public static synchronized int getMisses() {
+		return mMisses;
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ametro.render;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import android.graphics.Bitmap;
+
+/**
+ * Pyramid of rendered map tiles. Level n keeps tiles rendered at scale 2^n,
+ * tiles are evicted in least recently used order when cache is full.
+ * Tiles are never drawn into while cached: renderer takes a free bitmap,
+ * draws into it and puts it back as a tile. Bitmaps over capacity go back
+ * to BitmapPool.
+ */
+/*package*/ class TileCache {
+
+	public static final int TILE_SIZE = 256;
+	public static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 2; // RGB_565
+
+	/*package*/ static class Tile {
+		final int Level;
+		final int X;
+		final int Y;
+		Bitmap Image;
+		int Generation;
+
+		Tile(int level, int x, int y) {
+			Level = level;
+			X = x;
+			Y = y;
+		}
+	}
+
+	private final LinkedHashMap<Long, Tile> mTiles = new LinkedHashMap<Long, Tile>(64, 0.75f, true);
+	private final ArrayList<Bitmap> mFreeBitmaps = new ArrayList<Bitmap>();
+	private int mCapacity;
+	private int mGeneration;
+
+	public TileCache(int capacity) {
+		mCapacity = Math.max(1, capacity);
+	}
+
+	public synchronized void setCapacity(int capacity) {
+		mCapacity = Math.max(1, capacity);
+		trim();
+	}
+
+	public synchronized int getCapacity() {
+		return mCapacity;
+	}
+
+	public synchronized Tile get(int level, int x, int y) {
+		return mTiles.get(getKey(level, x, y));
+	}
+
+	public synchronized boolean isValid(Tile tile) {
+		return tile != null && tile.Generation == mGeneration;
+	}
+
+	// returns true when tile is missing or rendered before last invalidation
+	public synchronized boolean isRenderRequired(int level, int x, int y) {
+		return !isValid(mTiles.get(getKey(level, x, y)));
+	}
+
+	/** mark all tiles as stale, stale tiles are drawn until they are rendered again **/
+	public synchronized void invalidate() {
+		mGeneration++;
+	}
+
+	public synchronized int getGeneration() {
+		return mGeneration;
+	}
+
+	/** returns bitmap to render tile into, cache takes it back on put **/
+	public Bitmap obtainBitmap() {
+		synchronized (this) {
+			final int size = mFreeBitmaps.size();
+			if (size > 0) {
+				return mFreeBitmaps.remove(size - 1);
+			}
+			if (mTiles.size() >= mCapacity) {
+				final Iterator<Tile> eldest = mTiles.values().iterator();
+				final Tile tile = eldest.next();
+				eldest.remove();
+				return tile.Image;
+			}
+		}
+		// new bitmap may take a while, so drawing is not blocked by it
+		return BitmapPool.obtain(TILE_SIZE, TILE_SIZE);
+	}
+
+	/** return unused bitmap to the cache **/
+	public synchronized void releaseBitmap(Bitmap bitmap) {
+		mFreeBitmaps.add(bitmap);
+		trim();
+	}
+
+	public synchronized void put(int level, int x, int y, Bitmap image, int generation) {
+		final Long key = getKey(level, x, y);
+		Tile tile = mTiles.get(key);
+		if (tile == null) {
+			tile = new Tile(level, x, y);
+			mTiles.put(key, tile);
+		} else {
+			mFreeBitmaps.add(tile.Image);
+		}
+		tile.Image = image;
+		tile.Generation = generation;
+		trim();
+	}
+
+	public synchronized void clear() {
+		for (Tile tile : mTiles.values()) {
+			BitmapPool.release(tile.Image);
+		}
+		mTiles.clear();
+		for (Bitmap bitmap : mFreeBitmaps) {
+			BitmapPool.release(bitmap);
+		}
+		mFreeBitmaps.clear();
+	}
+
+	private void trim() {
+		while (mTiles.size() + mFreeBitmaps.size() > mCapacity) {
+			if (mFreeBitmaps.size() > 0) {
+				BitmapPool.release(mFreeBitmaps.remove(mFreeBitmaps.size() - 1));
+			} else {
+				final Iterator<Tile> eldest = mTiles.values().iterator();
+				BitmapPool.release(eldest.next().Image);
+				eldest.remove();
+			}
+		}
+	}
+
+	public static long getKey(int level, int x, int y) {
+		return ((long) (level & 0xFF) << 48) | ((long) (x & 0xFFFFFF) << 24) | (y & 0xFFFFFF);
+	}
+
+	/** level of tiles to render map at scale, tiles are never scaled up on screen **/
+	public static int getLevel(float scale) {
+		return (int) Math.ceil(Math.log(scale) / Math.log(2) - 0.001);
+	}
+
+	public static float getLevelScale(int level) {
+		return (float) Math.pow(2, level);
+	}
+
+}
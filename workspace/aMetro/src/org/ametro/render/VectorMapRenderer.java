@@ -12,10 +12,10 @@ import android.app.Activity;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.os.Handler;
 import android.util.Log;
@@ -44,6 +44,7 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 	private final RectF mRenderViewPortIntersection = new RectF();
 	
 	private final int mMemoryClass;
+	private final long mCacheBytes; // render memory left by BitmapPool
 	
 	private float mScale;
 	private float mCurrX;
@@ -70,6 +71,8 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 		this.mCanvas = container;
 		this.mScheme = scheme;
 		mMemoryClass = getMemoryClass(container.getContext());
+		// cache images and pooled buffers share the memory limit of former render cache
+		mCacheBytes = BitmapPool.setMemoryLimit(BitmapPool.getMemoryLimit(mMemoryClass));
 		setScheme(scheme, renderProgram);
 	}
 
@@ -82,6 +85,7 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 	public void setScheme(SchemeView scheme, RenderProgram renderProgram) {
 		mRenderer = renderProgram;
 		mRenderer.setRenderFilter(RenderProgram.ALL);
+		mRenderer.setDisplayListsEnabled(true);
 		mRenderer.setAntiAlias(mAntiAliasEnabled);
 		mAntiAliasCurrentState = mAntiAliasEnabled;
 		mRenderer.setSelection(null, null, null);
@@ -98,6 +102,11 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 		recycleCache();
 	}
 
+	public void setSchemeTravelTimes(long[] delays, long bucketSize) {
+		mRenderer.setTravelTimes(delays, bucketSize);
+		recycleCache();
+	}
+
 	public void setUpdatesEnabled(boolean enabled){
 		isUpdatesEnabled = enabled;
 	}	
@@ -155,12 +164,17 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 		mCurrY = mMatrixValues[Matrix.MTRANS_Y];
 		mCurrWidth = mScheme.width * mScale;
 		mCurrHeight = mScheme.height * mScale;
+		mRenderer.setDetailLevel(RenderProgram.getDetailLevel(mScale));
 		
 		updateViewRect();
 
 		mIsRenderFailed = false;
 	}
 
+	public void setPredictedMatrix(Matrix predictedMatrix) {
+		// cache is rendered on UI thread, nothing to prepare ahead
+	}
+
 	public void updateViewRect() {
 		mSchemeRect.set(0, 0, mCanvas.getWidth(), mCanvas.getHeight());
 		mInvertedMatrix.mapRect(mSchemeRect);
@@ -172,7 +186,7 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 		//Log.w(TAG, "rebuild cache");
 		recycleCache();
 		try{
-			int memoryLimit = 4 * 1024 * 1024 * mMemoryClass / 16;
+			long memoryLimit = mCacheBytes;
 			int bitmapSize = (int)mCurrWidth * (int)mCurrHeight * 2; 
 			if( bitmapSize <= memoryLimit ){
 				renderEntireCache();
@@ -218,11 +232,8 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 			c.drawColor(Color.MAGENTA);
 			c.setMatrix(newCache.CacheMatrix);
 			
-			ArrayList<RenderElement> elements = mRenderer.setVisibilityAll();
 			c.drawColor(Color.WHITE);
-			for (RenderElement elem : elements) {
-				elem.draw(c);
-			}
+			mRenderer.draw(c);
 			
 			mCache = newCache;
 		}catch(Exception ex){
@@ -253,6 +264,7 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 			Canvas c = new Canvas(newCache.Image);
 			c.setMatrix(newCache.CacheMatrix);
 			c.clipRect(newCache.SchemeRect);
+			mRenderer.applyState();
 			ArrayList<RenderElement> elements = mRenderer.setVisibility(newCache.SchemeRect);
 			c.drawColor(Color.WHITE);
 			for (RenderElement elem : elements) {
@@ -280,6 +292,7 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 					mSchemeRect);
 			
 			Canvas c = new Canvas(newCache.Image);
+			mRenderer.applyState();
 			
 			boolean renderAll = splitRenderViewPort(newCache.SchemeRect, mCache.SchemeRect);
 			if(renderAll){
@@ -305,7 +318,10 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 					elem.draw(c);
 				}
 				c.restore();
-				c.drawBitmap(mCache.Image,newCache.X - mCache.X, newCache.Y - mCache.Y, null);
+				// pooled image may be larger than cache
+				final float dx = newCache.X - mCache.X;
+				final float dy = newCache.Y - mCache.Y;
+				c.drawBitmap(mCache.Image, new Rect(0, 0, mCache.Width, mCache.Height), new RectF(dx, dy, dx + mCache.Width, dy + mCache.Height), null);
 			}
 
 			mOldCache = mCache;
@@ -379,16 +395,15 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 	
 	public void recycleCache(){
 		if(mCache!=null){
-			mCache.Image.recycle();
+			BitmapPool.release(mCache.Image);
 			mCache.Image = null;
 			mCache = null;
 		}
 		if(mOldCache!=null){
-			mOldCache.Image.recycle();
+			BitmapPool.release(mOldCache.Image);
 			mOldCache.Image = null;
 			mOldCache = null;
 		}
-		System.gc();
 	}
 
 	private static class MapCache
@@ -401,27 +416,30 @@ public class VectorMapRenderer implements IVectorMapRenderer {
 		float Y;
 		
 		RectF SchemeRect = new RectF();
-		Bitmap Image;
-
-		public boolean equals(int width, int height) {
-			return Image.getWidth() == width && Image.getHeight() == height;
-		}
+		Bitmap Image; // taken from BitmapPool, may be larger than cache
+		int Width;
+		int Height;
 
 		public static MapCache reuse(MapCache oldCache, int width, int height, Matrix matrix, Matrix invertedMatrix, float x, float y, float scale, RectF schemeRect) {
 			MapCache newCache;
 			
 			if(oldCache!=null){
 				newCache = oldCache;
-				if(!newCache.equals(width, height)){
-					newCache.Image.recycle();
+				if(!BitmapPool.isSameBucket(newCache.Image, width, height)){
+					BitmapPool.release(newCache.Image);
 					newCache.Image = null;
-					System.gc();
 				}
 			}else{
 				newCache = new MapCache();
 			}
-			if(newCache.Image==null){
-				newCache.Image = Bitmap.createBitmap(width, height, Config.RGB_565);
+			if(newCache.Image==null || newCache.Width != width || newCache.Height != height){
+				if(newCache.Image==null){
+					newCache.Image = BitmapPool.obtain(width, height);
+				}
+				// area out of cache is never rendered, keep it blank
+				newCache.Image.eraseColor(Color.WHITE);
+				newCache.Width = width;
+				newCache.Height = height;
 			}
 
 			newCache.CacheMatrix.set(matrix);
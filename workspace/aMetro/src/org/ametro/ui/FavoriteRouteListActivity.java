@@ -23,13 +23,19 @@ package org.ametro.ui;
 import static org.ametro.app.Constants.STATION_FROM_ID;
 import static org.ametro.app.Constants.STATION_TO_ID;
 
+import java.util.ArrayList;
+
 import org.ametro.R;
 import org.ametro.model.SchemeView;
+import org.ametro.model.route.RouteBuilder;
+import org.ametro.model.route.RouteContainer;
+import org.ametro.model.route.RouteParameters;
 import org.ametro.ui.adapters.FavoriteRoutesListAdapter;
 
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Point;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.ContextMenu;
 import android.view.KeyEvent;
@@ -57,6 +63,7 @@ public class FavoriteRouteListActivity extends Activity implements OnClickListen
 	private Button mCancel;
 	
 	private FavoriteRoutesListAdapter mAdapter;
+	private RouteDelaysTask mDelaysTask;
 	
 	private static final int CONTEXT_MENU_SELECT = 0;
 	private static final int CONTEXT_MENU_REMOVE = 1;
@@ -156,6 +163,48 @@ public class FavoriteRouteListActivity extends Activity implements OnClickListen
 		mMapView = MapViewActivity.Instance.getMapView();
 		mAdapter = new FavoriteRoutesListAdapter(this, mRoutes, mMapView);
 		mList.setAdapter(mAdapter);
+		if(mDelaysTask!=null){
+			mDelaysTask.cancel(true);
+		}
+		mDelaysTask = new RouteDelaysTask(mAdapter);
+		mDelaysTask.execute(mRoutes);
+	}
+
+	private class RouteDelaysTask extends AsyncTask<Point, Void, Long[]> {
+		
+		private final FavoriteRoutesListAdapter mTarget;
+		
+		public RouteDelaysTask(FavoriteRoutesListAdapter target){
+			mTarget = target;
+		}
+		
+		protected Long[] doInBackground(Point... routes) {
+			final SchemeView map = mMapView;
+			final int[] empty = new int[0];
+			final ArrayList<RouteParameters> parameters = new ArrayList<RouteParameters>(routes.length);
+			for(Point r : routes){
+				parameters.add(new RouteParameters(map.stations[r.x].stationId, map.stations[r.y].stationId, empty, empty, RouteBuilder.ROUTE_OPTION_SHORTEST, map.transports, 0));
+			}
+			try {
+				final RouteContainer[] containers = RouteBuilder.createRoutes(map.owner, parameters);
+				final Long[] delays = new Long[containers.length];
+				for(int i = 0; i < containers.length; i++){
+					if(containers[i].hasRoutes()){
+						delays[i] = containers[i].getDefaultRoute().getLength();
+					}
+				}
+				return delays;
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+
+		protected void onPostExecute(Long[] result) {
+			if(result!=null){
+				mTarget.setDelays(result);
+			}
+			super.onPostExecute(result);
+		}
 	}
 
 
@@ -163,7 +163,7 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 			int[] exclude = new int[0];
 			int[] transports = mScheme.transports;// mScheme.getCheckedTransports();
 			
-			RouteParameters routeParameters = new RouteParameters(from, to, include, exclude, RouteBuilder.ROUTE_OPTION_ALL, transports, 0);
+			RouteParameters routeParameters = new RouteParameters(from, to, include, exclude, RouteBuilder.ROUTE_OPTION_ALL | RouteBuilder.ROUTE_OPTION_ALTERNATIVE, transports, 0);
 			return RouteBuilder.createRoutes(mScheme.owner, routeParameters);
 		}
 
@@ -227,6 +227,7 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 			mModelLastModified = Instance.mModelLastModified;
 			mScheme = Instance.mScheme;
 			mRouteContainer = Instance.mRouteContainer;
+			mRouteIndex = Instance.mRouteIndex;
 			mModelFileName = Instance.mModelFileName;
 			mMapViewName = Instance.mMapViewName;
 			if(mModel!=null && isUpdateNeeded()){
@@ -353,6 +354,12 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 		if(mModelFileName!=null && mModel!=null){
 			File file = new File(mModelFileName);
 			if(!file.exists()) {
+				// map could be imported again and stored in other format
+				String mapPath = GlobalSettings.getLocalCatalogMapFileName(getSystemMapName());
+				if(new File(mapPath).exists()){
+					mModelFileName = mapPath;
+					return true;
+				}
 				clearDefaultMapName();
 				setContentView(R.layout.map_view_empty);
 				return false;
@@ -378,6 +385,7 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 		menu.add(0, MAIN_MENU_FIND, 0, R.string.menu_search).setIcon(android.R.drawable.ic_menu_search);
 		menu.add(0, MAIN_MENU_INFO, 1, R.string.menu_info).setIcon(android.R.drawable.ic_menu_info_details);
 		menu.add(0, MAIN_MENU_ROUTES, 2, R.string.menu_routes).setIcon(android.R.drawable.ic_menu_directions);
+		menu.add(0, MAIN_MENU_NEXT_ROUTE, 2, R.string.menu_next_route).setIcon(android.R.drawable.ic_menu_rotate);
 		menu.add(0, MAIN_MENU_LAYERS, 3, R.string.menu_layers).setIcon(android.R.drawable.ic_menu_agenda);
 		menu.add(0, MAIN_MENU_SCHEMES, 4, R.string.menu_schemes).setIcon(android.R.drawable.ic_menu_sort_by_size);
 
@@ -399,6 +407,7 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 		menu.findItem(MAIN_MENU_FIND).setEnabled(mModel!=null);
 		menu.findItem(MAIN_MENU_INFO).setEnabled(mModel!=null);
 		menu.findItem(MAIN_MENU_ROUTES).setEnabled(mModel!=null);
+		menu.findItem(MAIN_MENU_NEXT_ROUTE).setVisible(mRouteContainer!=null && mRouteContainer.getRouteCount()>1);
 		menu.findItem(MAIN_MENU_LEGEND).setEnabled(mModel!=null);
 		menu.findItem(MAIN_MENU_LAYERS).setVisible(false); //menu.findItem(MAIN_MENU_LAYERS).setEnabled(false);//mModel!=null);
 		menu.findItem(MAIN_MENU_SCHEMES).setEnabled(mModel!=null);
@@ -413,6 +422,9 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 			clearNavigation(true);
 			mMapObjectSelection.clearSelection();
 			return true;
+		case MAIN_MENU_NEXT_ROUTE:
+			setNextNavigationRoute();
+			return true;
 		case MAIN_MENU_FIND:
 			onSearchRequested();
 			return true;
@@ -537,6 +549,10 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 	public void loadDefaultMapName(){
 		GlobalSettings.MapPath path = GlobalSettings.getCurrentMap(this);
 		mModelFileName = path.FilePath;
+		if(mModelFileName!=null && !new File(mModelFileName).exists()){
+			// map could be imported again and stored in other format
+			mModelFileName = GlobalSettings.getLocalCatalogMapFileName(path.getSystemMapName());
+		}
 		mMapViewName = path.ViewName;		
 	}
 
@@ -680,15 +696,16 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 	}
 
 	public String getSystemMapName() {
-		return mModelFileName==null ? null : mModelFileName.substring(mModelFileName.lastIndexOf('/')+1);
+		return mModelFileName==null ? null : Catalog.getSystemName(mModelFileName.substring(mModelFileName.lastIndexOf('/')+1));
 	}
 
 	public void onCatalogMapChanged(String systemName) {
 		final String name = systemName;
 		mPrivateHandler.post(new Runnable() {
 			public void run() {
-				String mapPath = GlobalSettings.getLocalCatalogMapFileName(name);
-				if(mModelFileName!=null && mModelFileName.equalsIgnoreCase(mapPath)){
+				if(mModelFileName!=null && name.equalsIgnoreCase(getSystemMapName())){
+					// map could be imported again and stored in other format
+					mModelFileName = GlobalSettings.getLocalCatalogMapFileName(name);
 					showDialog(DIALOG_RELOAD_MAP);
 				}
 			}
@@ -781,26 +798,40 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 		boolean refreshNeeded = (result != mRouteContainer) || (result == null && mRouteContainer!=null) || (result!=null && mRouteContainer == null);
 		if(refreshNeeded){
 			mRouteContainer = result;
-			mCurrentRouteView = new RouteView(mScheme, mRouteContainer.getDefaultRoute());
-			if(result!=null){
-				mNavigationSegments = mCurrentRouteView.getSegments();
-				mNavigationStations = mCurrentRouteView.getStations();
-				mNavigationTransfers = mCurrentRouteView.getTransfers();
-				setCurrentStation( mNavigationStations.get(0) );
-				showNavigationControls();
-				mVectorMapView.setSchemeMarkers(mCurrentRouteView.getStationFrom(), mCurrentRouteView.getStationTo());
-				mMapObjectSelection.setSelection(mCurrentRouteView.getStationFrom(), mCurrentRouteView.getStationTo()); 
-			}else{
-				hideNavigationControls();
-				mNavigationStations = null;
-				mNavigationSegments = null;
-				mNavigationTransfers = null;
-				setCurrentStation(null);
-				mVectorMapView.setSchemeMarkers(null,null);
-			}
-			mVectorMapView.setSchemeSelection(mNavigationStations, mNavigationSegments,mNavigationTransfers);
-			mVectorMapView.postInvalidate();
+			mRouteIndex = 0;
+			showNavigationRoute();
+		}
+	}
+
+	// alternative routes are shown in order of their length
+	private void setNextNavigationRoute(){
+		if(mRouteContainer!=null && mRouteContainer.getRouteCount()>1){
+			mRouteIndex = (mRouteIndex + 1) % mRouteContainer.getRouteCount();
+			showNavigationRoute();
+		}
+	}
+
+	private void showNavigationRoute(){
+		final RouteContainer result = mRouteContainer;
+		mCurrentRouteView = result!=null ? new RouteView(mScheme, result.getRoute(mRouteIndex)) : null;
+		if(result!=null){
+			mNavigationSegments = mCurrentRouteView.getSegments();
+			mNavigationStations = mCurrentRouteView.getStations();
+			mNavigationTransfers = mCurrentRouteView.getTransfers();
+			setCurrentStation( mNavigationStations.get(0) );
+			showNavigationControls();
+			mVectorMapView.setSchemeMarkers(mCurrentRouteView.getStationFrom(), mCurrentRouteView.getStationTo());
+			mMapObjectSelection.setSelection(mCurrentRouteView.getStationFrom(), mCurrentRouteView.getStationTo()); 
+		}else{
+			hideNavigationControls();
+			mNavigationStations = null;
+			mNavigationSegments = null;
+			mNavigationTransfers = null;
+			setCurrentStation(null);
+			mVectorMapView.setSchemeMarkers(null,null);
 		}
+		mVectorMapView.setSchemeSelection(mNavigationStations, mNavigationSegments,mNavigationTransfers);
+		mVectorMapView.postInvalidate();
 	}
 
 	/*package*/ boolean isNavigationActive(){
@@ -1177,6 +1208,7 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 	private static final int MAIN_MENU_LOCATION = 10;
 	private static final int MAIN_MENU_EXPERIMENTAL = 11;
 	private static final int MAIN_MENU_LEGEND = 12;
+	private static final int MAIN_MENU_NEXT_ROUTE = 13;
 
 	private String mModelFileName;
 	private String mMapViewName;
@@ -1193,6 +1225,7 @@ public class MapViewActivity extends Activity implements OnClickListener, OnDism
 
 	private RouteView mCurrentRouteView;
 	private RouteContainer mRouteContainer;
+	private int mRouteIndex; // route of container shown now
 
 	private Handler mPrivateHandler = new Handler();
 
@@ -351,12 +351,12 @@ public class RouteCreateActivity extends Activity implements OnClickListener,
 			int to = stations[len-1];
 			int[] include = new int[len-2];
 			for(int i = 1;i<len-1;i++){
-				include[i] = stations[i];
+				include[i-1] = stations[i];
 			}
 			int[] exclude = new int[0];
 			int[] transports = mTransports.getCheckedTransports();
 			
-			RouteParameters routeParameters = new RouteParameters(from, to, include, exclude, RouteBuilder.ROUTE_OPTION_ALL, transports, mDelayMode);
+			RouteParameters routeParameters = new RouteParameters(from, to, include, exclude, RouteBuilder.ROUTE_OPTION_ALL | RouteBuilder.ROUTE_OPTION_ALTERNATIVE, transports, mDelayMode);
 			return RouteBuilder.createRoutes(mMapView.owner, routeParameters);
 		}
 
@@ -26,6 +26,7 @@ import org.ametro.R;
 import org.ametro.model.LineView;
 import org.ametro.model.SchemeView;
 import org.ametro.model.StationView;
+import org.ametro.util.DateUtil;
 
 import android.app.Activity;
 import android.graphics.Bitmap;
@@ -52,6 +53,7 @@ public class FavoriteRoutesListAdapter extends BaseAdapter implements OnClickLis
 		public final ImageView ImageFrom;
 		public final TextView NameTo;
 		public final ImageView ImageTo;
+		public final TextView Delay;
 		public final ImageView Delete;
 		
 		public ListItemWrapper(View view) {
@@ -59,6 +61,7 @@ public class FavoriteRoutesListAdapter extends BaseAdapter implements OnClickLis
 			ImageFrom = (ImageView)view.findViewById(R.id.route_favorite_list_item_image_from);
 			NameTo = (TextView)view.findViewById(R.id.route_favorite_list_item_name_to);
 			ImageTo = (ImageView)view.findViewById(R.id.route_favorite_list_item_image_to);
+			Delay = (TextView)view.findViewById(R.id.route_favorite_list_item_delay);
 			Delete = (ImageView)view.findViewById(R.id.route_favorite_list_item_delete);
 			view.setTag(this);
 		}
@@ -97,6 +100,7 @@ public class FavoriteRoutesListAdapter extends BaseAdapter implements OnClickLis
 	protected final Point[] mRoutes;
 	protected final boolean[] mChecked;
 	protected boolean mIsCheckboxesVisible;
+	protected Long[] mDelays;
 
 	public void setCheckboxesVisible(boolean show){
 		mIsCheckboxesVisible = show;
@@ -107,6 +111,11 @@ public class FavoriteRoutesListAdapter extends BaseAdapter implements OnClickLis
 		return mIsCheckboxesVisible;
 	}
 	
+	public void setDelays(Long[] delays){
+		mDelays = delays;
+		notifyDataSetChanged();
+	}
+	
 	public boolean[] getChecked(){
 		return mChecked;
 	}
@@ -148,6 +157,7 @@ public class FavoriteRoutesListAdapter extends BaseAdapter implements OnClickLis
 			if(mTextColor!=null){
 				wrapper.NameFrom.setTextColor(mTextColor);
 				wrapper.NameTo.setTextColor(mTextColor);
+				wrapper.Delay.setTextColor(mTextColor);
 			}
 			wrapper.Delete.setOnClickListener(this);
 		}else{
@@ -162,6 +172,11 @@ public class FavoriteRoutesListAdapter extends BaseAdapter implements OnClickLis
 		final LineView lineTo = mLines[stationTo.lineViewId]; 
 		wrapper.NameFrom.setText(stationFrom.getName());
 		wrapper.NameTo.setText(stationTo.getName());
+		if(mDelays!=null && mDelays[position]!=null){
+			wrapper.Delay.setText(DateUtil.getTimeHHMM(mDelays[position]));
+		}else{
+			wrapper.Delay.setText("");
+		}
 		
 		wrapper.ImageFrom.setColorFilter(0xFF000000 | lineFrom.lineColor, Mode.SRC);
 		wrapper.ImageTo.setColorFilter(0xFF000000 | lineTo.lineColor, Mode.SRC);
@@ -24,6 +24,7 @@ public class MultiTouchController {
 		public void onTouchModeChanged(int mode);
 		public void onPerformClick(PointF position);
 		public void onPerformLongClick(PointF position);
+		public void onFlingTargetChanged(Matrix target); // target is null when fling is over
 	}
 
 	private MultiTouchListener listener;
@@ -180,6 +181,7 @@ public class MultiTouchController {
 	private boolean doActionDown(MotionEventWrapper event){
 		if (!scroller.isFinished()) {
 			scroller.abortAnimation();
+			listener.onFlingTargetChanged(null);
 			setControllerMode(MODE_DRAG_START);
 		} else {
 			setControllerMode(MODE_INIT);
@@ -200,6 +202,7 @@ public class MultiTouchController {
 		if (zoomBase > 10f) {
 			if (!scroller.isFinished()) {
 				scroller.abortAnimation();
+				listener.onFlingTargetChanged(null);
 			}
 			savedMatrix.set(matrix);
 			float x = event.getX(0) + event.getX(1);
@@ -296,6 +299,10 @@ public class MultiTouchController {
 				int maxX = (int) Math.max(currentWidth - displayRect.width(), 0);
 				int maxY = (int) Math.max(currentHeight - displayRect.height(), 0);
 				scroller.fling((int) -currentX, (int) -currentY, vx, vy, 0, maxX, 0, maxY);
+				// position where fling stops, so renderer can prepare it in advance
+				Matrix target = new Matrix(matrix);
+				target.postTranslate(-scroller.getFinalX() - currentX, -scroller.getFinalY() - currentY);
+				listener.onFlingTargetChanged(target);
 				privateHandler.sendEmptyMessage(MSG_PROCESS_FLING);
 				break;
 			}
@@ -406,6 +413,8 @@ public class MultiTouchController {
 			matrix.postTranslate(dx, dy);
 			adjustPan();
 			listener.setPositionAndScaleMatrix(matrix);
+		}else{
+			listener.onFlingTargetChanged(null);
 		}
 		return more;
 	}
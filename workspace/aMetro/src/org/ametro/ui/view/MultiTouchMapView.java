@@ -211,6 +211,10 @@ public class MultiTouchMapView extends ScrollView implements MultiTouchListener
 		mMapView.setUpdatesEnabled(mode != MultiTouchController.MODE_ZOOM && mode!= MultiTouchController.MODE_ANIMATION );
 	}
 
+	public void onFlingTargetChanged(Matrix target) {
+		mMapView.setPredictedMatrix(target);
+	}
+
 	public void onPerformClick(PointF position) {
 		if(mZoomController!=null){
 			mZoomController.showZoom();
@@ -277,6 +281,10 @@ public class MultiTouchMapView extends ScrollView implements MultiTouchListener
 		mTransfers = transfers;
 		mMapView.setSchemeSelection(stations,segments,transfers);
 	}
+
+	public void setSchemeTravelTimes(long[] delays, long bucketSize) {
+		mMapView.setSchemeTravelTimes(delays, bucketSize);
+	}
 	
 	public void setSchemeMarkers(StationView startMarker, StationView endMarker)
 	{
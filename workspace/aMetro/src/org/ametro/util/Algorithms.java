@@ -205,6 +205,67 @@ public class Algorithms {
         return true;
     }
 
+    /** Douglas-Peucker polyline simplification, end points are always kept **/
+    public static Point[] simplifyDouglasPeucker(Point[] points, float tolerance) {
+        final int count = points.length;
+        if (count < 3) {
+            return points;
+        }
+        final boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        final float tolerance2 = tolerance * tolerance;
+        final int[] stack = new int[count * 2];
+        int size = 0;
+        stack[size++] = 0;
+        stack[size++] = count - 1;
+        int kept = 2;
+        while (size > 0) {
+            final int last = stack[--size];
+            final int first = stack[--size];
+            final Point a = points[first];
+            final Point b = points[last];
+            final float dx = b.x - a.x;
+            final float dy = b.y - a.y;
+            final float length2 = dx * dx + dy * dy;
+            float max = 0;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                final Point p = points[i];
+                float distance2;
+                if (length2 == 0) {
+                    distance2 = (p.x - a.x) * (p.x - a.x) + (p.y - a.y) * (p.y - a.y);
+                } else {
+                    final float cross = dx * (p.y - a.y) - dy * (p.x - a.x);
+                    distance2 = cross * cross / length2;
+                }
+                if (distance2 > max) {
+                    max = distance2;
+                    index = i;
+                }
+            }
+            if (index != -1 && max > tolerance2) {
+                keep[index] = true;
+                kept++;
+                stack[size++] = first;
+                stack[size++] = index;
+                stack[size++] = index;
+                stack[size++] = last;
+            }
+        }
+        if (kept == count) {
+            return points;
+        }
+        final Point[] res = new Point[kept];
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                res[pos++] = points[i];
+            }
+        }
+        return res;
+    }
+
     public static QBezierControls interpolateCubicBezierControl(Point p0, Point p1, Point p2, Point p3) {
         return interpolateCubeBezierSmooth(p0, p1, p2, p3, 1.0f);
         //		int __p0X        = p0.x;
@@ -50,6 +50,38 @@ public class DijkstraHeap {
 		}
 	}
 
+	// input: g - compact graph, s - start vertex
+	// output: prio - distances, pred - predecessors
+	// uses heap of the calling thread, so query makes no garbage
+	public static void dijkstra(CompactGraph g, int s, long[] prio, int[] pred) {
+		dijkstra(g, s, prio, pred, IndexedHeap.obtain(g.n));
+	}
+
+	public static void dijkstra(CompactGraph g, int s, long[] prio, int[] pred, IndexedHeap q) {
+		Arrays.fill(pred, -1);
+		Arrays.fill(prio, INF);
+		final int[] offsets = g.offsets;
+		final int[] targets = g.targets;
+		final int[] costs = g.costs;
+		prio[s] = 0;
+		q.reset(prio);
+		q.update(s);
+		while (!q.isEmpty()) {
+			final int v = q.poll();
+			final long vprio = prio[v];
+			final int end = offsets[v + 1];
+			for (int i = offsets[v]; i < end; i++) {
+				final int t = targets[i];
+				final long nprio = vprio + costs[i];
+				if (prio[t] > nprio) {
+					prio[t] = nprio;
+					pred[t] = v;
+					q.update(t);
+				}
+			}
+		}
+	}
+
 	public static final long INF = Long.MAX_VALUE / 10;
 
 	@SuppressWarnings("serial")
@@ -72,15 +104,236 @@ public class DijkstraHeap {
 		public void addEdge(int s, int t, int cost) {
 			edges[s].add(new Edge(s, t, cost));
 		}
+
+		public void addEdge(int s, int t, int cost, int id) {
+			edges[s].add(new Edge(s, t, cost, id));
+		}
+	}
+
+	// compressed sparse row adjacency: edges of vertex v are [offsets[v], offsets[v+1])
+	public static class CompactGraph {
+		public final int n;
+		public final int[] offsets;
+		public final int[] targets;
+		public final int[] costs;
+		public final int[] ids;
+
+		public CompactGraph(Graph g) {
+			n = g.n;
+			offsets = new int[n + 1];
+			for (int v = 0; v < n; v++) {
+				offsets[v + 1] = offsets[v] + g.edges[v].size();
+			}
+			final int m = offsets[n];
+			targets = new int[m];
+			costs = new int[m];
+			ids = new int[m];
+			for (int v = 0; v < n; v++) {
+				int i = offsets[v];
+				for (Edge e : g.edges[v]) {
+					targets[i] = e.t;
+					costs[i] = e.cost;
+					ids[i] = e.id;
+					i++;
+				}
+			}
+		}
+
+		// returns index of cheapest edge s->t or -1 if vertices are not adjacent
+		public int findEdge(int s, int t) {
+			int res = -1;
+			final int end = offsets[s + 1];
+			for (int i = offsets[s]; i < end; i++) {
+				if (targets[i] == t && (res == -1 || costs[i] < costs[res])) {
+					res = i;
+				}
+			}
+			return res;
+		}
+
+		public int getEdgeCount() {
+			return offsets[n];
+		}
+
+		// returns graph with reversed edges, ids of reversed graph are edge indexes of this graph
+		public CompactGraph reverse() {
+			final int m = offsets[n];
+			final int[] roffsets = new int[n + 1];
+			for (int i = 0; i < m; i++) {
+				roffsets[targets[i] + 1]++;
+			}
+			for (int v = 0; v < n; v++) {
+				roffsets[v + 1] += roffsets[v];
+			}
+			final int[] next = new int[n];
+			System.arraycopy(roffsets, 0, next, 0, n);
+			final int[] rtargets = new int[m];
+			final int[] rcosts = new int[m];
+			final int[] rids = new int[m];
+			for (int v = 0; v < n; v++) {
+				final int end = offsets[v + 1];
+				for (int i = offsets[v]; i < end; i++) {
+					final int j = next[targets[i]]++;
+					rtargets[j] = v;
+					rcosts[j] = costs[i];
+					rids[j] = i;
+				}
+			}
+			return new CompactGraph(n, roffsets, rtargets, rcosts, rids);
+		}
+
+		public CompactGraph(int n, int[] offsets, int[] targets, int[] costs, int[] ids) {
+			this.n = n;
+			this.offsets = offsets;
+			this.targets = targets;
+			this.costs = costs;
+			this.ids = ids;
+		}
 	}
 
 	public static class Edge {
-		public int s, t, cost;
+		public int s, t, cost, id;
 
 		public Edge(int s, int t, int cost) {
+			this(s, t, cost, -1);
+		}
+
+		public Edge(int s, int t, int cost, int id) {
 			this.s = s;
 			this.t = t;
 			this.cost = cost;
+			this.id = id;
+		}
+	}
+
+	// indexed 4-ary min-heap of vertices ordered by keys[v], supports decrease-key
+	public static class IndexedHeap {
+		private static final int D = 4;
+
+		private static final ThreadLocal<IndexedHeap> mThreadHeap = new ThreadLocal<IndexedHeap>();
+
+		private int[] mHeap;
+		private int[] mPos;
+		private int mSize;
+		private long[] mKeys;
+
+		public IndexedHeap(int capacity) {
+			mHeap = new int[capacity];
+			mPos = new int[capacity];
+			Arrays.fill(mPos, -1);
+		}
+
+		public static IndexedHeap obtain(int capacity) {
+			IndexedHeap heap = mThreadHeap.get();
+			if (heap == null || heap.mPos.length < capacity) {
+				heap = new IndexedHeap(capacity);
+				mThreadHeap.set(heap);
+			}
+			return heap;
+		}
+
+		public int capacity() {
+			return mPos.length;
+		}
+
+		public void reset(long[] keys) {
+			final int[] heap = mHeap;
+			final int[] pos = mPos;
+			for (int i = 0; i < mSize; i++) {
+				pos[heap[i]] = -1;
+			}
+			mSize = 0;
+			mKeys = keys;
+		}
+
+		public boolean isEmpty() {
+			return mSize == 0;
+		}
+
+		public boolean contains(int v) {
+			return mPos[v] != -1;
+		}
+
+		public int peek() {
+			return mHeap[0];
+		}
+
+		// insert vertex or restore heap order after keys[v] was decreased
+		public void update(int v) {
+			int i = mPos[v];
+			if (i == -1) {
+				i = mSize++;
+				mHeap[i] = v;
+				mPos[v] = i;
+			}
+			siftUp(i);
+		}
+
+		public int poll() {
+			final int[] heap = mHeap;
+			final int top = heap[0];
+			mPos[top] = -1;
+			final int last = heap[--mSize];
+			if (mSize > 0) {
+				heap[0] = last;
+				mPos[last] = 0;
+				siftDown(0);
+			}
+			return top;
+		}
+
+		private void siftUp(int i) {
+			final int[] heap = mHeap;
+			final int[] pos = mPos;
+			final long[] keys = mKeys;
+			final int v = heap[i];
+			final long key = keys[v];
+			while (i > 0) {
+				final int parent = (i - 1) / D;
+				final int p = heap[parent];
+				if (keys[p] <= key) {
+					break;
+				}
+				heap[i] = p;
+				pos[p] = i;
+				i = parent;
+			}
+			heap[i] = v;
+			pos[v] = i;
+		}
+
+		private void siftDown(int i) {
+			final int[] heap = mHeap;
+			final int[] pos = mPos;
+			final long[] keys = mKeys;
+			final int size = mSize;
+			final int v = heap[i];
+			final long key = keys[v];
+			while (true) {
+				final int first = i * D + 1;
+				if (first >= size) {
+					break;
+				}
+				final int last = Math.min(first + D, size);
+				int best = first;
+				long bestKey = keys[heap[first]];
+				for (int c = first + 1; c < last; c++) {
+					final long k = keys[heap[c]];
+					if (k < bestKey) {
+						best = c;
+						bestKey = k;
+					}
+				}
+				if (bestKey >= key) {
+					break;
+				}
+				final int b = heap[best];
+				heap[i] = b;
+				pos[b] = i;
+				i = best;
+			}
+			heap[i] = v;
+			pos[v] = i;
 		}
 	}
 
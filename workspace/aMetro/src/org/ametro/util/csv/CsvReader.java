@@ -23,7 +23,6 @@ package org.ametro.util.csv;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Date;
 
 import org.ametro.model.ext.ModelLocation;
@@ -36,18 +35,44 @@ import android.graphics.Point;
 
 /**
  * @author Vlad Vinichenko (akerigan@gmail.com) Date: 08.02.2010 Time: 22:10:36
+ *
+ * Records are tokenized in place: reader keeps a reusable char buffer and
+ * offsets of columns of the current record, numbers, points and rects are
+ * parsed straight from the buffer. Strings are created only for string columns.
  */
 public class CsvReader {
 
 	public static final String EMPTY_VALUE = "null";
 	private static final char DEFAULT_SEPARATOR = ';';
+	private static final char ARRAY_SEPARATOR = ',';
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int INITIAL_COLUMNS = 32;
+
+	// powers of ten exactly representable as float and double
+	private static final float[] FLOAT_POWERS = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+	private static final double[] DOUBLE_POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
 
 	private BufferedReader mReader;
 	private char mSeparator;
-	private String[] mRecord;
+
+	private char[] mBuffer = new char[BUFFER_SIZE];
+	private int mBufferLength;
+	private int mPosition; // first char after current record
+	private boolean mEndOfStream;
+	private boolean mSkipLineFeed; // previous record ended with '\r'
+
+	private int mRecordStart;
+	private int mRecordEnd;
+	private int[] mColumnStart = new int[INITIAL_COLUMNS];
+	private int[] mColumnEnd = new int[INITIAL_COLUMNS];
 	private int mCurrentColumn;
-	private int mTotalColumns;
-	private String mEntireRecord;
+	private int mTotalColumns;
+	private String mEntireRecord; // created on demand
+
+	// result of last number parsing, false if text is not a number
+	private boolean mIsNumber;
 
 	public CsvReader(BufferedReader reader, char separator) {
 		mReader = reader;
@@ -58,51 +83,6 @@ public class CsvReader {
 		this(reader, DEFAULT_SEPARATOR);
 	}
 
-	ArrayList<String> mLineParts = new ArrayList<String>();
-	StringBuilder mLineBuilder = new StringBuilder();
-
-	/**
-	 * Получить следующую нетипизированную
-	 * запись из потока без сохранения
-	 * состояния
-	 * 
-	 * @return Следующая нетипизированная запись
-	 *         из потока
-	 * @throws IOException
-	 */
-	protected String[] readNextRecord() throws IOException {
-		String line = mReader.readLine();
-		while(line!=null && line.length() == 0){
-			line = mReader.readLine();
-		} 
-		if (line != null) {
-			mEntireRecord = line;
-			final ArrayList<String> parts = mLineParts;
-			final StringBuilder sb = mLineBuilder;
-			final int length = line.length(); 
-			int position = 0;
-			char ch;
-			parts.clear(); 
-			sb.setLength(0);
-			while( position < length ){
-				ch = (char)line.charAt(position);
-				if(ch == mSeparator){
-					parts.add(sb.toString()); 
-					sb.setLength(0);
-				}else{
-					sb.append(ch);
-				}
-				position++;
-			}
-			parts.add(sb.toString());
-			return (String[]) parts.toArray(new String[parts.size()]);
-		} else {
-			mEntireRecord = null;
-			return null;
-		}
-	}
-
-
 	/**
 	 * Сохранить следующую нетипизированную
 	 * запись из потока
@@ -112,128 +92,443 @@ public class CsvReader {
 	 * @throws IOException
 	 */
 	public boolean next() throws IOException {
-		final String[] record = readNextRecord();
 		mCurrentColumn = 0;
-		if (record != null) {
-			mRecord = record;
-			mTotalColumns = record.length;
+		mEntireRecord = null;
+		if (readRecord()) {
 			return true;
 		} else {
-			mRecord = null;
 			mTotalColumns = 0;
+			mRecordStart = mRecordEnd = 0;
 			return false;
 		}
 	}
 
-	private static String getValue(String[] record, int currentColumn, int totalColumns) {
-		if (currentColumn < totalColumns) {
-			return StringUtil.notEmptyElseNull(record[currentColumn]);
-		} else {
+	// finds next non empty line in buffer and splits it into columns
+	private boolean readRecord() throws IOException {
+		for (;;) {
+			if (mSkipLineFeed) {
+				if (mPosition == mBufferLength) {
+					fill();
+				}
+				if (mPosition < mBufferLength && mBuffer[mPosition] == '\n') {
+					mPosition++;
+				}
+				mSkipLineFeed = false;
+			}
+			int end = mPosition;
+			for (;;) {
+				final char[] buffer = mBuffer;
+				final int length = mBufferLength;
+				while (end < length) {
+					final char ch = buffer[end];
+					if (ch == '\n' || ch == '\r') {
+						break;
+					}
+					end++;
+				}
+				if (end < length) {
+					break;
+				}
+				final int scanned = end - mPosition;
+				if (!fill()) {
+					end = mPosition + scanned;
+					break;
+				}
+				end = mPosition + scanned;
+			}
+			final int start = mPosition;
+			if (end == mBufferLength) {
+				// last line without line terminator
+				if (start == end) {
+					return false;
+				}
+				mPosition = end;
+			} else {
+				mSkipLineFeed = mBuffer[end] == '\r';
+				mPosition = end + 1;
+			}
+			if (start < end) {
+				split(start, end);
+				return true;
+			}
+		}
+	}
+
+	// moves unread chars to the buffer start and reads more, returns false at the end of stream
+	private boolean fill() throws IOException {
+		if (mEndOfStream) {
+			return false;
+		}
+		if (mPosition > 0) {
+			System.arraycopy(mBuffer, mPosition, mBuffer, 0, mBufferLength - mPosition);
+			mBufferLength -= mPosition;
+			mPosition = 0;
+		}
+		if (mBufferLength == mBuffer.length) {
+			// line is longer than buffer
+			final char[] buffer = new char[mBuffer.length * 2];
+			System.arraycopy(mBuffer, 0, buffer, 0, mBufferLength);
+			mBuffer = buffer;
+		}
+		final int count = mReader.read(mBuffer, mBufferLength, mBuffer.length - mBufferLength);
+		if (count == -1) {
+			mEndOfStream = true;
+			return false;
+		}
+		mBufferLength += count;
+		return true;
+	}
+
+	private void split(int start, int end) {
+		final char[] buffer = mBuffer;
+		final char separator = mSeparator;
+		mRecordStart = start;
+		mRecordEnd = end;
+		int columns = 0;
+		int columnStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || buffer[i] == separator) {
+				if (columns == mColumnStart.length) {
+					final int[] starts = new int[columns * 2];
+					final int[] ends = new int[columns * 2];
+					System.arraycopy(mColumnStart, 0, starts, 0, columns);
+					System.arraycopy(mColumnEnd, 0, ends, 0, columns);
+					mColumnStart = starts;
+					mColumnEnd = ends;
+				}
+				mColumnStart[columns] = columnStart;
+				mColumnEnd[columns] = i;
+				columns++;
+				columnStart = i + 1;
+			}
+		}
+		mTotalColumns = columns;
+	}
+
+	// returns true if column is missing or has white space only
+	private boolean isNull(int column) {
+		if (column >= mTotalColumns) {
+			return true;
+		}
+		final char[] buffer = mBuffer;
+		final int end = mColumnEnd[column];
+		for (int i = mColumnStart[column]; i < end; i++) {
+			if (buffer[i] > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// returns true if column holds EMPTY_VALUE
+	private boolean isEmptyValue(int column) {
+		if (column >= mTotalColumns) {
+			return false;
+		}
+		final int start = mColumnStart[column];
+		final int length = mColumnEnd[column] - start;
+		if (length != EMPTY_VALUE.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (mBuffer[start + i] != EMPTY_VALUE.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String getValue(int column) {
+		if (isNull(column)) {
 			return null;
 		}
+		final int start = mColumnStart[column];
+		return new String(mBuffer, start, mColumnEnd[column] - start);
+	}
+
+	private static int indexOf(char[] buffer, char ch, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buffer[i] == ch) {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private static int countParts(char[] buffer, int start, int end) {
+		int count = 1;
+		for (int i = start; i < end; i++) {
+			if (buffer[i] == ARRAY_SEPARATOR) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static boolean equalsIgnoreCase(char[] buffer, int start, int end, String text) {
+		if (end - start != text.length()) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			final char ch = buffer[i];
+			final char other = text.charAt(i - start);
+			if (ch != other && Character.toLowerCase(ch) != other) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// parses decimal number like Long.parseLong, sets mIsNumber
+	private long parseLong(int start, int end, long min, long max) {
+		final char[] buffer = mBuffer;
+		mIsNumber = false;
+		if (start == end) {
+			return 0;
+		}
+		final boolean negative = buffer[start] == '-';
+		int i = (negative || buffer[start] == '+') ? start + 1 : start;
+		if (i == end) {
+			return 0;
+		}
+		// accumulate negative value, so min value does not overflow
+		final long limit = negative ? min : -max;
+		final long multiplyLimit = limit / 10;
+		long result = 0;
+		for (; i < end; i++) {
+			final int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9 || result < multiplyLimit) {
+				return 0;
+			}
+			result *= 10;
+			if (result < limit + digit) {
+				return 0;
+			}
+			result -= digit;
+		}
+		mIsNumber = true;
+		return negative ? result : -result;
+	}
+
+	private int parseInt(int start, int end, int defaultValue) {
+		final int value = (int) parseLong(start, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		return mIsNumber ? value : defaultValue;
+	}
+
+	// parses integer part of point or rect, white space around number is ignored
+	private int parseCoordinate(int start, int end) {
+		final char[] buffer = mBuffer;
+		while (start < end && buffer[start] <= ' ') {
+			start++;
+		}
+		while (end > start && buffer[end - 1] <= ' ') {
+			end--;
+		}
+		final int value = (int) parseLong(start, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		if (!mIsNumber) {
+			throw new NumberFormatException("Invalid coordinate: " + new String(buffer, start, end - start));
+		}
+		return value;
+	}
+
+	/**
+	 * Parses plain decimal like 12.345 or -1.5E3 when result is exact,
+	 * returns NaN for other texts, so caller parses them as string.
+	 */
+	private double parseDecimal(int start, int end, int maxDigits, int maxPower) {
+		final char[] buffer = mBuffer;
+		int i = start;
+		final boolean negative = i < end && buffer[i] == '-';
+		if (negative) {
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int power = 0;
+		boolean point = false;
+		boolean hasDigits = false;
+		for (; i < end; i++) {
+			final char ch = buffer[i];
+			if (ch >= '0' && ch <= '9') {
+				hasDigits = true;
+				if (mantissa != 0 || ch != '0') {
+					if (++digits > maxDigits) {
+						return Double.NaN;
+					}
+					mantissa = mantissa * 10 + (ch - '0');
+				}
+				if (point) {
+					power--;
+				}
+			} else if (ch == '.' && !point) {
+				point = true;
+			} else if ((ch == 'E' || ch == 'e') && hasDigits) {
+				final int exponent = (int) parseLong(i + 1, end, -1000, 1000);
+				if (!mIsNumber) {
+					return Double.NaN;
+				}
+				power += exponent;
+				i = end;
+				break;
+			} else {
+				return Double.NaN;
+			}
+		}
+		if (!hasDigits || power > maxPower || power < -maxPower) {
+			return Double.NaN;
+		}
+		return negative ? -scale(mantissa, power, maxDigits) : scale(mantissa, power, maxDigits);
+	}
+
+	private static double scale(long mantissa, int power, int maxDigits) {
+		if (maxDigits <= 7) {
+			// single float operation, so float result is rounded only once
+			final float value = mantissa;
+			return power >= 0 ? value * FLOAT_POWERS[power] : value / FLOAT_POWERS[-power];
+		}
+		final double value = mantissa;
+		return power >= 0 ? value * DOUBLE_POWERS[power] : value / DOUBLE_POWERS[-power];
+	}
+
+	private float parseFloat(int start, int end) {
+		final double value = parseDecimal(start, end, 7, FLOAT_POWERS.length - 1);
+		if (Double.isNaN(value)) {
+			return Float.parseFloat(new String(mBuffer, start, end - start));
+		}
+		return (float) value;
+	}
+
+	private double parseDouble(int column, double defaultValue) {
+		if (isNull(column)) {
+			return defaultValue;
+		}
+		final int start = mColumnStart[column];
+		final int end = mColumnEnd[column];
+		final double value = parseDecimal(start, end, 15, DOUBLE_POWERS.length - 1);
+		if (Double.isNaN(value)) {
+			return StringUtil.parseDouble(new String(mBuffer, start, end - start), defaultValue);
+		}
+		return value;
+	}
+
+	private boolean parseBoolean(int column) {
+		if (isNull(column)) {
+			return false;
+		}
+		final char[] buffer = mBuffer;
+		int start = mColumnStart[column];
+		int end = mColumnEnd[column];
+		final int rawStart = start;
+		final int rawEnd = end;
+		while (buffer[start] <= ' ') {
+			start++;
+		}
+		while (buffer[end - 1] <= ' ') {
+			end--;
+		}
+		return equalsIgnoreCase(buffer, start, end, "true")
+			|| equalsIgnoreCase(buffer, start, end, "yes")
+			|| parseInt(rawStart, rawEnd, 0) > 0;
 	}
 
 	public String readString() {
-		return getValue(mRecord, mCurrentColumn++, mTotalColumns);
+		return getValue(mCurrentColumn++);
 	}
 
 	public String getString(int index) {
-		return getValue(mRecord, index, mTotalColumns);
+		return getValue(index);
 	}
 
 	public int readInt() {
-		return StringUtil.parseInt(getValue(mRecord, mCurrentColumn++,
-				mTotalColumns), 0);
+		return getInt(mCurrentColumn++);
 	}
 
 	public int getInt(int index) {
-		return StringUtil.parseInt(getValue(mRecord, index, mTotalColumns), 0);
+		if (isNull(index)) {
+			return 0;
+		}
+		return parseInt(mColumnStart[index], mColumnEnd[index], 0);
 	}
 
 	public long readLong() {
-		return StringUtil.parseLong(getValue(mRecord, mCurrentColumn++,
-				mTotalColumns), 0);
+		return getLong(mCurrentColumn++);
 	}
 
 	public long getLong(int index) {
-		return StringUtil.parseLong(getValue(mRecord, index, mTotalColumns), 0);
+		if (isNull(index)) {
+			return 0;
+		}
+		final long value = parseLong(mColumnStart[index], mColumnEnd[index], Long.MIN_VALUE, Long.MAX_VALUE);
+		return mIsNumber ? value : 0;
 	}
 
 	public double readDouble() {
-		return StringUtil.parseDouble(getValue(mRecord, mCurrentColumn++,
-				mTotalColumns), 0);
+		return parseDouble(mCurrentColumn++, 0);
 	}
 
 	public float readFloat() {
-		return StringUtil.parseFloat(getValue(mRecord, mCurrentColumn++,
-				mTotalColumns), 0);
+		return getFloat(mCurrentColumn++);
 	}
 	
 	public Double readNullableDouble() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			return StringUtil.parseDouble(value, 0);
+		final int column = mCurrentColumn++;
+		if (!isEmptyValue(column)) {
+			return parseDouble(column, 0);
 		} else {
 			return null;
 		}
 	}
 
 	public Integer readNullableInteger() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if ( !StringUtil.isNullOrEmpty(value) && !EMPTY_VALUE.equals(value)) {
-			return StringUtil.parseInt(value, 0);
+		final int column = mCurrentColumn++;
+		if (!isNull(column) && !isEmptyValue(column)) {
+			return parseInt(mColumnStart[column], mColumnEnd[column], 0);
 		} else {
 			return null;
 		}
 	}
 	
 	public double getDouble(int index) {
-		return StringUtil.parseDouble(getValue(mRecord, index, mTotalColumns), 0);
+		return parseDouble(index, 0);
 	}
 
 	public Double getNullableDouble(int index) {
-		String value = getValue(mRecord, index, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			return StringUtil.parseDouble(value, 0);
+		if (!isEmptyValue(index)) {
+			return parseDouble(index, 0);
 		} else {
 			return null;
 		}
 	}
 
 	public Double getNullableDouble(int index, double defaultValue) {
-		String value = getValue(mRecord, index, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			return StringUtil.parseDouble(value, defaultValue);
+		if (!isEmptyValue(index)) {
+			return parseDouble(index, defaultValue);
 		} else {
 			return defaultValue;
 		}
 	}
 
 	public boolean readBoolean() {
-		return StringUtil.parseBoolean(getValue(mRecord, mCurrentColumn++,
-				mTotalColumns), false);
+		return parseBoolean(mCurrentColumn++);
 	}
 
 	public boolean getBoolean(int index) {
-		return StringUtil.parseBoolean(getValue(mRecord, index, mTotalColumns),
-				false);
+		return parseBoolean(index);
 	}
 
 	public Date readDate() {
-		return StringUtil.parseDate(getValue(mRecord, mCurrentColumn++,
-				mTotalColumns), null);
+		return StringUtil.parseDate(getValue(mCurrentColumn++), null);
 	}
 
 	public Date getDate(int index) {
-		return StringUtil.parseDate(getValue(mRecord, index, mTotalColumns),
-				null);
+		return StringUtil.parseDate(getValue(index), null);
 	}
 
 
 	public Point[] readPointArray() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			return StringUtil.parsePointArray(value);
+		final int column = mCurrentColumn++;
+		if (!isEmptyValue(column)) {
+			return StringUtil.parsePointArray(getValue(column));
 		} else {
 			return null;
 		}
@@ -241,79 +536,151 @@ public class CsvReader {
 
 
 	public ModelPoint readModelPoint() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			return StringUtil.parseModelPoint(value);
-		} else {
+		final int column = mCurrentColumn++;
+		if (isNull(column) || isEmptyValue(column)) {
 			return null;
 		}
+		final char[] buffer = mBuffer;
+		final int start = mColumnStart[column];
+		final int end = mColumnEnd[column];
+		final int separator = indexOf(buffer, ARRAY_SEPARATOR, start, end);
+		if (separator == end) {
+			throw new NumberFormatException("Invalid point: " + getValue(column));
+		}
+		final int x = parseCoordinate(start, separator);
+		final int y = parseCoordinate(separator + 1, indexOf(buffer, ARRAY_SEPARATOR, separator + 1, end));
+		return new ModelPoint(x, y);
 	}
 
 	public ModelPoint[] readModelPointArray() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			return StringUtil.parseModelPointArray(value);
-		} else {
+		final int column = mCurrentColumn++;
+		if (isEmptyValue(column)) {
 			return null;
 		}
+		if (isNull(column)) {
+			return new ModelPoint[0];
+		}
+		return parseModelPointArray(mColumnStart[column], mColumnEnd[column]);
+	}
+
+	private ModelPoint[] parseModelPointArray(int start, int end) {
+		final char[] buffer = mBuffer;
+		final ModelPoint[] points = new ModelPoint[countParts(buffer, start, end) / 2];
+		int position = start;
+		for (int i = 0; i < points.length; i++) {
+			final int xEnd = indexOf(buffer, ARRAY_SEPARATOR, position, end);
+			final int yEnd = indexOf(buffer, ARRAY_SEPARATOR, xEnd + 1, end);
+			points[i] = new ModelPoint(parseCoordinate(position, xEnd), parseCoordinate(xEnd + 1, yEnd));
+			position = yEnd + 1;
+		}
+		return points;
 	}
 
 	public ModelRect readModelRect() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			return StringUtil.parseModelRect(value);
-		} else {
+		final int column = mCurrentColumn++;
+		if (isNull(column) || isEmptyValue(column)) {
 			return null;
 		}
-	}	
+		final char[] buffer = mBuffer;
+		final int end = mColumnEnd[column];
+		final int[] values = new int[4];
+		int position = mColumnStart[column];
+		for (int i = 0; i < 4; i++) {
+			if (position > end) {
+				throw new NumberFormatException("Invalid rect: " + getValue(column));
+			}
+			final int partEnd = indexOf(buffer, ARRAY_SEPARATOR, position, end);
+			values[i] = parseCoordinate(position, partEnd);
+			position = partEnd + 1;
+		}
+		return new ModelRect(values[0], values[1], values[2], values[3]);
+	}
+
 	public int getCount() {
 		return mTotalColumns;
 	}
 
 	public float getFloat(int index) {
-		return StringUtil.parseFloat(getValue(mRecord, index, mTotalColumns), 0);
+		if (isNull(index)) {
+			return 0;
+		}
+		try {
+			return parseFloat(mColumnStart[index], mColumnEnd[index]);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
 	}
 
 	public ModelLocation readModelLocation() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			return StringUtil.parseModelLocation(value);
-		} else {
+		final int column = mCurrentColumn++;
+		if (isNull(column) || isEmptyValue(column)) {
 			return null;
 		}
+		final char[] buffer = mBuffer;
+		final int end = mColumnEnd[column];
+		final float[] values = new float[4];
+		int position = mColumnStart[column];
+		for (int i = 0; i < 4; i++) {
+			if (position > end) {
+				throw new NumberFormatException("Invalid location: " + getValue(column));
+			}
+			final int partEnd = indexOf(buffer, ARRAY_SEPARATOR, position, end);
+			values[i] = parseFloat(position, partEnd);
+			position = partEnd + 1;
+		}
+		return new ModelLocation(values[0], values[1], values[2], values[3]);
 	}
 
 	public String[] readStringArray() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			if(value == null){
+		final int column = mCurrentColumn++;
+		if (!isEmptyValue(column)) {
+			if(isNull(column)){
 				return new String[0];
 			}
-			return StringUtil.parseStringArray(value);
+			return StringUtil.parseStringArray(getValue(column));
 		} else {
 			return null;
 		}
 	}
 
 	public int[] readIntArray() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			if(value == null){
+		final int column = mCurrentColumn++;
+		if (!isEmptyValue(column)) {
+			if(isNull(column)){
 				return new int[0];
 			}
-			return StringUtil.parseIntArray(value);
+			final char[] buffer = mBuffer;
+			final int end = mColumnEnd[column];
+			int position = mColumnStart[column];
+			final int[] values = new int[countParts(buffer, position, end)];
+			for (int i = 0; i < values.length; i++) {
+				final int partEnd = indexOf(buffer, ARRAY_SEPARATOR, position, end);
+				values[i] = parseInt(position, partEnd, -1);
+				position = partEnd + 1;
+			}
+			return values;
 		} else {
 			return null;
 		}
 	}
 
 	public long[] readLongArray() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			if(value == null){
+		final int column = mCurrentColumn++;
+		if (!isEmptyValue(column)) {
+			if(isNull(column)){
 				return new long[0];
 			}
-			return StringUtil.parseLongArray(value);
+			final char[] buffer = mBuffer;
+			final int end = mColumnEnd[column];
+			int position = mColumnStart[column];
+			final long[] values = new long[countParts(buffer, position, end)];
+			for (int i = 0; i < values.length; i++) {
+				final int partEnd = indexOf(buffer, ARRAY_SEPARATOR, position, end);
+				final long value = parseLong(position, partEnd, Long.MIN_VALUE, Long.MAX_VALUE);
+				values[i] = mIsNumber ? value : -1;
+				position = partEnd + 1;
+			}
+			return values;
 		} else {
 			return null;
 		}
@@ -321,56 +688,98 @@ public class CsvReader {
 
 	
 	public Integer[] readIntegerArray() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			if(value == null){
+		final int column = mCurrentColumn++;
+		if (!isEmptyValue(column)) {
+			if(isNull(column)){
 				return new Integer[0];
 			}
-			return StringUtil.parseIntegerArray(value);
+			final char[] buffer = mBuffer;
+			final int end = mColumnEnd[column];
+			int position = mColumnStart[column];
+			final Integer[] values = new Integer[countParts(buffer, position, end)];
+			for (int i = 0; i < values.length; i++) {
+				final int partEnd = indexOf(buffer, ARRAY_SEPARATOR, position, end);
+				final int value = (int) parseLong(position, partEnd, Integer.MIN_VALUE, Integer.MAX_VALUE);
+				values[i] = mIsNumber ? Integer.valueOf(value) : null;
+				position = partEnd + 1;
+			}
+			return values;
 		} else {
 			return null;
 		}
 	}
 
 	public boolean[] readBoolArray() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			if(value == null){
+		final int column = mCurrentColumn++;
+		if (!isEmptyValue(column)) {
+			if(isNull(column)){
 				return new boolean[0];
 			}
-			return StringUtil.parseBoolArray(value);
+			final char[] buffer = mBuffer;
+			final int end = mColumnEnd[column];
+			int position = mColumnStart[column];
+			final boolean[] values = new boolean[countParts(buffer, position, end)];
+			for (int i = 0; i < values.length; i++) {
+				final int partEnd = indexOf(buffer, ARRAY_SEPARATOR, position, end);
+				values[i] = equalsIgnoreCase(buffer, position, partEnd, "true");
+				position = partEnd + 1;
+			}
+			return values;
 		} else {
 			return null;
 		}
 	}
 	
 	public Integer readInteger() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			return Integer.parseInt(value);
+		final int column = mCurrentColumn++;
+		if (!isEmptyValue(column)) {
+			if (isNull(column)) {
+				throw new NumberFormatException("null");
+			}
+			final int value = (int) parseLong(mColumnStart[column], mColumnEnd[column], Integer.MIN_VALUE, Integer.MAX_VALUE);
+			if (!mIsNumber) {
+				throw new NumberFormatException("Invalid int: " + getValue(column));
+			}
+			return value;
 		} else {
 			return null;
 		}
 	}
 
 	public ModelSpline readModelSpline() {
-		String value = getValue(mRecord, mCurrentColumn++, mTotalColumns);
-		if (!EMPTY_VALUE.equals(value)) {
-			return StringUtil.parseModelSpline(value);
-		} else {
+		final int column = mCurrentColumn++;
+		if (isNull(column) || isEmptyValue(column)) {
 			return null;
 		}
+		final char[] buffer = mBuffer;
+		final int start = mColumnStart[column];
+		final int end = mColumnEnd[column];
+		final int separator = indexOf(buffer, ARRAY_SEPARATOR, start, end);
+		if (separator == end) {
+			throw new NumberFormatException("Invalid spline: " + getValue(column));
+		}
+		final ModelSpline spline = new ModelSpline();
+		spline.isSpline = equalsIgnoreCase(buffer, start, separator, "true");
+		spline.points = separator + 1 < end ? parseModelPointArray(separator + 1, end) : new ModelPoint[0];
+		return spline;
 	}
 
 	public void skipColumns(int count) {
 		mCurrentColumn+=count;
-	}
-
-	public String getEntireRecord() {
-		return mEntireRecord;
-	}
-
-	public boolean isComment(){
-		return mEntireRecord!=null && (mEntireRecord.startsWith("#") || mEntireRecord.startsWith(";"));
+	}
+
+	public String getEntireRecord() {
+		if (mEntireRecord == null && mRecordEnd > mRecordStart) {
+			mEntireRecord = new String(mBuffer, mRecordStart, mRecordEnd - mRecordStart);
+		}
+		return mEntireRecord;
+	}
+
+	public boolean isComment(){
+		if (mRecordEnd == mRecordStart) {
+			return false;
+		}
+		final char ch = mBuffer[mRecordStart];
+		return ch == '#' || ch == ';';
 	}
 }
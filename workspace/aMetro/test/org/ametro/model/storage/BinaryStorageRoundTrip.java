@@ -0,0 +1,169 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ametro.model.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+
+import org.ametro.model.Model;
+import org.ametro.model.route.RouteMatrix;
+
+/**
+ * Saves a map loaded by CsvStorage with BinaryStorage and compares the model,
+ * all locales, all views and the route matrix loaded back from both files,
+ * arguments: <.ametro file> [.ametrob file]
+ */
+public class BinaryStorageRoundTrip {
+
+	// fields filled at runtime, not stored in map files
+	private static final HashSet<String> SKIPPED_FIELDS = new HashSet<String>(Arrays.asList(
+			"fileSystemName", "routeMatrix", "routeMatrixRequested", "routeGraphs", "layers", "owner"));
+
+	private static int mDifferences;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("usage: BinaryStorageRoundTrip <.ametro file> [.ametrob file]");
+			return;
+		}
+		final String csvFileName = args[0];
+		final String binaryFileName = args.length > 1 ? args[1] : File.createTempFile("roundtrip", ".ametrob").getAbsolutePath();
+
+		final CsvStorage csv = new CsvStorage();
+		final BinaryStorage binary = new BinaryStorage();
+
+		long time = System.currentTimeMillis();
+		final Model expected = loadFully(csv, csvFileName);
+		System.out.println("csv load = " + (System.currentTimeMillis() - time) + " ms");
+
+		time = System.currentTimeMillis();
+		binary.saveModel(binaryFileName, expected);
+		System.out.println("binary save = " + (System.currentTimeMillis() - time) + " ms, "
+				+ new File(binaryFileName).length() + " bytes vs " + new File(csvFileName).length() + " bytes");
+
+		time = System.currentTimeMillis();
+		final Model actual = loadFully(binary, binaryFileName);
+		System.out.println("binary load = " + (System.currentTimeMillis() - time) + " ms");
+
+		compare("model", expected, actual, new IdentityHashMap<Object, Object>());
+
+		RouteMatrix expectedMatrix = csv.loadRouteMatrix(csvFileName, expected);
+		if (expectedMatrix == null) {
+			// map saved before route matrix was stored, compare with calculated one
+			final ByteArrayOutputStream matrix = new ByteArrayOutputStream();
+			RouteMatrix.write(expected, matrix);
+			expectedMatrix = RouteMatrix.wrap(ByteBuffer.wrap(matrix.toByteArray()));
+		}
+		final RouteMatrix actualMatrix = binary.loadRouteMatrix(binaryFileName, actual);
+		if (expectedMatrix == null || actualMatrix == null) {
+			difference("routeMatrix", expectedMatrix, actualMatrix);
+		} else {
+			final int count = expected.stations.length;
+			for (int from = 0; from < count; from++) {
+				for (int to = 0; to < count; to++) {
+					final long delay = expectedMatrix.getDelay(from, to);
+					if (delay != actualMatrix.getDelay(from, to)) {
+						difference("routeMatrix[" + from + "][" + to + "]", delay, actualMatrix.getDelay(from, to));
+					}
+				}
+			}
+		}
+
+		System.out.println(mDifferences == 0 ? "OK" : "FAILED, " + mDifferences + " differences");
+		if (args.length < 2) {
+			new File(binaryFileName).delete();
+		}
+	}
+
+	private static Model loadFully(IModelStorage storage, String fileName) throws Exception {
+		final Model model = storage.loadModel(fileName, Locale.ENGLISH);
+		for (int i = 0; i < model.locales.length; i++) {
+			if (model.localeTexts[i] == null) {
+				storage.loadModelLocale(fileName, model, i);
+			}
+		}
+		for (int i = 0; i < model.viewSystemNames.length; i++) {
+			if (model.views[i] == null) {
+				model.views[i] = storage.loadModelView(fileName, model, model.viewSystemNames[i]);
+			}
+		}
+		return model;
+	}
+
+	// compares public fields of model objects recursively
+	private static void compare(String path, Object expected, Object actual, IdentityHashMap<Object, Object> visited) throws Exception {
+		if (expected == null || actual == null) {
+			if (expected != actual) {
+				difference(path, expected, actual);
+			}
+			return;
+		}
+		final Class<?> type = expected.getClass();
+		if (type != actual.getClass()) {
+			difference(path, type.getName(), actual.getClass().getName());
+			return;
+		}
+		if (type.isArray()) {
+			final int length = Array.getLength(expected);
+			if (length != Array.getLength(actual)) {
+				difference(path + ".length", length, Array.getLength(actual));
+				return;
+			}
+			for (int i = 0; i < length; i++) {
+				compare(path + "[" + i + "]", Array.get(expected, i), Array.get(actual, i), visited);
+			}
+			return;
+		}
+		if (type.isPrimitive() || type.getName().startsWith("java.")) {
+			if (!expected.equals(actual)) {
+				difference(path, expected, actual);
+			}
+			return;
+		}
+		if (visited.put(expected, actual) != null) {
+			return;
+		}
+		for (Field field : type.getFields()) {
+			final int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) || SKIPPED_FIELDS.contains(field.getName())) {
+				continue;
+			}
+			compare(path + "." + field.getName(), field.get(expected), field.get(actual), visited);
+		}
+	}
+
+	private static void difference(String path, Object expected, Object actual) {
+		if (mDifferences < 20) {
+			System.out.println(path + ": expected " + expected + ", actual " + actual);
+		}
+		mDifferences++;
+	}
+
+}
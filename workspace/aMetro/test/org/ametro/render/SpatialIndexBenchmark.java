@@ -0,0 +1,196 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ametro.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Compares viewport queries of the STR packed SpatialIndex with the former
+ * binary clipping tree of RenderProgram, including sorting of its result.
+ * Scheme is generated with the element count and size of the largest schemes,
+ * arguments: [elements] [width] [height] [queries]
+ */
+public class SpatialIndexBenchmark {
+
+	private static final int CLIPPING_TREE_GRANULARITY = 100;
+
+	// former RenderProgram clipping tree over element indexes
+	private static class ClippingTreeNode {
+		final int[] clip;
+		final ArrayList<Integer> elements = new ArrayList<Integer>();
+		ClippingTreeNode left;
+		ClippingTreeNode right;
+
+		ClippingTreeNode(int l, int t, int r, int b) {
+			clip = new int[] { l, t, r, b };
+		}
+	}
+
+	public static void main(String[] args) {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 6000;
+		final int width = args.length > 1 ? Integer.parseInt(args[1]) : 6000;
+		final int height = args.length > 2 ? Integer.parseInt(args[2]) : 6000;
+		final int queries = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+
+		final Random rnd = new Random(1);
+		final int[] boxes = new int[count * 4];
+		for (int i = 0; i < count; i++) {
+			// mix of small stations and names with long segments
+			final int x = rnd.nextInt(width);
+			final int y = rnd.nextInt(height);
+			final int w = i % 3 == 0 ? 20 + rnd.nextInt(400) : 10 + rnd.nextInt(60);
+			final int h = i % 3 == 0 ? 20 + rnd.nextInt(400) : 10 + rnd.nextInt(20);
+			boxes[i * 4] = x;
+			boxes[i * 4 + 1] = y;
+			boxes[i * 4 + 2] = Math.min(width, x + w);
+			boxes[i * 4 + 3] = Math.min(height, y + h);
+		}
+		final int[][] viewports = new int[queries][];
+		for (int i = 0; i < queries; i++) {
+			final float scale = 0.25f + rnd.nextFloat() * 2;
+			final int w = (int) (480 / scale);
+			final int h = (int) (800 / scale);
+			final int x = rnd.nextInt(width) - w / 2;
+			final int y = rnd.nextInt(height) - h / 2;
+			viewports[i] = new int[] { x, y, x + w, y + h };
+		}
+
+		long start = System.nanoTime();
+		final ClippingTreeNode tree = new ClippingTreeNode(0, 0, width, height);
+		makeClippingTreeNodes(tree);
+		for (int i = 0; i < count; i++) {
+			addClippingTreeElement(boxes, i, tree);
+		}
+		final long treeBuild = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		final SpatialIndex index = new SpatialIndex(boxes, count);
+		final long indexBuild = System.nanoTime() - start;
+
+		// verify and warm up
+		for (int i = 0; i < 1000 && i < queries; i++) {
+			final ArrayList<Integer> expected = queryTree(tree, boxes, viewports[i]);
+			final ArrayList<Integer> actual = queryIndex(index, viewports[i]);
+			if (!expected.equals(actual)) {
+				throw new IllegalStateException("Result mismatch at query " + i);
+			}
+		}
+
+		long hits = 0;
+		start = System.nanoTime();
+		for (int[] v : viewports) {
+			hits += queryTree(tree, boxes, v).size();
+		}
+		final long treeTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int[] v : viewports) {
+			hits -= queryIndex(index, v).size();
+		}
+		final long indexTime = System.nanoTime() - start;
+		if (hits != 0) {
+			throw new IllegalStateException("Hit count mismatch");
+		}
+
+		System.out.println("elements = " + count + ", queries = " + queries);
+		System.out.println("clipping tree: build " + treeBuild / 1000 + " us, query " + treeTime / queries + " ns");
+		System.out.println("spatial index: build " + indexBuild / 1000 + " us, query " + indexTime / queries + " ns");
+	}
+
+	private static ArrayList<Integer> queryIndex(SpatialIndex index, int[] v) {
+		final long[] bits = new long[(index.size() + 63) >> 6];
+		index.query(v[0], v[1], v[2], v[3], bits);
+		final ArrayList<Integer> res = new ArrayList<Integer>(100);
+		for (int w = 0; w < bits.length; w++) {
+			long word = bits[w];
+			while (word != 0) {
+				res.add((w << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return res;
+	}
+
+	private static ArrayList<Integer> queryTree(ClippingTreeNode tree, int[] boxes, int[] v) {
+		final ArrayList<Integer> res = new ArrayList<Integer>(100);
+		appendClipping(v, boxes, res, tree);
+		Collections.sort(res);
+		return res;
+	}
+
+	private static boolean intersects(int[] a, int ai, int[] b, int bi) {
+		return a[ai] < b[bi + 2] && b[bi] < a[ai + 2] && a[ai + 1] < b[bi + 3] && b[bi + 1] < a[ai + 3];
+	}
+
+	private static boolean contains(int[] a, int[] b, int bi) {
+		return a[0] < a[2] && a[1] < a[3] && a[0] <= b[bi] && a[1] <= b[bi + 1] && a[2] >= b[bi + 2] && a[3] >= b[bi + 3];
+	}
+
+	private static void appendClipping(int[] v, int[] boxes, ArrayList<Integer> res, ClippingTreeNode node) {
+		if (intersects(node.clip, 0, v, 0)) {
+			for (Integer elem : node.elements) {
+				if (intersects(v, 0, boxes, elem * 4)) {
+					res.add(elem);
+				}
+			}
+			if (node.left != null) {
+				appendClipping(v, boxes, res, node.left);
+				appendClipping(v, boxes, res, node.right);
+			}
+		}
+	}
+
+	private static void addClippingTreeElement(int[] boxes, int elem, ClippingTreeNode node) {
+		if (node.left == null || node.right == null) {
+			node.elements.add(elem);
+		} else if (contains(node.left.clip, boxes, elem * 4)) {
+			addClippingTreeElement(boxes, elem, node.left);
+		} else if (contains(node.right.clip, boxes, elem * 4)) {
+			addClippingTreeElement(boxes, elem, node.right);
+		} else {
+			node.elements.add(elem);
+		}
+	}
+
+	private static void makeClippingTreeNodes(ClippingTreeNode root) {
+		final int[] clip = root.clip;
+		final int width = clip[2] - clip[0];
+		final int height = clip[3] - clip[1];
+		if (width < CLIPPING_TREE_GRANULARITY && height < CLIPPING_TREE_GRANULARITY) {
+			return;
+		}
+		if (width > height) {
+			final int half = clip[0] + width / 2;
+			root.left = new ClippingTreeNode(clip[0], clip[1], half, clip[3]);
+			root.right = new ClippingTreeNode(half, clip[1], clip[2], clip[3]);
+		} else {
+			final int half = clip[1] + height / 2;
+			root.left = new ClippingTreeNode(clip[0], clip[1], clip[2], half);
+			root.right = new ClippingTreeNode(clip[0], half, clip[2], clip[3]);
+		}
+		makeClippingTreeNodes(root.left);
+		makeClippingTreeNodes(root.right);
+	}
+
+}
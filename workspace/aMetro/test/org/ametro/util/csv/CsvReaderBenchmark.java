@@ -0,0 +1,343 @@
+/*
+ * http://code.google.com/p/ametro/
+ * Transport map viewer for Android platform
+ * Copyright (C) 2009-2010 contacts@ametro.org Roman Golovanov and other
+ * respective project committers (see project home page)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ */
+
+package org.ametro.util.csv;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.ametro.model.ext.ModelPoint;
+import org.ametro.model.ext.ModelRect;
+import org.ametro.model.ext.ModelSpline;
+import org.ametro.util.StringUtil;
+
+/**
+ * Compares reading of scheme view (maps\*.csv) with CsvReader and with the
+ * former tokenizer, which split every record into Strings before parsing.
+ * View is generated with the size of the largest schemes when no file is given,
+ * arguments: [maps csv file] [iterations]
+ */
+public class CsvReaderBenchmark {
+
+    // former CsvReader, only methods used by scheme view
+    private static class FormerCsvReader {
+        private final BufferedReader mReader;
+        private final char mSeparator;
+        private final ArrayList<String> mLineParts = new ArrayList<String>();
+        private final StringBuilder mLineBuilder = new StringBuilder();
+        private String[] mRecord;
+        private int mCurrentColumn;
+        private int mTotalColumns;
+
+        FormerCsvReader(BufferedReader reader, char separator) {
+            mReader = reader;
+            mSeparator = separator;
+        }
+
+        boolean next() throws IOException {
+            String line = mReader.readLine();
+            while (line != null && line.length() == 0) {
+                line = mReader.readLine();
+            }
+            mCurrentColumn = 0;
+            if (line == null) {
+                mTotalColumns = 0;
+                return false;
+            }
+            final ArrayList<String> parts = mLineParts;
+            final StringBuilder sb = mLineBuilder;
+            parts.clear();
+            sb.setLength(0);
+            for (int i = 0; i < line.length(); i++) {
+                final char ch = line.charAt(i);
+                if (ch == mSeparator) {
+                    parts.add(sb.toString());
+                    sb.setLength(0);
+                } else {
+                    sb.append(ch);
+                }
+            }
+            parts.add(sb.toString());
+            mRecord = parts.toArray(new String[parts.size()]);
+            mTotalColumns = mRecord.length;
+            return true;
+        }
+
+        private String getValue() {
+            final int column = mCurrentColumn++;
+            return column < mTotalColumns ? StringUtil.notEmptyElseNull(mRecord[column]) : null;
+        }
+
+        String readString() {
+            return getValue();
+        }
+
+        int readInt() {
+            return StringUtil.parseInt(getValue(), 0);
+        }
+
+        long readLong() {
+            return StringUtil.parseLong(getValue(), 0);
+        }
+
+        boolean readBoolean() {
+            return StringUtil.parseBoolean(getValue(), false);
+        }
+
+        int[] readIntArray() {
+            final String value = getValue();
+            return CsvReader.EMPTY_VALUE.equals(value) ? null : StringUtil.parseIntArray(value);
+        }
+
+        Integer readInteger() {
+            final String value = getValue();
+            return CsvReader.EMPTY_VALUE.equals(value) ? null : Integer.parseInt(value);
+        }
+
+        ModelPoint readModelPoint() {
+            final String value = getValue();
+            return CsvReader.EMPTY_VALUE.equals(value) ? null : StringUtil.parseModelPoint(value);
+        }
+
+        ModelRect readModelRect() {
+            final String value = getValue();
+            return CsvReader.EMPTY_VALUE.equals(value) ? null : StringUtil.parseModelRect(value);
+        }
+
+        ModelSpline readModelSpline() {
+            final String value = getValue();
+            return CsvReader.EMPTY_VALUE.equals(value) ? null : StringUtil.parseModelSpline(value);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        final String text = args.length > 0 && !"-".equals(args[0]) ? readFile(new File(args[0])) : generateView(1200, 1500);
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        System.out.println("view csv: " + text.length() + " chars, " + iterations + " iterations");
+
+        final long expected = readFormer(text);
+        final long actual = readCurrent(text);
+        if (expected != actual) {
+            throw new AssertionError("checksum differs: " + expected + " != " + actual);
+        }
+
+        // warm up both readers before measure
+        for (int i = 0; i < iterations / 4; i++) {
+            readFormer(text);
+            readCurrent(text);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            readFormer(text);
+        }
+        final long former = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            readCurrent(text);
+        }
+        final long current = System.nanoTime() - start;
+
+        System.out.println("former tokenizer: " + (former / iterations / 1000) + " us per view");
+        System.out.println("buffer tokenizer: " + (current / iterations / 1000) + " us per view");
+    }
+
+    // reads view in the same order as CsvStorage, returns checksum of values
+    private static long readCurrent(String text) throws IOException {
+        final CsvReader reader = new CsvReader(new BufferedReader(new StringReader(text)));
+        long sum = 0;
+        reader.next();
+        sum += reader.readInt();
+        sum += reader.readString().length();
+        sum += reader.readInt();
+        sum += reader.readBoolean() ? 1 : 0;
+        sum += reader.readLong();
+        sum += reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt();
+        reader.readString();
+        sum += (reader.readBoolean() ? 1 : 0) + (reader.readBoolean() ? 1 : 0) + (reader.readBoolean() ? 1 : 0);
+        sum += checksum(reader.readIntArray()) + checksum(reader.readIntArray());
+        final int lines = reader.readInt();
+        final int stations = reader.readInt();
+        final int segments = reader.readInt();
+        final int transfers = reader.readInt();
+        for (int i = 0; i < lines; i++) {
+            reader.next();
+            sum += reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt();
+            sum += checksum(reader.readModelRect());
+        }
+        for (int i = 0; i < stations; i++) {
+            reader.next();
+            sum += reader.readInt() + reader.readInt() + reader.readInt();
+            sum += checksum(reader.readModelPoint()) + checksum(reader.readModelRect());
+            sum += checksum(reader.readInteger());
+        }
+        for (int i = 0; i < segments; i++) {
+            reader.next();
+            sum += reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt();
+            sum += checksum(reader.readModelSpline());
+        }
+        for (int i = 0; i < transfers; i++) {
+            reader.next();
+            sum += reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt();
+        }
+        return sum;
+    }
+
+    private static long readFormer(String text) throws IOException {
+        final FormerCsvReader reader = new FormerCsvReader(new BufferedReader(new StringReader(text)), ';');
+        long sum = 0;
+        reader.next();
+        sum += reader.readInt();
+        sum += reader.readString().length();
+        sum += reader.readInt();
+        sum += reader.readBoolean() ? 1 : 0;
+        sum += reader.readLong();
+        sum += reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt();
+        reader.readString();
+        sum += (reader.readBoolean() ? 1 : 0) + (reader.readBoolean() ? 1 : 0) + (reader.readBoolean() ? 1 : 0);
+        sum += checksum(reader.readIntArray()) + checksum(reader.readIntArray());
+        final int lines = reader.readInt();
+        final int stations = reader.readInt();
+        final int segments = reader.readInt();
+        final int transfers = reader.readInt();
+        for (int i = 0; i < lines; i++) {
+            reader.next();
+            sum += reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt();
+            sum += checksum(reader.readModelRect());
+        }
+        for (int i = 0; i < stations; i++) {
+            reader.next();
+            sum += reader.readInt() + reader.readInt() + reader.readInt();
+            sum += checksum(reader.readModelPoint()) + checksum(reader.readModelRect());
+            sum += checksum(reader.readInteger());
+        }
+        for (int i = 0; i < segments; i++) {
+            reader.next();
+            sum += reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt();
+            sum += checksum(reader.readModelSpline());
+        }
+        for (int i = 0; i < transfers; i++) {
+            reader.next();
+            sum += reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt();
+        }
+        return sum;
+    }
+
+    private static long checksum(int[] values) {
+        long sum = 0;
+        if (values != null) {
+            for (int value : values) {
+                sum = sum * 31 + value;
+            }
+        }
+        return sum;
+    }
+
+    private static long checksum(Integer value) {
+        return value != null ? value : -7;
+    }
+
+    private static long checksum(ModelPoint point) {
+        return point != null ? point.x * 31L + point.y : -1;
+    }
+
+    private static long checksum(ModelRect rect) {
+        return rect != null ? ((rect.left * 31L + rect.top) * 31 + rect.right) * 31 + rect.bottom : -3;
+    }
+
+    private static long checksum(ModelSpline spline) {
+        if (spline == null) {
+            return -5;
+        }
+        long sum = spline.isSpline ? 1 : 0;
+        for (ModelPoint point : spline.points) {
+            sum = sum * 31 + checksum(point);
+        }
+        return sum;
+    }
+
+    private static String readFile(File file) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
+        try {
+            final StringBuilder sb = new StringBuilder();
+            final char[] buffer = new char[8192];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, count);
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    // scheme view in CsvWriter format: header, lines, stations, segments, transfers
+    private static String generateView(int stations, int segments) {
+        final Random rnd = new Random(1);
+        final int lines = 40;
+        final int transfers = stations / 5;
+        final StringBuilder sb = new StringBuilder();
+        sb.append("0;metro;12;true;1;6000;6000;11;9;null;true;true;false;0,1;0;");
+        sb.append(lines).append(';').append(stations).append(';').append(segments).append(';').append(transfers).append('\n');
+        for (int i = 0; i < lines; i++) {
+            sb.append(i).append(';').append(i).append(";9;").append(rnd.nextInt()).append(';').append(rnd.nextInt()).append(";-1;");
+            appendRect(sb, rnd).append('\n');
+        }
+        for (int i = 0; i < stations; i++) {
+            sb.append(i).append(';').append(i).append(';').append(i % lines).append(';');
+            sb.append(rnd.nextInt(6000)).append(',').append(rnd.nextInt(6000)).append(';');
+            appendRect(sb, rnd);
+            sb.append(';').append(i % 7 == 0 ? "null" : Integer.toString(rnd.nextInt(30))).append('\n');
+        }
+        for (int i = 0; i < segments; i++) {
+            sb.append(i).append(';').append(i % lines).append(';').append(i).append(';');
+            sb.append(rnd.nextInt(stations)).append(';').append(rnd.nextInt(stations)).append(';');
+            if (i % 3 == 0) {
+                sb.append(i % 2 == 0);
+                final int points = 1 + rnd.nextInt(4);
+                for (int p = 0; p < points; p++) {
+                    sb.append(',').append(rnd.nextInt(6000)).append(',').append(rnd.nextInt(6000));
+                }
+            } else {
+                sb.append("null");
+            }
+            sb.append('\n');
+        }
+        for (int i = 0; i < transfers; i++) {
+            sb.append(i).append(';').append(i).append(';').append(rnd.nextInt(stations)).append(';').append(rnd.nextInt(stations)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder appendRect(StringBuilder sb, Random rnd) {
+        final int x = rnd.nextInt(6000);
+        final int y = rnd.nextInt(6000);
+        return sb.append(x).append(',').append(y).append(',').append(x + rnd.nextInt(200)).append(',').append(y + rnd.nextInt(40));
+    }
+
+}